@@ -0,0 +1,61 @@
+package mountainhuts.bench;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import mountainhuts.Region;
+
+/**
+ * Latency of {@link Region#getAltitudeRange} for a growing number of
+ * contiguous ranges, probing altitudes inside and outside the table.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Thread)
+public class AltitudeRangeBenchmark {
+
+    @Param({ "3", "20", "180", "1000" })
+    public int ranges;
+
+    private Region region;
+    private int[] altitudes;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        region = new Region("bench");
+        int step = Math.max(1, 9000 / ranges);
+        String[] defs = new String[ranges];
+        for (int i = 0; i < ranges; i++) {
+            defs[i] = (i * step) + "-" + (i * step + step - 1);
+        }
+        region.setAltitudeRanges(defs);
+        altitudes = new int[1024];
+        Random rnd = new Random(1);
+        for (int i = 0; i < altitudes.length; i++) {
+            altitudes[i] = rnd.nextInt(12000) - 1000;
+        }
+    }
+
+    @Benchmark
+    public String getAltitudeRange() {
+        next = (next + 1) & (altitudes.length - 1);
+        return region.getAltitudeRange(altitudes[next]);
+    }
+}
@@ -0,0 +1,48 @@
+package mountainhuts.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Generated input for the benchmarks, written by {@link HutDataGenerator}.
+ *
+ * The benchmarks in this folder use JMH; build them with
+ * {@code jmh-core} and {@code jmh-generator-annprocess} on the class path
+ * together with the classes in {@code src}, then run
+ * {@code org.openjdk.jmh.Main} (e.g. {@code -p huts=10000,1000000}).
+ *
+ * Files are written once per size into the temporary directory and
+ * reused by all benchmarks of the same JVM.
+ */
+public final class BenchData {
+
+    private static final Map<Integer, File> files = new HashMap<>();
+
+    private BenchData() {
+    }
+
+    /**
+     * @return a CSV file with the given number of hut rows plus the header
+     */
+    public static synchronized File file(int rows) {
+        return files.computeIfAbsent(rows, BenchData::write);
+    }
+
+    private static File write(int rows) {
+        try {
+            File f = File.createTempFile("bench_huts_" + rows + "_", ".csv");
+            f.deleteOnExit();
+            new HutDataGenerator()
+                    .rows(rows)
+                    .municipalities(Math.max(50, rows / 100))
+                    .seed(rows)
+                    .write(f.toPath());
+            return f;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,243 @@
+package mountainhuts.bench;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**
+ * Writes synthetic data in the {@code mountain_huts.csv} schema:
+ * <pre>
+ * Province;Municipality;MunicipalityAltitude;Name;Altitude;Category;BedsNumber
+ * </pre>
+ *
+ * Rows are streamed, so the memory used depends only on the number of
+ * municipalities and the file can hold hundreds of millions of rows.
+ * The shape of the data is configurable:
+ * <ul>
+ * <li>provinces are picked with a Zipfian distribution of exponent
+ *     {@link #zipf} (0 means uniform); municipalities are spread evenly
+ *     among them, so the busiest provinces also have more huts per
+ *     municipality;</li>
+ * <li>{@link #missingAltitude} is the share of huts without an altitude,
+ *     which then inherit the one of their municipality;</li>
+ * <li>{@link #duplicates} is the share of rows reusing the name of an
+ *     earlier hut;</li>
+ * <li>{@link #malformed} is the share of lines that are truncated or
+ *     hold a non numeric field.</li>
+ * </ul>
+ * The same seed always produces the same file.
+ *
+ * Usage: {@code HutDataGenerator [--rows N] [--provinces N]
+ * [--municipalities N] [--zipf S] [--missing-altitude R]
+ * [--duplicates R] [--malformed R] [--seed N] file}
+ */
+public class HutDataGenerator {
+
+    static final String HEADER = "Province;Municipality;MunicipalityAltitude;Name;Altitude;Category;BedsNumber";
+
+    private static final String[] CATEGORIES = {
+            "Rifugio alpino", "Rifugio escursionistico", "Bivacco fisso", "Rifugio non gestito", "Posto tappa GTA"
+    };
+
+    private long rows = 100_000;
+    private int provinces = 12;
+    private int municipalities = 1_000;
+    private double zipf = 1.0;
+    private double missingAltitude = 0.3;
+    private double duplicates = 0.0;
+    private double malformed = 0.0;
+    private long seed = 42;
+
+    public HutDataGenerator rows(long rows) {
+        this.rows = rows;
+        return this;
+    }
+
+    public HutDataGenerator provinces(int provinces) {
+        this.provinces = provinces;
+        return this;
+    }
+
+    public HutDataGenerator municipalities(int municipalities) {
+        this.municipalities = municipalities;
+        return this;
+    }
+
+    public HutDataGenerator zipf(double exponent) {
+        this.zipf = exponent;
+        return this;
+    }
+
+    public HutDataGenerator missingAltitude(double ratio) {
+        this.missingAltitude = ratio;
+        return this;
+    }
+
+    public HutDataGenerator duplicates(double ratio) {
+        this.duplicates = ratio;
+        return this;
+    }
+
+    public HutDataGenerator malformed(double ratio) {
+        this.malformed = ratio;
+        return this;
+    }
+
+    public HutDataGenerator seed(long seed) {
+        this.seed = seed;
+        return this;
+    }
+
+    public void write(Path file) throws IOException {
+        try (OutputStream out = Files.newOutputStream(file)) {
+            write(out);
+        }
+    }
+
+    /**
+     * Writes the header and all the rows; the stream is not closed.
+     */
+    public void write(OutputStream out) throws IOException {
+        if (provinces < 1 || municipalities < provinces) {
+            throw new IllegalArgumentException("Need at least one municipality per province");
+        }
+        SplittableRandom rnd = new SplittableRandom(seed);
+
+        // cumulative Zipf weights of the provinces
+        double[] cumulative = new double[provinces];
+        double total = 0;
+        for (int p = 0; p < provinces; p++) {
+            total += 1 / Math.pow(p + 1, zipf);
+            cumulative[p] = total;
+        }
+
+        // municipality i belongs to province i % provinces
+        int[] municipalityAltitudes = new int[municipalities];
+        for (int m = 0; m < municipalities; m++) {
+            municipalityAltitudes[m] = 200 + rnd.nextInt(1800);
+        }
+
+        LineWriter line = new LineWriter(out);
+        line.put(HEADER).end();
+        for (long i = 0; i < rows; i++) {
+            double u = rnd.nextDouble() * total;
+            int province = Arrays.binarySearch(cumulative, u);
+            if (province < 0) province = Math.min(-province - 1, provinces - 1);
+            int perProvince = (municipalities - province + provinces - 1) / provinces;
+            int m = province + provinces * rnd.nextInt(perProvince);
+
+            long hut = i > 0 && rnd.nextDouble() < duplicates ? rnd.nextLong(i) : i;
+            int municipalityAltitude = municipalityAltitudes[m];
+            boolean inherit = rnd.nextDouble() < missingAltitude;
+            int altitude = municipalityAltitude + rnd.nextInt(2500);
+            int beds = rnd.nextInt(150);
+            int broken = rnd.nextDouble() < malformed ? 1 + rnd.nextInt(3) : 0;
+
+            line.put("Province ").put(province).put(';')
+                    .put("Municipality ").put(m).put(';')
+                    .put(municipalityAltitude).put(';')
+                    .put("Hut ").put(hut).put(';');
+            if (broken == 1) {
+                line.end(); // truncated line
+                continue;
+            }
+            if (broken == 2) line.put("n/a");
+            else if (!inherit) line.put(altitude);
+            line.put(';').put(CATEGORIES[(int) (hut % CATEGORIES.length)]).put(';');
+            if (broken == 3) line.put("many");
+            else line.put(beds);
+            line.end();
+        }
+        line.flush();
+    }
+
+    /**
+     * ASCII line builder over a large byte buffer.
+     */
+    private static final class LineWriter {
+        private final OutputStream out;
+        private final byte[] buffer = new byte[1 << 20];
+        private int length;
+
+        LineWriter(OutputStream out) {
+            this.out = out;
+        }
+
+        @SuppressWarnings("deprecation") // all the text written is ASCII
+        LineWriter put(String s) throws IOException {
+            reserve(s.length());
+            s.getBytes(0, s.length(), buffer, length);
+            length += s.length();
+            return this;
+        }
+
+        LineWriter put(char c) throws IOException {
+            reserve(1);
+            buffer[length++] = (byte) c;
+            return this;
+        }
+
+        LineWriter put(long value) throws IOException {
+            reserve(20);
+            if (value < 0) {
+                buffer[length++] = '-';
+                value = -value;
+            }
+            int start = length;
+            do {
+                buffer[length++] = (byte) ('0' + value % 10);
+                value /= 10;
+            } while (value != 0);
+            for (int i = start, j = length - 1; i < j; i++, j--) {
+                byte t = buffer[i];
+                buffer[i] = buffer[j];
+                buffer[j] = t;
+            }
+            return this;
+        }
+
+        void end() throws IOException {
+            put('\n');
+        }
+
+        private void reserve(int n) throws IOException {
+            if (length + n > buffer.length) flush();
+        }
+
+        void flush() throws IOException {
+            out.write(buffer, 0, length);
+            length = 0;
+            out.flush();
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        HutDataGenerator generator = new HutDataGenerator();
+        String file = null;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+            case "--rows": generator.rows(Long.parseLong(args[++i])); break;
+            case "--provinces": generator.provinces(Integer.parseInt(args[++i])); break;
+            case "--municipalities": generator.municipalities(Integer.parseInt(args[++i])); break;
+            case "--zipf": generator.zipf(Double.parseDouble(args[++i])); break;
+            case "--missing-altitude": generator.missingAltitude(Double.parseDouble(args[++i])); break;
+            case "--duplicates": generator.duplicates(Double.parseDouble(args[++i])); break;
+            case "--malformed": generator.malformed(Double.parseDouble(args[++i])); break;
+            case "--seed": generator.seed(Long.parseLong(args[++i])); break;
+            default: file = args[i];
+            }
+        }
+        if (file == null) {
+            System.err.println("Usage: HutDataGenerator [--rows N] [--provinces N] [--municipalities N] [--zipf S]"
+                    + " [--missing-altitude R] [--duplicates R] [--malformed R] [--seed N] file");
+            System.exit(2);
+        }
+        long start = System.nanoTime();
+        generator.write(Paths.get(file));
+        System.out.printf("%s written in %d ms%n", file, (System.nanoTime() - start) / 1_000_000);
+    }
+}
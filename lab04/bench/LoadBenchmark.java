@@ -0,0 +1,87 @@
+package mountainhuts.bench;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import mountainhuts.Region;
+
+/**
+ * Throughput of the CSV loaders of {@link Region}.
+ *
+ * Besides loads per second, the {@link Throughput} counters report
+ * the bytes and rows consumed per second.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class LoadBenchmark {
+
+    @Param({ "10000", "1000000" })
+    public int huts;
+
+    private String file;
+    private long bytes;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        File f = BenchData.file(huts);
+        file = f.getAbsolutePath();
+        bytes = f.length();
+    }
+
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Throughput {
+        public long bytes;
+        public long rows;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            bytes = 0;
+            rows = 0;
+        }
+    }
+
+    private Region count(Region r, Throughput t) {
+        t.bytes += bytes;
+        t.rows += huts;
+        return r;
+    }
+
+    @Benchmark
+    public Region fromFile(Throughput t) {
+        return count(Region.fromFile("bench", file), t);
+    }
+
+    @Benchmark
+    public Region fromMappedFile(Throughput t) {
+        return count(Region.fromMappedFile("bench", file), t);
+    }
+
+    @Benchmark
+    public Region fromFileParallel(Throughput t) {
+        return count(Region.fromFileParallel("bench", file), t);
+    }
+
+    @Benchmark
+    public Region fromFileOffHeap(Throughput t) {
+        return count(Region.fromFileOffHeap("bench", file), t);
+    }
+}
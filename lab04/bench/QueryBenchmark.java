@@ -0,0 +1,93 @@
+package mountainhuts.bench;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import mountainhuts.Region;
+
+/**
+ * Latency of the R4 queries of {@link Region}.
+ *
+ * The plain benchmarks query a region whose aggregates are already
+ * built; the {@code rebuild} ones reset the altitude ranges before every
+ * call so they also pay for the scan over all huts.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+@State(Scope.Benchmark)
+public class QueryBenchmark {
+
+    private static final String[] RANGES = { "0-1000", "1001-1500", "1501-2000", "2001-2500", "2501-INF" };
+
+    @Param({ "10000", "1000000", "10000000" })
+    public int huts;
+
+    private Region region;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        region = Region.fromFileParallel("bench", BenchData.file(huts).getAbsolutePath());
+        region.setResultCacheSize(0); // measure the queries, not the result cache
+        region.setAltitudeRanges(RANGES);
+    }
+
+    @Benchmark
+    public Map<String, Long> countMunicipalitiesPerProvince() {
+        return region.countMunicipalitiesPerProvince();
+    }
+
+    @Benchmark
+    public Map<String, Map<String, Long>> countMountainHutsPerMunicipalityPerProvince() {
+        return region.countMountainHutsPerMunicipalityPerProvince();
+    }
+
+    @Benchmark
+    public Map<String, Long> countMountainHutsPerAltitudeRange() {
+        return region.countMountainHutsPerAltitudeRange();
+    }
+
+    @Benchmark
+    public Map<String, Integer> totalBedsNumberPerProvince() {
+        return region.totalBedsNumberPerProvince();
+    }
+
+    @Benchmark
+    public Map<String, Optional<Integer>> maximumBedsNumberPerAltitudeRange() {
+        return region.maximumBedsNumberPerAltitudeRange();
+    }
+
+    @Benchmark
+    public Map<Long, List<String>> municipalityNamesPerCountOfMountainHuts() {
+        return region.municipalityNamesPerCountOfMountainHuts();
+    }
+
+    @Benchmark
+    public Map<String, Long> rebuildCountMountainHutsPerAltitudeRange() {
+        region.setAltitudeRanges(RANGES);
+        return region.countMountainHutsPerAltitudeRange();
+    }
+
+    @Benchmark
+    public Map<String, Optional<Integer>> rebuildMaximumBedsNumberPerAltitudeRange() {
+        region.setAltitudeRanges(RANGES);
+        return region.maximumBedsNumberPerAltitudeRange();
+    }
+}
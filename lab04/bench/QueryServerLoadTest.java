@@ -0,0 +1,128 @@
+package mountainhuts.bench;
+
+import java.io.Reader;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+import mountainhuts.HutQueryServer;
+import mountainhuts.Region;
+
+/**
+ * Load-test client for {@link HutQueryServer}: sends a number of GET
+ * requests, keeping up to {@code --concurrency} of them in flight, and
+ * reports throughput and latency percentiles.
+ *
+ * The requests cycle through the {@code --path} options, by default all
+ * the R4 queries plus altitude range and hut lookups; a {@code {n}} in a
+ * path is replaced by the number of the request, e.g.
+ * {@code /hut?name=Hut+{n}} for files of {@link HutDataGenerator}.
+ * With {@code --file} the client first starts a server in this JVM on a
+ * concurrent region loaded from the file, otherwise it targets the
+ * server at the given base URL.
+ *
+ * Usage: {@code QueryServerLoadTest [--requests N] [--concurrency N]
+ * [--path P]... [--gzip] (--file csv | url)}
+ */
+public class QueryServerLoadTest {
+
+    private static final String[] DEFAULT_PATHS = {
+            "/countMunicipalitiesPerProvince", "/countMountainHutsPerMunicipalityPerProvince",
+            "/countMountainHutsPerAltitudeRange", "/totalBedsNumberPerProvince",
+            "/maximumBedsNumberPerAltitudeRange", "/municipalityNamesPerCountOfMountainHuts",
+            "/altitudeRange?altitude={n}", "/hut?name=Hut+{n}"
+    };
+
+    public static void main(String[] args) throws Exception {
+        int requests = 100_000;
+        int concurrency = 256;
+        boolean gzip = false;
+        List<String> paths = new ArrayList<>();
+        String file = null;
+        String url = null;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+            case "--requests": requests = Integer.parseInt(args[++i]); break;
+            case "--concurrency": concurrency = Integer.parseInt(args[++i]); break;
+            case "--path": paths.add(args[++i]); break;
+            case "--gzip": gzip = true; break;
+            case "--file": file = args[++i]; break;
+            default: url = args[i];
+            }
+        }
+        if ((file == null) == (url == null)) {
+            System.err.println("Usage: QueryServerLoadTest [--requests N] [--concurrency N] [--path P]... [--gzip]"
+                    + " (--file csv | url)");
+            System.exit(2);
+        }
+        if (paths.isEmpty()) paths.addAll(Arrays.asList(DEFAULT_PATHS));
+
+        HutQueryServer server = null;
+        if (file != null) {
+            long start = System.nanoTime();
+            Region region = Region.concurrent("load-test");
+            try (Reader in = Files.newBufferedReader(Paths.get(file))) {
+                region.ingest(in);
+            }
+            region.setAltitudeRanges("0-1000", "1001-1500", "1501-2000", "2001-INF");
+            server = HutQueryServer.start(region, 0);
+            url = "http://" + server.getAddress().getAddress().getHostAddress() + ":" + server.getPort();
+            System.out.printf("%s loaded in %d ms, serving on %s (%s threads)%n", file,
+                    (System.nanoTime() - start) / 1_000_000, url, server.isVirtual() ? "virtual" : "platform");
+        }
+        try {
+            run(url, paths, requests, concurrency, gzip);
+        } finally {
+            if (server != null) server.close();
+        }
+    }
+
+    private static void run(String url, List<String> paths, int requests, int concurrency, boolean gzip)
+            throws InterruptedException {
+        HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+        Semaphore inFlight = new Semaphore(concurrency);
+        CountDownLatch done = new CountDownLatch(requests);
+        long[] latencies = new long[requests];
+        AtomicLong errors = new AtomicLong();
+        AtomicLong bytes = new AtomicLong();
+
+        long start = System.nanoTime();
+        for (int n = 0; n < requests; n++) {
+            String path = paths.get(n % paths.size()).replace("{n}", Integer.toString(n));
+            HttpRequest.Builder request = HttpRequest.newBuilder(URI.create(url + path)).GET();
+            if (gzip) request.header("Accept-Encoding", "gzip");
+            inFlight.acquire();
+            int i = n;
+            long sent = System.nanoTime();
+            client.sendAsync(request.build(), HttpResponse.BodyHandlers.ofByteArray()).whenComplete((response, failure) -> {
+                latencies[i] = System.nanoTime() - sent;
+                if (failure != null || response.statusCode() >= 500) errors.incrementAndGet();
+                else bytes.addAndGet(response.body().length);
+                inFlight.release();
+                done.countDown();
+            });
+        }
+        done.await();
+        long elapsed = System.nanoTime() - start;
+
+        Arrays.sort(latencies);
+        System.out.printf("%d requests, %d errors, %d in flight at most, %.1f MB received%n",
+                requests, errors.get(), concurrency, bytes.get() / 1e6);
+        System.out.printf("%.0f requests/s; latency p50 %.2f ms, p99 %.2f ms, max %.2f ms%n",
+                requests / (elapsed / 1e9), percentile(latencies, 0.50) / 1e6, percentile(latencies, 0.99) / 1e6,
+                latencies[requests - 1] / 1e6);
+    }
+
+    private static long percentile(long[] sorted, double p) {
+        return sorted[Math.min(sorted.length - 1, (int) (p * sorted.length))];
+    }
+}
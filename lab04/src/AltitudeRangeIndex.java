@@ -0,0 +1,147 @@
+package mountainhuts;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Lookup structure for the altitude ranges of a region.
+ *
+ * The configured ranges are cut into non-overlapping elementary
+ * intervals, each one labelled with the first configured range that
+ * contains it, so the first-match rule holds for overlapping or
+ * unsorted ranges too. Altitudes in {@code [0, TABLE_SIZE)} are
+ * answered from a direct table, all others by binary search on the
+ * interval starts.
+ *
+ * Ranges with the same label share a bucket; bucket 0 is always the
+ * default range {@value #DEFAULT_LABEL}.
+ */
+final class AltitudeRangeIndex {
+
+    static final String DEFAULT_LABEL = "0-INF";
+    static final int DEFAULT_BUCKET = 0;
+    static final int TABLE_SIZE = 10_000;
+
+    static final AltitudeRangeIndex EMPTY = build(new ArrayList<>());
+
+    private final String[] labels;
+    private final int[] starts;
+    private final int[] buckets;
+    private final int[] table;
+
+    private AltitudeRangeIndex(String[] labels, int[] starts, int[] buckets) {
+        this.labels = labels;
+        this.starts = starts;
+        this.buckets = buckets;
+        this.table = new int[TABLE_SIZE];
+        for (int altitude = 0; altitude < TABLE_SIZE; altitude++) {
+            table[altitude] = search(altitude);
+        }
+    }
+
+    static AltitudeRangeIndex build(List<Region.Range> ranges) {
+        Map<String, Integer> labelIds = new HashMap<>();
+        List<String> labels = new ArrayList<>();
+        labelIds.put(DEFAULT_LABEL, DEFAULT_BUCKET);
+        labels.add(DEFAULT_LABEL);
+
+        // one event per range end point: start at min, stop at max + 1
+        int n = ranges.size();
+        long[] events = new long[2 * n];
+        int[] bucketOfRange = new int[n];
+        int count = 0;
+        for (int k = 0; k < n; k++) {
+            Region.Range r = ranges.get(k);
+            bucketOfRange[k] = labelIds.computeIfAbsent(r.getLabel(), l -> {
+                labels.add(l);
+                return labels.size() - 1;
+            });
+            if (r.getMin() > r.getMax()) continue;
+            events[count++] = (long) r.getMin();
+            events[count++] = (long) r.getMax() + 1;
+        }
+        long[] points = Arrays.stream(events, 0, count).sorted().distinct().toArray();
+
+        Integer[] order = new Integer[n];
+        for (int k = 0; k < n; k++) order[k] = k;
+
+        // sweep the points keeping the set of ranges covering the current interval
+        List<Integer> startList = new ArrayList<>();
+        List<Integer> bucketList = new ArrayList<>();
+        TreeSet<Integer> active = new TreeSet<>();
+        Arrays.sort(order, (a, b) -> Integer.compare(ranges.get(a).getMin(), ranges.get(b).getMin()));
+        Integer[] byEnd = order.clone();
+        Arrays.sort(byEnd, (a, b) -> Integer.compare(ranges.get(a).getMax(), ranges.get(b).getMax()));
+        int nextStart = 0;
+        int nextEnd = 0;
+        for (long point : points) {
+            if (point > Integer.MAX_VALUE) break;
+            while (nextEnd < n && (long) ranges.get(byEnd[nextEnd]).getMax() + 1 <= point) {
+                active.remove(byEnd[nextEnd++]);
+            }
+            while (nextStart < n && ranges.get(order[nextStart]).getMin() <= point) {
+                int k = order[nextStart++];
+                if ((long) ranges.get(k).getMax() + 1 > point) active.add(k);
+            }
+            int bucket = active.isEmpty() ? DEFAULT_BUCKET : bucketOfRange[active.first()];
+            if (bucketList.isEmpty() || bucketList.get(bucketList.size() - 1) != bucket) {
+                startList.add((int) point);
+                bucketList.add(bucket);
+            }
+        }
+        return new AltitudeRangeIndex(labels.toArray(new String[0]),
+                startList.stream().mapToInt(Integer::intValue).toArray(),
+                bucketList.stream().mapToInt(Integer::intValue).toArray());
+    }
+
+    /**
+     * @return the bucket of the first range containing the altitude,
+     *         or {@link #DEFAULT_BUCKET}
+     */
+    int bucketOf(int altitude) {
+        if (altitude >= 0 && altitude < TABLE_SIZE) {
+            return table[altitude];
+        }
+        return search(altitude);
+    }
+
+    private int search(int altitude) {
+        int i = interval(altitude);
+        return i < 0 ? DEFAULT_BUCKET : buckets[i];
+    }
+
+    // index of the elementary interval holding the altitude, -1 before the first one
+    private int interval(int altitude) {
+        int i = Arrays.binarySearch(starts, altitude);
+        if (i < 0) {
+            i = -i - 2; // last interval starting before the altitude
+        }
+        return i;
+    }
+
+    /**
+     * @return the bucket of all the altitudes between {@code min} and
+     *         {@code max} included, or -1 if they fall in several buckets
+     */
+    int bucketOfAll(int min, int max) {
+        int i = interval(min);
+        if (i != interval(max)) return -1;
+        return i < 0 ? DEFAULT_BUCKET : buckets[i];
+    }
+
+    String labelOf(Integer altitude) {
+        return altitude == null ? DEFAULT_LABEL : labels[bucketOf(altitude)];
+    }
+
+    String label(int bucket) {
+        return labels[bucket];
+    }
+
+    int bucketCount() {
+        return labels.length;
+    }
+}
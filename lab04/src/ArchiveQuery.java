@@ -0,0 +1,113 @@
+package mountainhuts;
+
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * Filter over the huts of a {@link HutArchive}, answered by reading only
+ * the blocks that can hold a matching hut.
+ *
+ * The restrictions work as in {@link HutQuery}: calling a method again
+ * replaces the values given before, and huts without a value for a
+ * restricted attribute never match. Altitudes are effective altitudes,
+ * i.e. the one of the municipality for a hut without its own, e.g.
+ * <pre>
+ * archive.findMountainHuts()
+ *        .province("CUNEO")
+ *        .minAltitude(2000)
+ *        .countMountainHutsPerAltitudeRange();
+ * </pre>
+ */
+public final class ArchiveQuery {
+
+    private final HutArchive archive;
+
+    Set<String> provinces;
+    int minAltitude = Integer.MIN_VALUE;
+    int maxAltitude = Integer.MAX_VALUE;
+    int minBeds = Integer.MIN_VALUE;
+    int maxBeds = Integer.MAX_VALUE;
+
+    ArchiveQuery(HutArchive archive) {
+        this.archive = archive;
+    }
+
+    public ArchiveQuery province(String... provinces) {
+        this.provinces = new LinkedHashSet<>(Arrays.asList(provinces));
+        return this;
+    }
+
+    /**
+     * Keeps the huts at or above the given effective altitude.
+     */
+    public ArchiveQuery minAltitude(int altitude) {
+        this.minAltitude = altitude;
+        return this;
+    }
+
+    /**
+     * Keeps the huts at or below the given effective altitude.
+     */
+    public ArchiveQuery maxAltitude(int altitude) {
+        this.maxAltitude = altitude;
+        return this;
+    }
+
+    public ArchiveQuery minBeds(int beds) {
+        this.minBeds = beds;
+        return this;
+    }
+
+    public ArchiveQuery maxBeds(int beds) {
+        this.maxBeds = beds;
+        return this;
+    }
+
+    boolean restrictsAltitude() {
+        return minAltitude != Integer.MIN_VALUE || maxAltitude != Integer.MAX_VALUE;
+    }
+
+    boolean restrictsBeds() {
+        return minBeds != Integer.MIN_VALUE || maxBeds != Integer.MAX_VALUE;
+    }
+
+    /**
+     * @return the number of matching huts
+     */
+    public long count() {
+        return archive.count(this);
+    }
+
+    /**
+     * @return the names of the matching huts, in archive order
+     */
+    public List<String> names() {
+        return archive.names(this);
+    }
+
+    /**
+     * Counts the matching huts per altitude range, as
+     * {@link Region#countMountainHutsPerAltitudeRange()} does.
+     *
+     * @param ranges the ranges, in the format of
+     *               {@link Region#setAltitudeRanges}; none for the ranges
+     *               stored in the archive
+     */
+    public Map<String, Long> countMountainHutsPerAltitudeRange(String... ranges) {
+        return archive.countPerAltitudeRange(this, ranges);
+    }
+
+    /**
+     * Maximum beds number of the matching huts per altitude range, as
+     * {@link Region#maximumBedsNumberPerAltitudeRange()} does.
+     *
+     * @param ranges the ranges; none for the ranges stored in the archive
+     */
+    public Map<String, Optional<Integer>> maximumBedsNumberPerAltitudeRange(String... ranges) {
+        return archive.maximumBedsPerAltitudeRange(this, ranges);
+    }
+}
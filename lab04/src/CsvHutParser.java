@@ -0,0 +1,186 @@
+package mountainhuts;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+
+/**
+ * Row parser for mountain huts CSV text that works on a reused char
+ * buffer instead of one String per line.
+ *
+ * Fields are located by offsets, trimmed in place and the numbers are
+ * parsed straight from the chars. Province, municipality and category
+ * values go through a {@link StringPool}, so each distinct value is one
+ * String however many rows repeat it; only hut names are always new.
+ *
+ * The outcome is the same as {@link Region#applyRow} on every line:
+ * fields are split the way {@code String.split(";")} does, incomplete
+ * lines are ignored and lines with bad numbers are rejected with the
+ * same message, both with their line number.
+ *
+ * The rows of every buffer are parsed into a {@link RowBatch} and then
+ * inserted, so reading, parsing and inserting are timed as separate
+ * phases once per buffer.
+ */
+final class CsvHutParser {
+
+    private static final int FIELDS = 7;
+
+    private final Region region;
+    private final StringPool pool;
+
+    private char[] buffer = new char[64 * 1024];
+    private long line; // number of the current line, from 1
+    private final int[] starts = new int[FIELDS];
+    private final int[] ends = new int[FIELDS];
+
+    CsvHutParser(Region region) {
+        this(region, new StringPool());
+    }
+
+    CsvHutParser(Region region, StringPool pool) {
+        this.region = region;
+        this.pool = pool;
+    }
+
+    /**
+     * Applies all the lines of the reader to the region.
+     *
+     * @param anyHeader whether every line starting like the header is
+     *                  skipped, rather than only the first line
+     * @param rejects   where the rows that are not loaded go; the log
+     *                  is not finished here
+     * @return the number of valid rows applied
+     */
+    int parse(Reader in, boolean anyHeader, RejectLog rejects) throws IOException {
+        RowBatch batch = new RowBatch(region, rejects);
+        int applied = 0;
+        boolean first = true;
+        boolean afterCr = false;
+        int length = 0;
+        int n;
+        while (true) {
+            if (length == buffer.length) {
+                buffer = Arrays.copyOf(buffer, buffer.length * 2); // line longer than the buffer
+            }
+            LoadPhaseEvent read = new LoadPhaseEvent();
+            read.begin();
+            long readStart = System.nanoTime();
+            n = in.read(buffer, length, buffer.length - length);
+            read.finish(region, LoadPhaseEvent.READ, readStart, 0);
+            if (n < 0) break;
+            int end = length + n;
+            int lineStart = 0;
+            for (int i = length; i < end; i++) {
+                char c = buffer[i];
+                if (c != '\n' && c != '\r') continue;
+                // "\r\n" is one terminator, as for BufferedReader
+                if (!(c == '\n' && afterCr && i == lineStart)) {
+                    applyLine(batch, lineStart, i, first, anyHeader);
+                    first = false;
+                }
+                afterCr = c == '\r';
+                lineStart = i + 1;
+            }
+            if (lineStart < end) afterCr = false;
+            applied += batch.flush();
+            length = end - lineStart;
+            System.arraycopy(buffer, lineStart, buffer, 0, length);
+        }
+        if (length > 0) applyLine(batch, 0, length, first, anyHeader);
+        return applied + batch.flush();
+    }
+
+    private void applyLine(RowBatch batch, int start, int end, boolean first, boolean anyHeader) {
+        line++;
+        if (anyHeader ? startsWithHeader(start, end) : first) return;
+        parseLine(batch, start, end);
+    }
+
+    private boolean startsWithHeader(int start, int end) {
+        String prefix = Region.HEADER_PREFIX;
+        if (end - start < prefix.length()) return false;
+        for (int i = 0; i < prefix.length(); i++) {
+            if (buffer[start + i] != prefix.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    private void parseLine(RowBatch batch, int start, int end) {
+        char[] buf = buffer;
+        // Split into fields the way String.split(";") does: trailing
+        // empty fields do not count, extra fields are ignored.
+        int count = 0;
+        boolean tailContent = false;
+        int fieldStart = start;
+        for (int i = start; i <= end; i++) {
+            if (i == end || buf[i] == ';') {
+                if (count < FIELDS) {
+                    starts[count] = fieldStart;
+                    ends[count] = i;
+                }
+                if (count >= FIELDS - 1 && i > fieldStart) {
+                    tailContent = true;
+                }
+                count++;
+                fieldStart = i + 1;
+            }
+        }
+        if (count < FIELDS || !tailContent) { // ignore incomplete lines
+            if (end > start) batch.reject(line, RejectReason.INCOMPLETE_ROW, null, new String(buf, start, end - start));
+            return;
+        }
+
+        for (int f = 0; f < FIELDS; f++) {
+            int s = starts[f];
+            int e = ends[f];
+            while (s < e && buf[s] <= ' ') s++;
+            while (e > s && buf[e - 1] <= ' ') e--;
+            starts[f] = s;
+            ends[f] = e;
+        }
+
+        Integer municipalityAltitude;
+        int altitude;
+        int bedsNumber;
+        try {
+            municipalityAltitude = starts[2] == ends[2] ? null : parseInt(starts[2], ends[2]);
+            altitude = starts[4] == ends[4] ? HutStore.NO_VALUE : parseInt(starts[4], ends[4]);
+            bedsNumber = parseInt(starts[6], ends[6]);
+        } catch (NumberFormatException e) {
+            batch.reject(line, RejectReason.BAD_NUMBER, e.getMessage(), new String(buf, start, end - start));
+            return;
+        }
+
+        batch.add(pool.get(buf, starts[0], ends[0]), pool.get(buf, starts[1], ends[1]), municipalityAltitude,
+                new String(buf, starts[3], ends[3] - starts[3]), altitude, pool.get(buf, starts[5], ends[5]), bedsNumber);
+    }
+
+    /**
+     * Parses a decimal int with the same rules as {@link HutStore#parseValue(String)},
+     * falling back to it for anything unusual so that errors read the same.
+     */
+    private int parseInt(int from, int to) {
+        int i = from;
+        boolean negative = false;
+        if (i < to) {
+            char first = buffer[i];
+            if (first == '-' || first == '+') {
+                negative = first == '-';
+                i++;
+            }
+        }
+        if (i == to || to - i > 9) {
+            return HutStore.parseValue(new String(buffer, from, to - from));
+        }
+        int value = 0;
+        for (; i < to; i++) {
+            int d = buffer[i] - '0';
+            if (d < 0 || d > 9) {
+                return HutStore.parseValue(new String(buffer, from, to - from));
+            }
+            value = value * 10 + d;
+        }
+        return negative ? -value : value;
+    }
+}
@@ -0,0 +1,73 @@
+package mountainhuts;
+
+import java.util.Collections;
+import java.util.Set;
+
+/**
+ * Outcome of one {@link Region#applyDelta}: how many huts were
+ * inserted, updated and deleted, and the provinces and altitude ranges
+ * whose huts changed, so that data derived from the region can be
+ * refreshed only for those.
+ *
+ * A hut that moves is counted in the province and range it leaves as
+ * well as in the one it enters. Ranges are the labels of the ranges of
+ * the region when the delta was applied.
+ */
+public final class DeltaReport {
+
+    private final int inserted;
+    private final int updated;
+    private final int deleted;
+    private final int unchanged;
+    private final Set<String> provinces;
+    private final Set<String> ranges;
+
+    DeltaReport(int inserted, int updated, int deleted, int unchanged, Set<String> provinces, Set<String> ranges) {
+        this.inserted = inserted;
+        this.updated = updated;
+        this.deleted = deleted;
+        this.unchanged = unchanged;
+        this.provinces = Collections.unmodifiableSet(provinces);
+        this.ranges = Collections.unmodifiableSet(ranges);
+    }
+
+    public int getInserted() {
+        return inserted;
+    }
+
+    public int getUpdated() {
+        return updated;
+    }
+
+    public int getDeleted() {
+        return deleted;
+    }
+
+    /**
+     * @return the upserts matching the hut as it was, and the deletes
+     *         of huts that did not exist
+     */
+    public int getUnchanged() {
+        return unchanged;
+    }
+
+    /**
+     * @return the provinces with a changed hut, sorted
+     */
+    public Set<String> getChangedProvinces() {
+        return provinces;
+    }
+
+    /**
+     * @return the labels of the altitude ranges with a changed hut, sorted
+     */
+    public Set<String> getChangedAltitudeRanges() {
+        return ranges;
+    }
+
+    @Override
+    public String toString() {
+        return inserted + " inserted, " + updated + " updated, " + deleted + " deleted, " + unchanged
+                + " unchanged; provinces " + provinces + ", ranges " + ranges;
+    }
+}
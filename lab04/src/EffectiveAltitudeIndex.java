@@ -0,0 +1,230 @@
+package mountainhuts;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Sorted index of the huts by effective altitude: their own altitude,
+ * or else the one of their municipality. Huts with neither are left out.
+ *
+ * Altitudes in {@code [MIN_ALTITUDE, MAX_ALTITUDE)} keep their rows in
+ * one list per metre, with a Fenwick tree over the list sizes, so counts
+ * over a window and the first non empty altitude from a given one take
+ * logarithmic time, and listing a window costs a logarithmic step per
+ * distinct altitude found. The few altitudes outside the domain are
+ * kept in a {@link TreeMap}.
+ *
+ * The index is built by one scan when first needed and then follows
+ * the store, including the huts moving with the altitude of their
+ * municipality.
+ */
+final class EffectiveAltitudeIndex implements HutStore.Listener {
+
+    static final int MIN_ALTITUDE = -1_000;
+    static final int MAX_ALTITUDE = 10_000;
+    private static final int DOMAIN = MAX_ALTITUDE - MIN_ALTITUDE;
+
+    private final HutStore store;
+
+    private boolean built;
+    private final IntList[] rowsAt = new IntList[DOMAIN];
+    // Fenwick tree over the sizes of rowsAt, 1-based
+    private final int[] tree = new int[DOMAIN + 1];
+    private final TreeMap<Integer, IntList> outside = new TreeMap<>();
+    // place of every row in its list of rowsAt or outside
+    private final RowPositions positions = new RowPositions();
+
+    EffectiveAltitudeIndex(HutStore store) {
+        this.store = store;
+        store.addListener(this);
+    }
+
+    boolean isBuilt() {
+        return built;
+    }
+
+    void build() {
+        if (built) return;
+        for (int row = 0, n = store.size(); row < n; row++) {
+            if (!store.isDeleted(row)) add(row);
+        }
+        built = true;
+    }
+
+    // ---- maintenance
+
+    private void add(int row) {
+        int altitude = store.effectiveAltitude(row);
+        if (altitude == HutStore.NO_VALUE) return;
+        if (inDomain(altitude)) {
+            int i = altitude - MIN_ALTITUDE;
+            if (rowsAt[i] == null) rowsAt[i] = new IntList();
+            positions.add(rowsAt[i], row);
+            update(i, 1);
+        } else {
+            positions.add(outside.computeIfAbsent(altitude, a -> new IntList()), row);
+        }
+    }
+
+    private void remove(int row) {
+        int altitude = store.effectiveAltitude(row);
+        if (altitude == HutStore.NO_VALUE) return;
+        if (inDomain(altitude)) {
+            int i = altitude - MIN_ALTITUDE;
+            positions.remove(rowsAt[i], row);
+            update(i, -1);
+        } else {
+            IntList rows = outside.get(altitude);
+            positions.remove(rows, row);
+            if (rows.size() == 0) outside.remove(altitude);
+        }
+    }
+
+    @Override
+    public void hutAdded(int row) {
+        if (built) add(row);
+    }
+
+    @Override
+    public void hutChanging(int row) {
+        if (built) remove(row);
+    }
+
+    @Override
+    public void hutChanged(int row) {
+        if (built) add(row);
+    }
+
+    @Override
+    public void municipalityChanging(int code) {
+        if (built) moveInherited(code, false);
+    }
+
+    @Override
+    public void municipalityChanged(int code) {
+        if (built) moveInherited(code, true);
+    }
+
+    // huts without an altitude of their own move with the municipality altitude
+    private void moveInherited(int code, boolean add) {
+        IntList rows = store.rowsOf(code);
+        for (int i = 0; i < rows.size(); i++) {
+            int row = rows.get(i);
+            if (store.altitude(row) != HutStore.NO_VALUE) continue;
+            if (add) add(row);
+            else remove(row);
+        }
+    }
+
+    // ---- queries
+
+    /**
+     * @return the number of huts with effective altitude in {@code [min, max]}
+     */
+    long count(int min, int max) {
+        build();
+        if (min > max) return 0;
+        long count = 0;
+        int lo = Math.max(min, MIN_ALTITUDE);
+        int hi = Math.min(max, MAX_ALTITUDE - 1);
+        if (lo <= hi) {
+            count += prefix(hi - MIN_ALTITUDE) - prefix(lo - MIN_ALTITUDE - 1);
+        }
+        for (IntList rows : outside.subMap(min, true, max, true).values()) {
+            count += rows.size();
+        }
+        return count;
+    }
+
+    /**
+     * @return the rows of the huts with effective altitude in
+     *         {@code [min, max]}, by altitude and then by row
+     */
+    int[] rows(int min, int max) {
+        build();
+        if (min > max) return new int[0];
+        IntList result = new IntList((int) Math.min(count(min, max), Integer.MAX_VALUE - 8));
+        if (min < MIN_ALTITUDE) {
+            for (IntList rows : outside.subMap(min, true, Math.min(max, MIN_ALTITUDE - 1), true).values()) {
+                appendSorted(result, rows);
+            }
+        }
+        int lo = Math.max(min, MIN_ALTITUDE);
+        int hi = Math.min(max, MAX_ALTITUDE - 1);
+        if (lo <= hi) {
+            int end = prefix(hi - MIN_ALTITUDE);
+            for (int k = prefix(lo - MIN_ALTITUDE - 1) + 1; k <= end; ) {
+                IntList rows = rowsAt[lowerBound(k)];
+                appendSorted(result, rows);
+                k += rows.size();
+            }
+        }
+        if (max >= MAX_ALTITUDE) {
+            for (IntList rows : outside.subMap(Math.max(min, MAX_ALTITUDE), true, max, true).values()) {
+                appendSorted(result, rows);
+            }
+        }
+        return result.toArray();
+    }
+
+    /**
+     * @return the first row among the huts with the lowest effective
+     *         altitude not below the given one, or -1 if there is none
+     */
+    int nearestAtOrAbove(int altitude) {
+        build();
+        if (altitude < MIN_ALTITUDE) {
+            Map.Entry<Integer, IntList> below = outside.ceilingEntry(altitude);
+            if (below != null && below.getKey() < MIN_ALTITUDE) return minimum(below.getValue());
+        }
+        if (altitude < MAX_ALTITUDE) {
+            int k = prefix(Math.max(altitude, MIN_ALTITUDE) - MIN_ALTITUDE - 1) + 1;
+            if (k <= prefix(DOMAIN - 1)) return minimum(rowsAt[lowerBound(k)]);
+        }
+        Map.Entry<Integer, IntList> above = outside.ceilingEntry(Math.max(altitude, MAX_ALTITUDE));
+        return above == null ? -1 : minimum(above.getValue());
+    }
+
+    private static boolean inDomain(int altitude) {
+        return altitude >= MIN_ALTITUDE && altitude < MAX_ALTITUDE;
+    }
+
+    private static void appendSorted(IntList result, IntList rows) {
+        int[] sorted = rows.toArray();
+        Arrays.sort(sorted);
+        for (int row : sorted) result.add(row);
+    }
+
+    private static int minimum(IntList rows) {
+        int min = Integer.MAX_VALUE;
+        for (int i = 0; i < rows.size(); i++) min = Math.min(min, rows.get(i));
+        return min;
+    }
+
+    // ---- Fenwick tree, indexes are 0-based offsets in the domain
+
+    private void update(int i, int delta) {
+        for (int j = i + 1; j <= DOMAIN; j += j & -j) tree[j] += delta;
+    }
+
+    // number of rows at offsets 0..i
+    private int prefix(int i) {
+        int sum = 0;
+        for (int j = i + 1; j > 0; j -= j & -j) sum += tree[j];
+        return sum;
+    }
+
+    // smallest offset whose prefix is at least k, for 1 <= k <= total
+    private int lowerBound(int k) {
+        int position = 0;
+        for (int step = Integer.highestOneBit(DOMAIN); step > 0; step >>= 1) {
+            int next = position + step;
+            if (next <= DOMAIN && tree[next] < k) {
+                position = next;
+                k -= tree[next];
+            }
+        }
+        return position;
+    }
+}
@@ -0,0 +1,212 @@
+package mountainhuts;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Hut rows kept in plain Java arrays, one per column.
+ */
+final class HeapHutColumns implements HutColumns {
+
+    private String[] names;
+    private int[] altitudes;
+    private int[] beds;
+    private int[] categories;
+    private int[] municipalities;
+    private int size;
+
+    // open addressing index from hut name to row + 1
+    private int[] slots = new int[32];
+    // rows taken out of the index
+    private final BitSet unindexed = new BitSet();
+
+    HeapHutColumns(int capacity) {
+        capacity = Math.max(capacity, 1);
+        names = new String[capacity];
+        altitudes = new int[capacity];
+        beds = new int[capacity];
+        categories = new int[capacity];
+        municipalities = new int[capacity];
+        int slotCount = slots.length;
+        while (slotCount < capacity * 2) slotCount <<= 1;
+        slots = new int[slotCount];
+    }
+
+    /**
+     * Takes over whole columns, e.g. read from a snapshot, without
+     * copying them; they must not be empty.
+     */
+    HeapHutColumns(String[] names, int[] altitudes, int[] beds, int[] categories, int[] municipalities, int size) {
+        this.names = names;
+        this.altitudes = altitudes;
+        this.beds = beds;
+        this.categories = categories;
+        this.municipalities = municipalities;
+        this.size = size;
+        int slotCount = slots.length;
+        while (slotCount < size * 2) slotCount <<= 1;
+        rehash(slotCount);
+    }
+
+    @Override
+    public void append(int row, String name, int altitude, int bedsNumber, int category, int municipality) {
+        if (row == names.length) {
+            grow();
+        }
+        names[row] = name;
+        altitudes[row] = altitude;
+        beds[row] = bedsNumber;
+        categories[row] = category;
+        municipalities[row] = municipality;
+        size = row + 1;
+        if (size * 2 > slots.length) {
+            rehash(slots.length * 2);
+        } else {
+            insertSlot(row);
+        }
+    }
+
+    /**
+     * Appends a row unless the index already has a row with its name,
+     * probing the index once for both, as a bulk load keeping the first
+     * of repeated names does.
+     *
+     * @return whether the row was appended
+     */
+    boolean appendIfAbsent(int row, String name, int altitude, int bedsNumber, int category, int municipality) {
+        if ((row + 1) * 2 > slots.length) {
+            rehash(slots.length * 2);
+        }
+        int mask = slots.length - 1;
+        int slot = spread(name.hashCode()) & mask;
+        int entry;
+        while ((entry = slots[slot]) != 0) {
+            if (names[entry - 1].equals(name)) {
+                return false;
+            }
+            slot = (slot + 1) & mask;
+        }
+        if (row == names.length) {
+            grow();
+        }
+        names[row] = name;
+        altitudes[row] = altitude;
+        beds[row] = bedsNumber;
+        categories[row] = category;
+        municipalities[row] = municipality;
+        size = row + 1;
+        slots[slot] = row + 1;
+        return true;
+    }
+
+    @Override
+    public int find(String name) {
+        int[] table = slots;
+        String[] keys = names;
+        int mask = table.length - 1;
+        int slot = spread(name.hashCode()) & mask;
+        int entry;
+        while ((entry = table[slot]) != 0) {
+            if (keys[entry - 1].equals(name)) {
+                return entry - 1;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    @Override
+    public void unindex(int row) {
+        int mask = slots.length - 1;
+        int slot = spread(names[row].hashCode()) & mask;
+        while (slots[slot] != row + 1) {
+            slot = (slot + 1) & mask;
+        }
+        // backward shift: pull later entries of the probe run into the hole
+        int hole = slot;
+        int entry;
+        while ((entry = slots[slot = (slot + 1) & mask]) != 0) {
+            int home = spread(names[entry - 1].hashCode()) & mask;
+            if (((slot - home) & mask) >= ((slot - hole) & mask)) {
+                slots[hole] = entry;
+                hole = slot;
+            }
+        }
+        slots[hole] = 0;
+        unindexed.set(row);
+    }
+
+    private void grow() {
+        int capacity = names.length + (names.length >> 1) + 1;
+        names = Arrays.copyOf(names, capacity);
+        altitudes = Arrays.copyOf(altitudes, capacity);
+        beds = Arrays.copyOf(beds, capacity);
+        categories = Arrays.copyOf(categories, capacity);
+        municipalities = Arrays.copyOf(municipalities, capacity);
+    }
+
+    private void insertSlot(int row) {
+        int mask = slots.length - 1;
+        int slot = spread(names[row].hashCode()) & mask;
+        while (slots[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        slots[slot] = row + 1;
+    }
+
+    private void rehash(int capacity) {
+        slots = new int[capacity];
+        for (int row = 0; row < size; row++) {
+            if (!unindexed.get(row)) insertSlot(row);
+        }
+    }
+
+    static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    @Override
+    public String name(int row) {
+        return names[row];
+    }
+
+    @Override
+    public int altitude(int row) {
+        return altitudes[row];
+    }
+
+    @Override
+    public void setAltitude(int row, int altitude) {
+        altitudes[row] = altitude;
+    }
+
+    @Override
+    public int beds(int row) {
+        return beds[row];
+    }
+
+    @Override
+    public void setBeds(int row, int bedsNumber) {
+        beds[row] = bedsNumber;
+    }
+
+    @Override
+    public int category(int row) {
+        return categories[row];
+    }
+
+    @Override
+    public void setCategory(int row, int category) {
+        categories[row] = category;
+    }
+
+    @Override
+    public int municipality(int row) {
+        return municipalities[row];
+    }
+
+    @Override
+    public void setMunicipality(int row, int municipality) {
+        municipalities[row] = municipality;
+    }
+}
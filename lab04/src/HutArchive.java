@@ -0,0 +1,389 @@
+package mountainhuts;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Read-only columnar archive of the huts of a region, written by
+ * {@link Region#saveBlocks(Path)}.
+ *
+ * The huts are kept in blocks, sorted by province and effective
+ * altitude. For every block the archive knows, without reading it, the
+ * range of effective altitudes and of beds numbers and the provinces
+ * present; a query first uses them to drop the blocks that cannot hold
+ * a matching hut, then reads from the others only the columns it needs.
+ * A block whose huts all match is not filtered at all, and is not even
+ * read for a count or for an aggregate when all of its altitudes fall
+ * in one range.
+ *
+ * Queries can run from several threads at once. The archive must be
+ * closed to release the file.
+ */
+public final class HutArchive implements Closeable {
+
+    private final FileChannel channel;
+    private final String name;
+    private final int size;
+    private final Map<String, Integer> provinceCodes = new HashMap<>();
+    private final String[] ranges;
+    private final int provinceWords;
+    private final Block[] blocks;
+
+    private final LongAdder blocksSkipped = new LongAdder();
+    private final LongAdder bytesRead = new LongAdder();
+
+    /**
+     * Zone map and column offsets of a block.
+     */
+    private static final class Block {
+        int rows;
+        int minAltitude, maxAltitude, missingAltitudes;
+        int minBeds, maxBeds, missingBeds;
+        long[] provinces;
+        long[] offsets;
+    }
+
+    private HutArchive(Path file, FileChannel channel) throws IOException {
+        this.channel = channel;
+        long length = channel.size();
+        if (length < 2 * Integer.BYTES + HutBlockFile.FOOTER || read(0, Integer.BYTES).getInt() != HutBlockFile.MAGIC) {
+            throw new IOException(file + " is not a hut archive");
+        }
+        int version = read(Integer.BYTES, Integer.BYTES).getInt();
+        if (version != HutBlockFile.VERSION) throw new IOException("Unsupported archive version " + version);
+        ByteBuffer footer = read(length - HutBlockFile.FOOTER, HutBlockFile.FOOTER);
+        long directoryOffset = footer.getLong();
+        if (footer.getInt() != HutBlockFile.MAGIC || directoryOffset < 0 || directoryOffset > length - HutBlockFile.FOOTER) {
+            throw new IOException(file + " is corrupted");
+        }
+
+        ByteBuffer in = read(directoryOffset, (int) (length - HutBlockFile.FOOTER - directoryOffset));
+        name = readString(in);
+        in.getInt(); // block rows
+        size = in.getInt();
+        readStrings(in); // categories
+        String[] provinces = readStrings(in);
+        for (int code = 0; code < provinces.length; code++) provinceCodes.put(provinces[code], code);
+        int municipalities = in.getInt();
+        for (int code = 0; code < municipalities; code++) readString(in);
+        in.position(in.position() + 2 * municipalities * Integer.BYTES); // province codes and altitudes
+        ranges = readStrings(in);
+        provinceWords = in.getInt();
+        blocks = new Block[in.getInt()];
+        for (int i = 0; i < blocks.length; i++) {
+            Block block = new Block();
+            block.rows = in.getInt();
+            block.minAltitude = in.getInt();
+            block.maxAltitude = in.getInt();
+            block.missingAltitudes = in.getInt();
+            block.minBeds = in.getInt();
+            block.maxBeds = in.getInt();
+            block.missingBeds = in.getInt();
+            block.provinces = new long[provinceWords];
+            for (int w = 0; w < provinceWords; w++) block.provinces[w] = in.getLong();
+            block.offsets = new long[HutBlockFile.COLUMNS + 1];
+            for (int c = 0; c <= HutBlockFile.COLUMNS; c++) block.offsets[c] = in.getLong();
+            blocks[i] = block;
+        }
+    }
+
+    /**
+     * Opens an archive written by {@link Region#saveBlocks(Path)}.
+     */
+    public static HutArchive open(Path file) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            return new HutArchive(file, channel);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the number of huts in the archive
+     */
+    public int size() {
+        return size;
+    }
+
+    public int getBlockCount() {
+        return blocks.length;
+    }
+
+    /**
+     * @return the altitude ranges of the region when it was archived
+     */
+    public List<String> getAltitudeRanges() {
+        return Collections.unmodifiableList(Arrays.asList(ranges));
+    }
+
+    /**
+     * @return the number of blocks that queries left out so far, from
+     *         their zone maps and province sets alone
+     */
+    public long getBlocksSkipped() {
+        return blocksSkipped.sum();
+    }
+
+    /**
+     * @return the number of column bytes that queries read so far
+     */
+    public long getBytesRead() {
+        return bytesRead.sum();
+    }
+
+    public ArchiveQuery findMountainHuts() {
+        return new ArchiveQuery(this);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    // ---- queries
+
+    private static final int SKIP = 0;
+    private static final int SOME = 1;
+    private static final int ALL = 2;
+
+    /**
+     * Receives the matching rows of a block, as positions within the
+     * block; {@code rows} is null when every row matches.
+     */
+    private interface BlockVisitor {
+        void visit(Block block, int[] rows, int count) throws IOException;
+    }
+
+    long count(ArchiveQuery query) {
+        long[] count = new long[1];
+        scan(query, (block, rows, n) -> count[0] += n);
+        return count[0];
+    }
+
+    List<String> names(ArchiveQuery query) {
+        List<String> names = new ArrayList<>();
+        scan(query, (block, rows, n) -> {
+            ByteBuffer column = readColumn(block, HutBlockFile.NAME);
+            int next = 0;
+            for (int i = 0; i < block.rows; i++) {
+                String hut = readString(column);
+                if (rows == null || (next < n && rows[next] == i)) {
+                    names.add(hut);
+                    next++;
+                }
+            }
+        });
+        return names;
+    }
+
+    Map<String, Long> countPerAltitudeRange(ArchiveQuery query, String... ranges) {
+        AltitudeRangeIndex index = rangeIndex(ranges);
+        long[] counts = new long[index.bucketCount()];
+        scan(query, (block, rows, n) -> {
+            int bucket = rows == null ? singleBucket(block, index) : -1;
+            if (bucket >= 0) {
+                counts[bucket] += block.rows;
+                return;
+            }
+            int[] altitudes = readInts(block, HutBlockFile.EFFECTIVE_ALTITUDE);
+            for (int i = 0; i < n; i++) {
+                counts[bucketOf(index, altitudes[rows == null ? i : rows[i]])]++;
+            }
+        });
+        Map<String, Long> result = new HashMap<>();
+        for (int bucket = 0; bucket < counts.length; bucket++) {
+            if (counts[bucket] > 0) result.put(index.label(bucket), counts[bucket]);
+        }
+        return result;
+    }
+
+    Map<String, Optional<Integer>> maximumBedsPerAltitudeRange(ArchiveQuery query, String... ranges) {
+        AltitudeRangeIndex index = rangeIndex(ranges);
+        long[] counts = new long[index.bucketCount()];
+        int[] maxima = new int[index.bucketCount()];
+        Arrays.fill(maxima, HutBlockFile.EMPTY_MAX);
+        scan(query, (block, rows, n) -> {
+            int bucket = rows == null ? singleBucket(block, index) : -1;
+            if (bucket >= 0) {
+                counts[bucket] += block.rows;
+                maxima[bucket] = Math.max(maxima[bucket], block.maxBeds);
+                return;
+            }
+            int[] altitudes = readInts(block, HutBlockFile.EFFECTIVE_ALTITUDE);
+            int[] beds = readInts(block, HutBlockFile.BEDS);
+            for (int i = 0; i < n; i++) {
+                int row = rows == null ? i : rows[i];
+                int b = bucketOf(index, altitudes[row]);
+                counts[b]++;
+                if (beds[row] != HutStore.NO_VALUE) maxima[b] = Math.max(maxima[b], beds[row]);
+            }
+        });
+        Map<String, Optional<Integer>> result = new HashMap<>();
+        for (int bucket = 0; bucket < counts.length; bucket++) {
+            if (counts[bucket] > 0) {
+                result.put(index.label(bucket),
+                        maxima[bucket] == HutBlockFile.EMPTY_MAX ? Optional.empty() : Optional.of(maxima[bucket]));
+            }
+        }
+        return result;
+    }
+
+    private AltitudeRangeIndex rangeIndex(String... ranges) {
+        return AltitudeRangeIndex.build(Region.parseRanges(ranges.length == 0 ? this.ranges : ranges));
+    }
+
+    private static int bucketOf(AltitudeRangeIndex index, int altitude) {
+        return altitude == HutStore.NO_VALUE ? AltitudeRangeIndex.DEFAULT_BUCKET : index.bucketOf(altitude);
+    }
+
+    // the bucket of every hut of the block, from the zone map alone, or -1
+    private static int singleBucket(Block block, AltitudeRangeIndex index) {
+        if (block.missingAltitudes == block.rows) return AltitudeRangeIndex.DEFAULT_BUCKET;
+        int bucket = index.bucketOfAll(block.minAltitude, block.maxAltitude);
+        return block.missingAltitudes == 0 || bucket == AltitudeRangeIndex.DEFAULT_BUCKET ? bucket : -1;
+    }
+
+    /**
+     * Hands the matching rows of every block that can hold one to the
+     * visitor.
+     */
+    private void scan(ArchiveQuery query, BlockVisitor visitor) {
+        long[] wanted = wantedProvinces(query);
+        try {
+            for (Block block : blocks) {
+                int match = match(block, query, wanted);
+                if (match == SKIP) {
+                    blocksSkipped.increment();
+                } else if (match == ALL) {
+                    visitor.visit(block, null, block.rows);
+                } else {
+                    int[] rows = filter(block, query, wanted);
+                    if (rows.length > 0) visitor.visit(block, rows, rows.length);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // the province set of the query as block bits, or null for any province
+    private long[] wantedProvinces(ArchiveQuery query) {
+        if (query.provinces == null) return null;
+        long[] wanted = new long[provinceWords];
+        for (String province : query.provinces) {
+            Integer code = provinceCodes.get(province);
+            if (code != null) wanted[(code + 1) >>> 6] |= 1L << (code + 1);
+        }
+        return wanted;
+    }
+
+    private static int match(Block block, ArchiveQuery query, long[] wanted) {
+        int match = ALL;
+        if (wanted != null) {
+            boolean some = false;
+            boolean all = true;
+            for (int w = 0; w < wanted.length; w++) {
+                some |= (block.provinces[w] & wanted[w]) != 0;
+                all &= (block.provinces[w] & ~wanted[w]) == 0;
+            }
+            if (!some) return SKIP;
+            if (!all) match = SOME;
+        }
+        if (query.restrictsAltitude()) {
+            match = Math.min(match, match(block.minAltitude, block.maxAltitude, block.missingAltitudes,
+                    query.minAltitude, query.maxAltitude));
+        }
+        if (query.restrictsBeds()) {
+            match = Math.min(match, match(block.minBeds, block.maxBeds, block.missingBeds,
+                    query.minBeds, query.maxBeds));
+        }
+        return match;
+    }
+
+    private static int match(int min, int max, int missing, int from, int to) {
+        if (min == HutBlockFile.EMPTY_MIN || max < from || min > to) return SKIP;
+        return missing == 0 && min >= from && max <= to ? ALL : SOME;
+    }
+
+    // positions of the matching rows, reading the columns of the restricted attributes
+    private int[] filter(Block block, ArchiveQuery query, long[] wanted) throws IOException {
+        int[] provinces = wanted == null ? null : readInts(block, HutBlockFile.PROVINCE);
+        int[] altitudes = query.restrictsAltitude() ? readInts(block, HutBlockFile.EFFECTIVE_ALTITUDE) : null;
+        int[] beds = query.restrictsBeds() ? readInts(block, HutBlockFile.BEDS) : null;
+        int[] rows = new int[block.rows];
+        int n = 0;
+        for (int i = 0; i < block.rows; i++) {
+            if (provinces != null) {
+                int slot = provinces[i] + 1;
+                if ((wanted[slot >>> 6] & (1L << slot)) == 0) continue;
+            }
+            if (altitudes != null && !between(altitudes[i], query.minAltitude, query.maxAltitude)) continue;
+            if (beds != null && !between(beds[i], query.minBeds, query.maxBeds)) continue;
+            rows[n++] = i;
+        }
+        return Arrays.copyOf(rows, n);
+    }
+
+    private static boolean between(int value, int min, int max) {
+        return value != HutStore.NO_VALUE && value >= min && value <= max;
+    }
+
+    // ---- reading
+
+    private ByteBuffer read(long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) throw new EOFException("Truncated archive");
+        }
+        return buffer.flip();
+    }
+
+    private ByteBuffer readColumn(Block block, int column) throws IOException {
+        long from = block.offsets[column];
+        int length = (int) (block.offsets[column + 1] - from);
+        bytesRead.add(length);
+        return read(from, length);
+    }
+
+    private int[] readInts(Block block, int column) throws IOException {
+        int[] values = new int[block.rows];
+        readColumn(block, column).asIntBuffer().get(values);
+        return values;
+    }
+
+    private static String readString(ByteBuffer in) {
+        int n = in.getInt();
+        if (n < 0) return null;
+        String value = new String(in.array(), in.arrayOffset() + in.position(), n, StandardCharsets.UTF_8);
+        in.position(in.position() + n);
+        return value;
+    }
+
+    private static String[] readStrings(ByteBuffer in) {
+        String[] values = new String[in.getInt()];
+        for (int i = 0; i < values.length; i++) values[i] = readString(in);
+        return values;
+    }
+}
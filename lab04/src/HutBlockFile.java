@@ -0,0 +1,258 @@
+package mountainhuts;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Writer of the block archive read by {@link HutArchive}.
+ *
+ * The huts are sorted by province and effective altitude and cut into
+ * blocks of at most {@code blockRows} rows; every column of a block is
+ * a chunk of its own, so that a reader fetches only the columns it
+ * decodes. Layout, little endian:
+ *
+ * <pre>
+ * MAGIC VERSION
+ * per block: one chunk per column, in {@link #COLUMNS} order
+ * directory:
+ *   name blockRows size
+ *   categories provinces (dictionaries)
+ *   municipalities: count names[] provinceCodes[] altitudes[]
+ *   range labels: count labels[]
+ *   provinceWords
+ *   blocks: count, per block
+ *     rows
+ *     minEffectiveAltitude maxEffectiveAltitude missingEffectiveAltitudes
+ *     minBeds maxBeds missingBeds
+ *     province set: words long[] (bit 0 = no province, bit c + 1 = code c)
+ *     column offsets: long[COLUMNS + 1]
+ * footer: directoryOffset(long) MAGIC
+ * </pre>
+ *
+ * Missing altitudes and beds are {@link HutStore#NO_VALUE} in the
+ * columns and are left out of the min/max, which are
+ * {@link #EMPTY_MIN}/{@link #EMPTY_MAX} for a block without values.
+ */
+final class HutBlockFile {
+
+    static final int MAGIC = 0x48555442; // "HUTB"
+    static final int VERSION = 1;
+    static final int DEFAULT_BLOCK_ROWS = 64 * 1024;
+    static final int FOOTER = Long.BYTES + Integer.BYTES;
+
+    static final int NAME = 0;
+    static final int ALTITUDE = 1;
+    static final int EFFECTIVE_ALTITUDE = 2;
+    static final int BEDS = 3;
+    static final int CATEGORY = 4;
+    static final int MUNICIPALITY = 5;
+    static final int PROVINCE = 6;
+    static final int COLUMNS = 7;
+
+    static final int EMPTY_MIN = Integer.MAX_VALUE;
+    static final int EMPTY_MAX = Integer.MIN_VALUE;
+
+    private HutBlockFile() {
+    }
+
+    static void write(Path file, String name, HutStore store, List<Region.Range> ranges, int blockRows)
+            throws IOException {
+        if (blockRows <= 0) throw new IllegalArgumentException("Block rows must be positive: " + blockRows);
+        int[] order = sortedRows(store);
+        int provinceWords = (store.provinces().size() + 1 + 63) >>> 6;
+        int blocks = (order.length + blockRows - 1) / blockRows;
+
+        Path absolute = file.toAbsolutePath();
+        Path temp = absolute.resolveSibling(absolute.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            Chunk chunk = new Chunk();
+            chunk.putInt(MAGIC);
+            chunk.putInt(VERSION);
+            long position = chunk.writeTo(channel, 0);
+
+            Chunk directory = new Chunk();
+            directory.putInt(blocks);
+            for (int block = 0; block < blocks; block++) {
+                int from = block * blockRows;
+                int to = Math.min(order.length, from + blockRows);
+                long[] offsets = new long[COLUMNS + 1];
+                for (int column = 0; column < COLUMNS; column++) {
+                    offsets[column] = position;
+                    for (int i = from; i < to; i++) {
+                        putValue(chunk, store, column, order[i]);
+                    }
+                    position = chunk.writeTo(channel, position);
+                }
+                offsets[COLUMNS] = position;
+                writeBlockEntry(directory, store, order, from, to, provinceWords, offsets);
+            }
+
+            long directoryOffset = position;
+            chunk.putString(name);
+            chunk.putInt(blockRows);
+            chunk.putInt(order.length);
+            putDictionary(chunk, store.categories());
+            putDictionary(chunk, store.provinces());
+            int municipalities = store.municipalityCount();
+            chunk.putInt(municipalities);
+            for (int code = 0; code < municipalities; code++) chunk.putString(store.municipalityAt(code).getName());
+            for (int code = 0; code < municipalities; code++) chunk.putInt(store.municipalityProvince(code));
+            for (int code = 0; code < municipalities; code++) chunk.putInt(store.municipalityAltitude(code));
+            chunk.putInt(ranges.size());
+            for (Region.Range range : ranges) chunk.putString(range.getLabel());
+            chunk.putInt(provinceWords);
+            position = chunk.writeTo(channel, position);
+            position = directory.writeTo(channel, position);
+            chunk.putLong(directoryOffset);
+            chunk.putInt(MAGIC);
+            chunk.writeTo(channel, position);
+            channel.force(false);
+        }
+        Files.move(temp, absolute, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * @return the rows not deleted, ordered by province code, huts without
+     *         a province first, and then by effective altitude
+     */
+    private static int[] sortedRows(HutStore store) {
+        int size = store.size();
+        int provinces = store.provinces().size();
+        // counting sort on the province, then a sort of (altitude, row) pairs per province
+        int[] starts = new int[provinces + 2];
+        for (int row = 0; row < size; row++) {
+            if (!store.isDeleted(row)) starts[provinceSlot(store, row) + 1]++;
+        }
+        for (int p = 0; p < provinces + 1; p++) starts[p + 1] += starts[p];
+        int huts = store.hutCount();
+        long[] keys = new long[huts];
+        int[] next = Arrays.copyOf(starts, provinces + 1);
+        for (int row = 0; row < size; row++) {
+            if (store.isDeleted(row)) continue;
+            keys[next[provinceSlot(store, row)]++] = ((long) store.effectiveAltitude(row) << 32) | row;
+        }
+        int[] order = new int[huts];
+        for (int p = 0; p < provinces + 1; p++) {
+            Arrays.sort(keys, starts[p], starts[p + 1]);
+        }
+        for (int i = 0; i < huts; i++) order[i] = (int) keys[i];
+        return order;
+    }
+
+    // 0 for a hut without a province, code + 1 otherwise
+    private static int provinceSlot(HutStore store, int row) {
+        int municipality = store.municipalityCode(row);
+        return municipality == StringDictionary.NO_CODE ? 0 : store.municipalityProvince(municipality) + 1;
+    }
+
+    private static void putValue(Chunk chunk, HutStore store, int column, int row) {
+        switch (column) {
+            case NAME: chunk.putString(store.name(row)); break;
+            case ALTITUDE: chunk.putInt(store.altitude(row)); break;
+            case EFFECTIVE_ALTITUDE: chunk.putInt(store.effectiveAltitude(row)); break;
+            case BEDS: chunk.putInt(store.beds(row)); break;
+            case CATEGORY: chunk.putInt(store.categoryCode(row)); break;
+            case MUNICIPALITY: chunk.putInt(store.municipalityCode(row)); break;
+            case PROVINCE: chunk.putInt(provinceSlot(store, row) - 1); break;
+            default: throw new IllegalArgumentException("Unknown column " + column);
+        }
+    }
+
+    private static void writeBlockEntry(Chunk directory, HutStore store, int[] order, int from, int to,
+                                        int provinceWords, long[] offsets) {
+        int minAltitude = EMPTY_MIN, maxAltitude = EMPTY_MAX, missingAltitudes = 0;
+        int minBeds = EMPTY_MIN, maxBeds = EMPTY_MAX, missingBeds = 0;
+        long[] provinces = new long[provinceWords];
+        for (int i = from; i < to; i++) {
+            int row = order[i];
+            int altitude = store.effectiveAltitude(row);
+            if (altitude == HutStore.NO_VALUE) {
+                missingAltitudes++;
+            } else {
+                minAltitude = Math.min(minAltitude, altitude);
+                maxAltitude = Math.max(maxAltitude, altitude);
+            }
+            int beds = store.beds(row);
+            if (beds == HutStore.NO_VALUE) {
+                missingBeds++;
+            } else {
+                minBeds = Math.min(minBeds, beds);
+                maxBeds = Math.max(maxBeds, beds);
+            }
+            int slot = provinceSlot(store, row);
+            provinces[slot >>> 6] |= 1L << slot;
+        }
+        directory.putInt(to - from);
+        directory.putInt(minAltitude);
+        directory.putInt(maxAltitude);
+        directory.putInt(missingAltitudes);
+        directory.putInt(minBeds);
+        directory.putInt(maxBeds);
+        directory.putInt(missingBeds);
+        for (long word : provinces) directory.putLong(word);
+        for (long offset : offsets) directory.putLong(offset);
+    }
+
+    private static void putDictionary(Chunk chunk, StringDictionary dictionary) {
+        chunk.putInt(dictionary.size());
+        for (int code = 0; code < dictionary.size(); code++) chunk.putString(dictionary.value(code));
+    }
+
+    /**
+     * Growable little endian buffer, written out and reset one chunk at a time.
+     */
+    private static final class Chunk {
+        private ByteBuffer buffer = ByteBuffer.allocate(64 * 1024).order(ByteOrder.LITTLE_ENDIAN);
+
+        private void require(int bytes) {
+            if (buffer.remaining() < bytes) {
+                ByteBuffer larger = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + bytes))
+                        .order(ByteOrder.LITTLE_ENDIAN);
+                buffer.flip();
+                larger.put(buffer);
+                buffer = larger;
+            }
+        }
+
+        void putInt(int value) {
+            require(Integer.BYTES);
+            buffer.putInt(value);
+        }
+
+        void putLong(long value) {
+            require(Long.BYTES);
+            buffer.putLong(value);
+        }
+
+        void putString(String value) {
+            if (value == null) {
+                putInt(-1);
+                return;
+            }
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            require(Integer.BYTES + bytes.length);
+            buffer.putInt(bytes.length);
+            buffer.put(bytes);
+        }
+
+        /**
+         * @return the file position after the chunk
+         */
+        long writeTo(FileChannel channel, long position) throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) position += channel.write(buffer, position);
+            buffer.clear();
+            return position;
+        }
+    }
+}
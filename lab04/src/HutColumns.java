@@ -0,0 +1,55 @@
+package mountainhuts;
+
+/**
+ * Storage of the hut rows of a {@link HutStore}: the name, altitude,
+ * beds, category code and municipality code of every row, and the
+ * index from hut name to row.
+ *
+ * Rows are appended in order and never removed; altitude, beds,
+ * category and municipality change afterwards, and a deleted hut only
+ * leaves the name index. Implementations are not thread-safe, the
+ * store locks around them.
+ */
+interface HutColumns {
+
+    /**
+     * Appends row {@code row}, which must be the number of rows so far,
+     * and indexes its name.
+     */
+    void append(int row, String name, int altitude, int beds, int category, int municipality);
+
+    /**
+     * @return the row of the hut with the given name, or -1
+     */
+    int find(String name);
+
+    /**
+     * Removes the name of the row from the index, for good; the row
+     * keeps its values.
+     */
+    void unindex(int row);
+
+    String name(int row);
+
+    int altitude(int row);
+
+    void setAltitude(int row, int altitude);
+
+    int beds(int row);
+
+    void setBeds(int row, int beds);
+
+    int category(int row);
+
+    void setCategory(int row, int category);
+
+    int municipality(int row);
+
+    void setMunicipality(int row, int municipality);
+
+    /**
+     * Releases at once the memory held outside of the heap, if any; the
+     * columns cannot be used afterwards.
+     */
+    default void close() {}
+}
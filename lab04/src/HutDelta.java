@@ -0,0 +1,205 @@
+package mountainhuts;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * A batch of upserts and deletes of huts, parsed from rows in the
+ * mountain huts CSV schema with an optional eighth {@code Operation}
+ * field.
+ *
+ * A row whose operation is {@value #DELETE} (any case) deletes the hut
+ * with its name, the other fields may be empty; any other row inserts
+ * the hut, or replaces altitude, category, beds and municipality of the
+ * hut with that name. Only the last row of every name counts. As in a
+ * load, a missing municipality is created by the first applied row
+ * naming it, and the province and altitude of an existing municipality
+ * are not changed.
+ *
+ * Rows are parsed first, without locking and without touching the
+ * region; they are then applied in one pass, grouped by municipality,
+ * while the caller holds the write lock of the store.
+ */
+final class HutDelta {
+
+    static final String DELETE = "DELETE";
+
+    private static final class Operation {
+        final String name;
+        final boolean delete;
+        final int altitude;
+        final String category;
+        final int beds;
+        final String municipality;
+        final String province;
+        final Integer municipalityAltitude;
+
+        Operation(String name, boolean delete, int altitude, String category, int beds,
+                String municipality, String province, Integer municipalityAltitude) {
+            this.name = name;
+            this.delete = delete;
+            this.altitude = altitude;
+            this.category = category;
+            this.beds = beds;
+            this.municipality = municipality;
+            this.province = province;
+            this.municipalityAltitude = municipalityAltitude;
+        }
+    }
+
+    // the last operation of every name, in order of first appearance
+    private final Map<String, Operation> operations = new LinkedHashMap<>();
+
+    /**
+     * Parses one row; incomplete rows and rows with bad numbers go to
+     * {@code rejects} as in {@link Region#applyRow}.
+     *
+     * @return true if the row was valid
+     */
+    boolean parse(Region region, String line, RejectLog rejects, long lineNumber) {
+        String[] fields = line.split(";");
+        boolean delete = fields.length >= 8 && fields[7].trim().equalsIgnoreCase(DELETE);
+        if (delete ? fields.length < 4 || fields[3].trim().isEmpty() : fields.length < 7) {
+            if (!line.isEmpty()) {
+                region.metrics().addRowsRejected(1);
+                rejects.reject(lineNumber, RejectReason.INCOMPLETE_ROW, null, line);
+            }
+            return false;
+        }
+        String name = fields[3].trim();
+        if (delete) {
+            operations.remove(name);
+            operations.put(name, new Operation(name, true, HutStore.NO_VALUE, null, HutStore.NO_VALUE, null, null, null));
+            region.metrics().addRowsParsed(1);
+            return true;
+        }
+
+        try {
+            Integer municipalityAltitude = fields[2].trim().isEmpty() ? null : HutStore.parseValue(fields[2].trim());
+            String altitudeStr = fields[4].trim();
+            int altitude = altitudeStr.isEmpty() ? HutStore.NO_VALUE : HutStore.parseValue(altitudeStr);
+            int beds = HutStore.parseValue(fields[6].trim());
+            operations.remove(name);
+            operations.put(name, new Operation(name, false, altitude, fields[5].trim(), beds,
+                    fields[1].trim(), fields[0].trim(), municipalityAltitude));
+            region.metrics().addRowsParsed(1);
+            return true;
+        } catch (NumberFormatException e) {
+            region.metrics().addRowsRejected(1);
+            rejects.reject(lineNumber, RejectReason.BAD_NUMBER, e.getMessage(), line);
+            return false;
+        }
+    }
+
+    int size() {
+        return operations.size();
+    }
+
+    /**
+     * Applies the operations to the store of the region, whose write lock
+     * the caller holds.
+     *
+     * @param ranges the ranges the changed huts are reported in
+     */
+    DeltaReport apply(Region region, HutStore store, AltitudeRangeIndex ranges) {
+        // deletes go with the current municipality of the hut, upserts with the new one
+        Map<Municipality, List<Operation>> groups = new LinkedHashMap<>();
+        for (Operation op : operations.values()) {
+            Municipality municipality;
+            if (op.delete) {
+                int row = store.find(op.name);
+                municipality = row < 0 ? null : store.municipality(row);
+            } else {
+                municipality = region.createOrGetMunicipalityLocked(op.municipality, op.province, op.municipalityAltitude);
+            }
+            groups.computeIfAbsent(municipality, m -> new ArrayList<>()).add(op);
+        }
+
+        Changes changes = new Changes(store, ranges);
+        store.addListener(changes);
+        int inserted = 0;
+        int updated = 0;
+        int deleted = 0;
+        int unchanged = 0;
+        try {
+            for (Map.Entry<Municipality, List<Operation>> group : groups.entrySet()) {
+                Municipality municipality = group.getKey();
+                for (Operation op : group.getValue()) {
+                    int row = store.find(op.name);
+                    if (op.delete) {
+                        if (row < 0) {
+                            unchanged++;
+                        } else {
+                            store.delete(row);
+                            deleted++;
+                        }
+                    } else if (row < 0) {
+                        store.add(op.name, op.altitude, op.category, op.beds, municipality);
+                        inserted++;
+                    } else if (store.altitude(row) != op.altitude || store.beds(row) != op.beds
+                            || !Objects.equals(store.category(row), op.category) || store.municipality(row) != municipality) {
+                        store.update(row, op.altitude, op.category, op.beds, municipality);
+                        updated++;
+                    } else {
+                        unchanged++;
+                    }
+                }
+            }
+        } finally {
+            store.removeListener(changes);
+        }
+        return new DeltaReport(inserted, updated, deleted, unchanged, changes.provinces, changes.ranges);
+    }
+
+    /**
+     * Notes the province and altitude range of every hut before and
+     * after it changes.
+     */
+    private static final class Changes implements HutStore.Listener {
+
+        private final HutStore store;
+        private final AltitudeRangeIndex rangeIndex;
+        final Set<String> provinces = new TreeSet<>();
+        final Set<String> ranges = new TreeSet<>();
+
+        Changes(HutStore store, AltitudeRangeIndex rangeIndex) {
+            this.store = store;
+            this.rangeIndex = rangeIndex;
+        }
+
+        private void note(int row) {
+            int code = store.municipalityCode(row);
+            if (code != StringDictionary.NO_CODE) {
+                String province = store.provinces().value(store.municipalityProvince(code));
+                if (province != null) provinces.add(province);
+            }
+            int altitude = store.effectiveAltitude(row);
+            ranges.add(rangeIndex.labelOf(altitude == HutStore.NO_VALUE ? null : altitude));
+        }
+
+        @Override
+        public void hutAdded(int row) {
+            note(row);
+        }
+
+        @Override
+        public void hutChanging(int row) {
+            note(row);
+        }
+
+        @Override
+        public void hutChanged(int row) {
+            note(row);
+        }
+
+        @Override
+        public void hutRemoved(int row) {
+            note(row);
+        }
+    }
+}
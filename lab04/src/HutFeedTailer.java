@@ -0,0 +1,176 @@
+package mountainhuts;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Follows a growing mountain huts CSV file and applies the rows
+ * appended to it to an existing {@link Region}.
+ *
+ * Only complete lines are applied; a trailing line without terminator
+ * is kept until the rest of it is written. If the file shrinks it is
+ * assumed to be rewritten and is read again from the beginning, which
+ * is harmless since repeated names keep their first record.
+ *
+ * Rows are applied while holding the monitor of the region, so queries
+ * running on other threads should synchronize on it as well, unless the
+ * region was created with {@link Region#concurrent}.
+ */
+public class HutFeedTailer implements Closeable {
+
+    private final Region region;
+    private final Path file;
+    private final ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+    private final ByteArrayOutputStream pending = new ByteArrayOutputStream();
+
+    private long position;
+    private boolean header;
+    // lines read since the starting offset, for the rejected rows
+    private long lines;
+    private byte previous;
+    private ScheduledExecutorService scheduler;
+    private Exception lastFailure;
+
+    /**
+     * @param region the region receiving the rows
+     * @param file   the file to follow
+     * @param offset byte offset to start reading from; 0 reads the whole file
+     *               skipping the header line
+     */
+    public HutFeedTailer(Region region, Path file, long offset) {
+        this.region = region;
+        this.file = file;
+        this.position = offset;
+        this.header = offset == 0;
+    }
+
+    /**
+     * Applies all complete lines appended since the previous call.
+     * The rows rejected meanwhile are reported as one load to the
+     * {@link RejectPolicy} of the region, with line numbers counted
+     * from the starting offset. If the policy aborts on a rejected row,
+     * the position is left right after that row, so the next call goes
+     * on with the rows following it.
+     *
+     * @return the number of valid rows applied
+     * @throws RejectLimitExceededException if too many rows were rejected
+     */
+    public synchronized int poll() throws IOException {
+        int applied = 0;
+        RejectLog rejects = new RejectLog(region.getRejectPolicy(), file.toString(), null);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() < position) {
+                position = 0;
+                header = true;
+                lines = 0;
+                previous = 0;
+                pending.reset();
+            }
+            int n;
+            while ((n = channel.read(buffer.clear(), position)) > 0) {
+                applied += consume(buffer.array(), n, rejects);
+            }
+        } catch (NoSuchFileException e) {
+            return 0; // not created yet, or being rotated
+        } finally {
+            try {
+                rejects.finish();
+            } catch (RejectLimitExceededException e) {
+                // already thrown by the row over the limit
+            }
+        }
+        return applied;
+    }
+
+    // applies the lines of the bytes read at position, moving it past every line handled
+    private int consume(byte[] bytes, int length, RejectLog rejects) {
+        int applied = 0;
+        int lineStart = 0;
+        long start = position;
+        synchronized (region) {
+            for (int i = 0; i < length; i++) {
+                byte b = bytes[i];
+                boolean crlf = b == '\n' && previous == '\r';
+                previous = b;
+                if (b == '\n' || b == '\r') {
+                    if (!crlf) lines++;
+                    pending.write(bytes, lineStart, i - lineStart);
+                    String line = new String(pending.toByteArray(), StandardCharsets.UTF_8);
+                    pending.reset();
+                    lineStart = i + 1;
+                    position = start + lineStart;
+                    if (header) {
+                        header = false;
+                    } else if (!line.isEmpty() && region.applyRow(line, rejects, lines)) {
+                        applied++;
+                    }
+                }
+            }
+        }
+        pending.write(bytes, lineStart, length - lineStart);
+        position = start + length;
+        return applied;
+    }
+
+    /**
+     * Starts polling the file in a background daemon thread. A poll that
+     * fails, e.g. on too many rejected rows, does not stop the later
+     * ones; its exception is kept by {@link #getLastFailure()}.
+     */
+    public synchronized HutFeedTailer start(long period, TimeUnit unit) {
+        if (scheduler == null) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "hut-feed-" + file.getFileName());
+                t.setDaemon(true);
+                return t;
+            });
+            scheduler.scheduleWithFixedDelay(() -> {
+                // anything thrown out of the task would cancel the later runs
+                Exception failure = null;
+                try {
+                    poll();
+                } catch (IOException | RuntimeException e) {
+                    failure = e;
+                    System.err.println(e.getMessage());
+                }
+                synchronized (this) {
+                    lastFailure = failure;
+                }
+            }, 0, period, unit);
+        }
+        return this;
+    }
+
+    /**
+     * @return the exception of the last background poll, or null if it
+     *         succeeded or none ran yet
+     */
+    public synchronized Exception getLastFailure() {
+        return lastFailure;
+    }
+
+    /**
+     * @return byte offset of the next byte to be read
+     */
+    public synchronized long getPosition() {
+        return position;
+    }
+
+    @Override
+    public synchronized void close() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+    }
+}
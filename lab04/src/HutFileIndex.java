@@ -0,0 +1,275 @@
+package mountainhuts;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Index from hut name to the line of a mapped mountain huts CSV file.
+ *
+ * It is built by a single pass over the file that checks every row as
+ * {@link MappedHutLoader} does, creates the municipalities in the
+ * region, and keeps for the first valid row of every hut name only the
+ * file offset of the line and a hash of the name bytes. Lookups compare
+ * the name bytes in the file, so no String is created for a name until
+ * its hut is parsed.
+ *
+ * Entries are numbered in file order. The file must not change while
+ * the index is in use. Not thread-safe.
+ */
+final class HutFileIndex {
+
+    private static final int CHUNK = 1 << 20;
+
+    private final ByteBuffer[] windows;
+    private final long[] windowStarts;
+
+    private long[] lines = new long[1024];
+    private int[] hashes = new int[1024];
+    private int size;
+    // entry + 1, 0 for an empty slot
+    private int[] slots = new int[2048];
+
+    private final MappedRow row = new MappedRow();
+    private final MappedRow other = new MappedRow();
+    private final StringPool pool = new StringPool();
+    private String lastMunicipality;
+    private long valid;
+    private long rejected;
+
+    private HutFileIndex(ByteBuffer[] windows, long[] windowStarts) {
+        this.windows = windows;
+        this.windowStarts = windowStarts;
+    }
+
+    /**
+     * Maps the file and indexes all rows but the header.
+     *
+     * @param rejects the log of the load, taking byte offsets as positions
+     */
+    static HutFileIndex build(Region region, Path file, RejectLog rejects) throws IOException {
+        ByteBuffer[] windows = new ByteBuffer[0];
+        long[] starts = new long[0];
+        LoadPhaseEvent read = new LoadPhaseEvent();
+        read.begin();
+        long readStart = System.nanoTime();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            long position = 0;
+            while (position < size) {
+                int length = (int) Math.min(MappedHutLoader.WINDOW, size - position);
+                ByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+                int limit = length;
+                if (position + length < size) {
+                    limit = MappedHutLoader.lastLineEnd(buf, length);
+                    if (limit < 0) {
+                        throw new IOException("Line longer than " + MappedHutLoader.WINDOW + " bytes at offset " + position);
+                    }
+                }
+                windows = Arrays.copyOf(windows, windows.length + 1);
+                windows[windows.length - 1] = buf.limit(limit);
+                starts = Arrays.copyOf(starts, starts.length + 1);
+                starts[starts.length - 1] = position;
+                position += limit;
+            }
+        }
+        read.finish(region, LoadPhaseEvent.READ, readStart, 0);
+
+        HutFileIndex index = new HutFileIndex(windows, starts);
+        LoadPhaseEvent parse = new LoadPhaseEvent();
+        parse.begin();
+        long parseStart = System.nanoTime();
+        // lines are scanned from heap copies of the mapping, much cheaper to read byte by byte
+        byte[] chunk = new byte[CHUNK];
+        boolean header = true;
+        for (int w = 0; w < windows.length; w++) {
+            ByteBuffer buf = windows[w];
+            int limit = buf.limit();
+            int position = 0;
+            while (position < limit) {
+                int length = Math.min(chunk.length, limit - position);
+                buf.get(position, chunk, 0, length);
+                ByteBuffer heap = ByteBuffer.wrap(chunk);
+                int end = length;
+                if (position + length < limit) {
+                    end = MappedHutLoader.lastLineEnd(heap, length);
+                    if (end < 0) { // a line longer than the chunk
+                        chunk = new byte[chunk.length * 2];
+                        continue;
+                    }
+                }
+                index.indexLines(region, heap, end, header, starts[w] + position, rejects);
+                header = false;
+                position += end;
+            }
+        }
+        parse.finish(region, LoadPhaseEvent.PARSE, parseStart, (int) Math.min(index.valid, Integer.MAX_VALUE));
+        region.metrics().addRowsParsed(index.valid);
+        region.metrics().addRowsRejected(index.rejected);
+        return index;
+    }
+
+    /**
+     * Indexes the lines of the first {@code to} bytes of the buffer,
+     * which hold whole lines.
+     *
+     * @param base offset in the file of the first byte of the buffer
+     */
+    private void indexLines(Region region, ByteBuffer buf, int to, boolean skipFirstLine, long base, RejectLog rejects) {
+        int lineStart = 0;
+        boolean skip = skipFirstLine;
+        for (int i = 0; i <= to; i++) {
+            if (i < to && buf.get(i) != '\n' && buf.get(i) != '\r') continue;
+            if (skip) {
+                skip = false;
+            } else if (i > lineStart) {
+                if (indexLine(region, buf, lineStart, i, base, rejects)) valid++;
+                else rejected++;
+            }
+            lineStart = i + 1;
+        }
+    }
+
+    private boolean indexLine(Region region, ByteBuffer buf, int start, int end, long base, RejectLog rejects) {
+        if (!row.split(buf, start, end)) {
+            rejects.reject(base + start, RejectReason.INCOMPLETE_ROW, null, row.decode(buf, start, end));
+            return false;
+        }
+        int municipalityAltitude;
+        try {
+            municipalityAltitude = row.parseField(buf, MappedRow.MUNICIPALITY_ALTITUDE, HutStore.NO_VALUE);
+            row.parseField(buf, MappedRow.ALTITUDE, HutStore.NO_VALUE);
+            row.parseField(buf, MappedRow.BEDS);
+        } catch (NumberFormatException e) {
+            rejects.reject(base + start, RejectReason.BAD_NUMBER, e.getMessage(), row.decode(buf, start, end));
+            return false;
+        }
+        String municipality = pooled(buf, MappedRow.MUNICIPALITY);
+        if (municipality != lastMunicipality) { // pooled, rows of a municipality often come together
+            region.createOrGetMunicipality(municipality, pooled(buf, MappedRow.PROVINCE),
+                    municipalityAltitude == HutStore.NO_VALUE ? null : municipalityAltitude);
+            lastMunicipality = municipality;
+        }
+
+        int from = row.starts[MappedRow.NAME];
+        int to = row.ends[MappedRow.NAME];
+        int hash = hash(buf, from, to);
+        int mask = slots.length - 1;
+        int slot = HeapHutColumns.spread(hash) & mask;
+        int entry;
+        while ((entry = slots[slot]) != 0) {
+            if (hashes[entry - 1] == hash && nameEquals(entry - 1, buf, from, to)) {
+                region.metrics().addDuplicateHutName();
+                return true;
+            }
+            slot = (slot + 1) & mask;
+        }
+        add(base + start, hash, slot);
+        return true;
+    }
+
+    private String pooled(ByteBuffer buf, int field) {
+        return pool.get(buf, row.starts[field], row.ends[field]);
+    }
+
+    private void add(long line, int hash, int slot) {
+        if (size == lines.length) {
+            lines = Arrays.copyOf(lines, size * 2);
+            hashes = Arrays.copyOf(hashes, size * 2);
+        }
+        lines[size] = line;
+        hashes[size] = hash;
+        slots[slot] = ++size;
+        if (size * 2 > slots.length) {
+            rehash();
+        }
+    }
+
+    private void rehash() {
+        slots = new int[slots.length * 2];
+        int mask = slots.length - 1;
+        for (int entry = 0; entry < size; entry++) {
+            int slot = HeapHutColumns.spread(hashes[entry]) & mask;
+            while (slots[slot] != 0) slot = (slot + 1) & mask;
+            slots[slot] = entry + 1;
+        }
+    }
+
+    private static int hash(ByteBuffer buf, int from, int to) {
+        int hash = 0;
+        for (int i = from; i < to; i++) hash = 31 * hash + buf.get(i);
+        return hash;
+    }
+
+    // whether the name of the entry is buf[from..to)
+    private boolean nameEquals(int entry, ByteBuffer buf, int from, int to) {
+        ByteBuffer line = split(entry, other);
+        int start = other.starts[MappedRow.NAME];
+        if (other.ends[MappedRow.NAME] - start != to - from) return false;
+        for (int i = 0; i < to - from; i++) {
+            if (line.get(start + i) != buf.get(from + i)) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Splits the line of an entry into the fields of {@code fields}.
+     *
+     * @return the window holding the line, where the field bounds are
+     */
+    private ByteBuffer split(int entry, MappedRow fields) {
+        long line = lines[entry];
+        int w = Arrays.binarySearch(windowStarts, line);
+        if (w < 0) w = -w - 2;
+        ByteBuffer buf = windows[w];
+        int start = (int) (line - windowStarts[w]);
+        int end = start;
+        while (end < buf.limit() && buf.get(end) != '\n' && buf.get(end) != '\r') end++;
+        fields.split(buf, start, end); // checked when indexed
+        return buf;
+    }
+
+    /**
+     * @return the number of distinct hut names
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return the entry of the hut, or -1
+     */
+    int find(String name) {
+        byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer key = ByteBuffer.wrap(bytes);
+        int hash = hash(key, 0, bytes.length);
+        int mask = slots.length - 1;
+        int slot = HeapHutColumns.spread(hash) & mask;
+        int entry;
+        while ((entry = slots[slot]) != 0) {
+            if (hashes[entry - 1] == hash && nameEquals(entry - 1, key, 0, bytes.length)) {
+                return entry - 1;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * Parses the line of an entry and adds its hut to the region, whose
+     * municipalities were created while indexing.
+     *
+     * @return the row of the hut in the region
+     */
+    int load(int entry, Region region) {
+        ByteBuffer buf = split(entry, row);
+        Municipality municipality = region.createOrGetMunicipality(pooled(buf, MappedRow.MUNICIPALITY), null, null);
+        return region.putMountainHut(row.decode(buf, MappedRow.NAME),
+                row.parseField(buf, MappedRow.ALTITUDE, HutStore.NO_VALUE), pooled(buf, MappedRow.CATEGORY),
+                row.parseField(buf, MappedRow.BEDS), municipality);
+    }
+}
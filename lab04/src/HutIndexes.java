@@ -0,0 +1,309 @@
+package mountainhuts;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * Secondary indexes over the rows of a {@link HutStore}, used to answer
+ * {@link HutQuery} predicates without scanning every hut:
+ * <ul>
+ * <li>category: a bitmap of rows per category code;</li>
+ * <li>municipality: the row lists the store already keeps, plus the
+ *     municipality codes of every name;</li>
+ * <li>province: the municipality codes of every province, so a province
+ *     is the union of its municipalities;</li>
+ * <li>beds: row lists per beds number, sorted by beds.</li>
+ * </ul>
+ * Like the aggregates, the indexes are built by one scan the first time
+ * they are needed and then follow the changes of the store.
+ *
+ * A query starts from the predicate matching the fewest rows and
+ * narrows it down with the others, intersecting bitmaps when the other
+ * predicate is smaller than the candidates and testing the columns of
+ * the candidates otherwise.
+ */
+final class HutIndexes implements HutStore.Listener {
+
+    private final HutStore store;
+
+    private boolean built;
+    private BitSet[] categoryRows = new BitSet[0];
+    private int[] categoryCounts = new int[0];
+    private IntList[] provinceMunicipalities = new IntList[0];
+    private final Map<String, IntList> municipalityCodes = new HashMap<>();
+    private final TreeMap<Integer, IntList> bedsRows = new TreeMap<>();
+    private final RowPositions bedsPositions = new RowPositions();
+
+    HutIndexes(HutStore store) {
+        this.store = store;
+        store.addListener(this);
+    }
+
+    boolean isBuilt() {
+        return built;
+    }
+
+    void build() {
+        if (built) return;
+        for (int code = 0; code < store.municipalityCount(); code++) {
+            addMunicipality(code);
+        }
+        for (int row = 0, n = store.size(); row < n; row++) {
+            if (!store.isDeleted(row)) addHut(row);
+        }
+        built = true;
+    }
+
+    // ---- maintenance
+
+    private void addHut(int row) {
+        int category = store.categoryCode(row);
+        if (category != StringDictionary.NO_CODE) {
+            if (category >= categoryRows.length) {
+                int size = store.categories().size();
+                categoryRows = Arrays.copyOf(categoryRows, size);
+                categoryCounts = Arrays.copyOf(categoryCounts, size);
+            }
+            if (categoryRows[category] == null) categoryRows[category] = new BitSet();
+            categoryRows[category].set(row);
+            categoryCounts[category]++;
+        }
+        int beds = store.beds(row);
+        if (beds != HutStore.NO_VALUE) bedsPositions.add(bedsRows.computeIfAbsent(beds, b -> new IntList()), row);
+    }
+
+    private void removeHut(int row) {
+        int category = store.categoryCode(row);
+        if (category != StringDictionary.NO_CODE) {
+            categoryRows[category].clear(row);
+            categoryCounts[category]--;
+        }
+        int beds = store.beds(row);
+        if (beds != HutStore.NO_VALUE) {
+            IntList rows = bedsRows.get(beds);
+            bedsPositions.remove(rows, row);
+            if (rows.size() == 0) bedsRows.remove(beds);
+        }
+    }
+
+    private void addMunicipality(int code) {
+        municipalityCodes.computeIfAbsent(store.municipalityAt(code).getName(), n -> new IntList()).add(code);
+        linkProvince(code);
+    }
+
+    private void linkProvince(int code) {
+        int province = store.municipalityProvince(code);
+        if (province == StringDictionary.NO_CODE) return;
+        if (province >= provinceMunicipalities.length) {
+            provinceMunicipalities = Arrays.copyOf(provinceMunicipalities, store.provinces().size());
+        }
+        if (provinceMunicipalities[province] == null) provinceMunicipalities[province] = new IntList();
+        provinceMunicipalities[province].add(code);
+    }
+
+    private void unlinkProvince(int code) {
+        int province = store.municipalityProvince(code);
+        if (province != StringDictionary.NO_CODE) provinceMunicipalities[province].removeValue(code);
+    }
+
+    @Override
+    public void hutAdded(int row) {
+        if (built) addHut(row);
+    }
+
+    @Override
+    public void hutChanging(int row) {
+        if (built) removeHut(row);
+    }
+
+    @Override
+    public void hutChanged(int row) {
+        if (built) addHut(row);
+    }
+
+    @Override
+    public void municipalityAdded(int code) {
+        if (built) addMunicipality(code);
+    }
+
+    @Override
+    public void municipalityChanging(int code) {
+        if (built) unlinkProvince(code);
+    }
+
+    @Override
+    public void municipalityChanged(int code) {
+        if (built) linkProvince(code);
+    }
+
+    // ---- queries
+
+    /**
+     * @return the rows matching all the predicates of the query
+     */
+    BitSet select(HutQuery query) {
+        build();
+        List<Predicate> predicates = new ArrayList<>();
+        if (query.categories != null) predicates.add(new CategoryPredicate(query.categories));
+        if (query.provinces != null) predicates.add(new MunicipalityPredicate(provinceCodes(query.provinces)));
+        if (query.municipalities != null) predicates.add(new MunicipalityPredicate(municipalityCodes(query.municipalities)));
+        if (query.minBeds != Integer.MIN_VALUE || query.maxBeds != Integer.MAX_VALUE) {
+            predicates.add(new BedsPredicate(query.minBeds, query.maxBeds));
+        }
+
+        if (predicates.isEmpty()) {
+            BitSet all = new BitSet(store.size());
+            all.set(0, store.size());
+            for (int row = 0, n = store.size(); store.hasDeletions() && row < n; row++) {
+                if (store.isDeleted(row)) all.clear(row);
+            }
+            return all;
+        }
+        predicates.sort((a, b) -> Long.compare(a.estimate, b.estimate));
+        BitSet candidates = predicates.get(0).rows();
+        for (int i = 1; i < predicates.size() && !candidates.isEmpty(); i++) {
+            Predicate p = predicates.get(i);
+            if (p.bitmap || p.estimate < candidates.cardinality()) {
+                candidates.and(p.rows());
+            } else {
+                for (int row = candidates.nextSetBit(0); row >= 0; row = candidates.nextSetBit(row + 1)) {
+                    if (!p.test(row)) candidates.clear(row);
+                }
+            }
+        }
+        return candidates;
+    }
+
+    private IntList provinceCodes(Collection<String> provinces) {
+        IntList codes = new IntList();
+        for (String province : provinces) {
+            int code = store.provinces().find(province);
+            if (code == StringDictionary.NO_CODE || code >= provinceMunicipalities.length
+                    || provinceMunicipalities[code] == null) continue;
+            IntList municipalities = provinceMunicipalities[code];
+            for (int i = 0; i < municipalities.size(); i++) codes.add(municipalities.get(i));
+        }
+        return codes;
+    }
+
+    private IntList municipalityCodes(Collection<String> names) {
+        IntList codes = new IntList();
+        for (String name : names) {
+            IntList found = municipalityCodes.get(name);
+            if (found == null) continue;
+            for (int i = 0; i < found.size(); i++) codes.add(found.get(i));
+        }
+        return codes;
+    }
+
+    /**
+     * A predicate of a query: how many rows it may match, the set of those
+     * rows, and a test on a single row.
+     */
+    private abstract static class Predicate {
+        long estimate;
+        // whether rows() is a cheap bitmap operation
+        boolean bitmap;
+
+        abstract BitSet rows();
+
+        abstract boolean test(int row);
+    }
+
+    private final class CategoryPredicate extends Predicate {
+        private final boolean[] allowed = new boolean[categoryRows.length];
+
+        CategoryPredicate(Collection<String> categories) {
+            bitmap = true;
+            for (String category : categories) {
+                int code = store.categories().find(category);
+                if (code != StringDictionary.NO_CODE && code < allowed.length && !allowed[code]) {
+                    allowed[code] = true;
+                    estimate += categoryCounts[code];
+                }
+            }
+        }
+
+        @Override
+        BitSet rows() {
+            BitSet rows = new BitSet();
+            for (int code = 0; code < allowed.length; code++) {
+                if (allowed[code] && categoryRows[code] != null) rows.or(categoryRows[code]);
+            }
+            return rows;
+        }
+
+        @Override
+        boolean test(int row) {
+            int code = store.categoryCode(row);
+            return code >= 0 && code < allowed.length && allowed[code];
+        }
+    }
+
+    private final class MunicipalityPredicate extends Predicate {
+        private final IntList codes;
+        private final boolean[] allowed = new boolean[store.municipalityCount()];
+
+        MunicipalityPredicate(IntList codes) {
+            this.codes = codes;
+            for (int i = 0; i < codes.size(); i++) {
+                int code = codes.get(i);
+                if (!allowed[code]) {
+                    allowed[code] = true;
+                    estimate += store.rowsOf(code).size();
+                }
+            }
+        }
+
+        @Override
+        BitSet rows() {
+            BitSet rows = new BitSet();
+            for (int i = 0; i < codes.size(); i++) {
+                IntList municipalityRows = store.rowsOf(codes.get(i));
+                for (int j = 0; j < municipalityRows.size(); j++) rows.set(municipalityRows.get(j));
+            }
+            return rows;
+        }
+
+        @Override
+        boolean test(int row) {
+            int code = store.municipalityCode(row);
+            return code != StringDictionary.NO_CODE && allowed[code];
+        }
+    }
+
+    private final class BedsPredicate extends Predicate {
+        private final int min;
+        private final int max;
+        private final NavigableMap<Integer, IntList> range;
+
+        BedsPredicate(int min, int max) {
+            this.min = min;
+            this.max = max;
+            this.range = min > max ? new TreeMap<>() : bedsRows.subMap(min, true, max, true);
+            for (IntList rows : range.values()) estimate += rows.size();
+        }
+
+        @Override
+        BitSet rows() {
+            BitSet rows = new BitSet();
+            for (IntList bedsRows : range.values()) {
+                for (int i = 0; i < bedsRows.size(); i++) rows.set(bedsRows.get(i));
+            }
+            return rows;
+        }
+
+        @Override
+        boolean test(int row) {
+            int beds = store.beds(row);
+            return beds != HutStore.NO_VALUE && beds >= min && beds <= max;
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package mountainhuts;
+
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Filter over the mountain huts of a {@link Region}, answered through
+ * its secondary indexes rather than a scan of all the huts.
+ *
+ * Every method restricts one attribute; calling it again replaces the
+ * values given before. The huts returned satisfy all the restrictions,
+ * and for each attribute any of its values, e.g.
+ * <pre>
+ * region.findMountainHuts()
+ *       .category("Bivacco fisso")
+ *       .province("CUNEO")
+ *       .minBeds(21)
+ *       .list();
+ * </pre>
+ */
+public final class HutQuery {
+
+    private final Region region;
+
+    Set<String> categories;
+    Set<String> provinces;
+    Set<String> municipalities;
+    int minBeds = Integer.MIN_VALUE;
+    int maxBeds = Integer.MAX_VALUE;
+
+    HutQuery(Region region) {
+        this.region = region;
+    }
+
+    public HutQuery category(String... categories) {
+        this.categories = new LinkedHashSet<>(Arrays.asList(categories));
+        return this;
+    }
+
+    public HutQuery province(String... provinces) {
+        this.provinces = new LinkedHashSet<>(Arrays.asList(provinces));
+        return this;
+    }
+
+    public HutQuery municipality(String... names) {
+        this.municipalities = new LinkedHashSet<>(Arrays.asList(names));
+        return this;
+    }
+
+    /**
+     * Keeps the huts with at least the given number of beds.
+     */
+    public HutQuery minBeds(int beds) {
+        this.minBeds = beds;
+        return this;
+    }
+
+    /**
+     * Keeps the huts with at most the given number of beds.
+     */
+    public HutQuery maxBeds(int beds) {
+        this.maxBeds = beds;
+        return this;
+    }
+
+    /**
+     * @return the matching huts, in insertion order
+     */
+    public List<MountainHut> list() {
+        return region.select(this);
+    }
+
+    /**
+     * @return the number of matching huts
+     */
+    public long count() {
+        return region.count(this);
+    }
+}
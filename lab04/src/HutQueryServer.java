@@ -0,0 +1,392 @@
+package mountainhuts;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Method;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+import java.util.zip.GZIPOutputStream;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * HTTP server answering queries on one shared {@link Region}, built on
+ * the JDK {@code com.sun.net.httpserver}.
+ *
+ * Every request runs on a thread of its own: a virtual thread where the
+ * JDK has them (21 and later), otherwise a task of a fixed pool of
+ * platform threads. Only GET and HEAD are served:
+ * <pre>
+ * /countMunicipalitiesPerProvince                 province;count
+ * /countMountainHutsPerMunicipalityPerProvince    province;municipality;count
+ * /countMountainHutsPerAltitudeRange              range;count
+ * /totalBedsNumberPerProvince                     province;beds
+ * /maximumBedsNumberPerAltitudeRange              range;beds (empty if none)
+ * /municipalityNamesPerCountOfMountainHuts        count;name;name...
+ * /altitudeRange?altitude=N                       range
+ * /hut?name=NAME                                  one row of the CSV schema, 404 if unknown
+ * </pre>
+ * Responses are {@code text/plain} lines of {@code ;} separated fields,
+ * like the CSV files, sorted by their first field; a missing value is
+ * an empty field. Bodies of at least {@value #GZIP_MIN} bytes are
+ * gzipped for clients accepting it. The body of an R4 query is encoded
+ * once per version of the data of the region, and served again until
+ * the data changes.
+ *
+ * A region made by {@link Region#concurrent} is queried without more
+ * locking; any other one is queried while holding its monitor, as for
+ * {@link HutFeedTailer}.
+ */
+public final class HutQueryServer implements Closeable {
+
+    static final int GZIP_MIN = 1024;
+    private static final int BACKLOG = 4096;
+    // platform threads serving requests when there are no virtual threads
+    private static final int POOL_THREADS = Math.max(16, 4 * Runtime.getRuntime().availableProcessors());
+
+    private final Region region;
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final boolean virtual;
+    private final Map<String, Query> queries = new TreeMap<>();
+
+    /**
+     * An R4 query with the body of its last result.
+     */
+    private static final class Query {
+        final Supplier<?> run;
+        final AtomicReference<Body> last = new AtomicReference<>();
+
+        Query(Supplier<?> run) {
+            this.run = run;
+        }
+    }
+
+    private static final class Body {
+        final long version;
+        final byte[] plain;
+        final byte[] gzip; // null if too small to be worth it
+
+        Body(long version, byte[] plain) {
+            this.version = version;
+            this.plain = plain;
+            this.gzip = plain.length >= GZIP_MIN ? gzip(plain) : null;
+        }
+    }
+
+    private HutQueryServer(Region region, InetSocketAddress address) throws IOException {
+        this.region = region;
+        queries.put("/countMunicipalitiesPerProvince", new Query(region::countMunicipalitiesPerProvince));
+        queries.put("/countMountainHutsPerMunicipalityPerProvince", new Query(region::countMountainHutsPerMunicipalityPerProvince));
+        queries.put("/countMountainHutsPerAltitudeRange", new Query(region::countMountainHutsPerAltitudeRange));
+        queries.put("/totalBedsNumberPerProvince", new Query(region::totalBedsNumberPerProvince));
+        queries.put("/maximumBedsNumberPerAltitudeRange", new Query(region::maximumBedsNumberPerAltitudeRange));
+        queries.put("/municipalityNamesPerCountOfMountainHuts", new Query(region::municipalityNamesPerCountOfMountainHuts));
+
+        ExecutorService virtualThreads = virtualThreadExecutor();
+        this.virtual = virtualThreads != null;
+        this.executor = virtual ? virtualThreads : Executors.newFixedThreadPool(POOL_THREADS, task -> {
+            Thread t = new Thread(task, "hut-query-server");
+            t.setDaemon(true);
+            return t;
+        });
+        this.server = HttpServer.create(address, BACKLOG);
+        server.createContext("/", this::handle);
+        server.setExecutor(executor);
+    }
+
+    /**
+     * Starts serving the region on the loopback interface only.
+     *
+     * @param port the port, 0 for any free one
+     */
+    public static HutQueryServer start(Region region, int port) throws IOException {
+        return start(region, new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+    }
+
+    /**
+     * Starts serving the region on the given address, e.g. a wildcard
+     * one to accept requests from other hosts.
+     */
+    public static HutQueryServer start(Region region, InetSocketAddress address) throws IOException {
+        HutQueryServer server = new HutQueryServer(region, address);
+        server.server.start();
+        return server;
+    }
+
+    // Executors.newVirtualThreadPerTaskExecutor, looked up so that the class still runs on JDK 17
+    private static ExecutorService virtualThreadExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null; // not there, or a preview feature not enabled
+        }
+    }
+
+    /**
+     * @return the address the server listens on
+     */
+    public InetSocketAddress getAddress() {
+        return server.getAddress();
+    }
+
+    /**
+     * @return the port the server listens on
+     */
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * @return whether requests run on virtual threads
+     */
+    public boolean isVirtual() {
+        return virtual;
+    }
+
+    /**
+     * @return the paths of the R4 queries served
+     */
+    public List<String> getQueryPaths() {
+        return List.copyOf(queries.keySet());
+    }
+
+    /**
+     * Stops accepting requests and drops the ones in progress.
+     */
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    // ---- requests
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            String method = exchange.getRequestMethod();
+            if (!method.equals("GET") && !method.equals("HEAD")) {
+                exchange.getResponseHeaders().set("Allow", "GET, HEAD");
+                send(exchange, 405, "Method not allowed\n");
+                return;
+            }
+            String path = exchange.getRequestURI().getPath();
+            Query query = queries.get(path);
+            if (query != null) {
+                send(exchange, body(query));
+            } else if (path.equals("/altitudeRange")) {
+                String altitude = parameter(exchange, "altitude");
+                if (altitude == null) {
+                    send(exchange, 400, "Missing altitude\n");
+                    return;
+                }
+                Integer value;
+                try {
+                    value = altitude.isEmpty() ? null : Integer.valueOf(altitude.trim());
+                } catch (NumberFormatException e) {
+                    send(exchange, 400, "Bad altitude: " + altitude + "\n");
+                    return;
+                }
+                send(exchange, 200, region.getAltitudeRange(value) + "\n");
+            } else if (path.equals("/hut")) {
+                String name = parameter(exchange, "name");
+                if (name == null) {
+                    send(exchange, 400, "Missing name\n");
+                    return;
+                }
+                String row = locked(() -> {
+                    MountainHut hut = region.getMountainHut(name);
+                    return hut == null ? null : row(hut);
+                });
+                if (row == null) send(exchange, 404, "No mountain hut " + name + "\n");
+                else send(exchange, 200, row);
+            } else {
+                send(exchange, 404, "Unknown query " + path + "\n");
+            }
+        } catch (RuntimeException e) {
+            // the details stay in the server log
+            System.err.println("Query " + exchange.getRequestURI() + " failed");
+            e.printStackTrace();
+            send(exchange, 500, "Internal error\n");
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private <T> T locked(Supplier<T> query) {
+        if (region.isConcurrent()) return query.get();
+        synchronized (region) {
+            return query.get();
+        }
+    }
+
+    // the body of the current result of the query, run and encoded again only if the data changed
+    private Body body(Query query) {
+        long version = region.dataVersion(); // before the query: a change meanwhile makes the body older, not newer
+        Body body = query.last.get();
+        if (body == null || body.version != version) {
+            body = new Body(version, encode(locked(query.run)).getBytes(StandardCharsets.UTF_8));
+            query.last.set(body);
+        }
+        return body;
+    }
+
+    private static String parameter(HttpExchange exchange, String name) {
+        String query = exchange.getRequestURI().getRawQuery();
+        if (query == null) return null;
+        for (String pair : query.split("&")) {
+            int eq = pair.indexOf('=');
+            String key = eq < 0 ? pair : pair.substring(0, eq);
+            if (URLDecoder.decode(key, StandardCharsets.UTF_8).equals(name)) {
+                return eq < 0 ? "" : URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8);
+            }
+        }
+        return null;
+    }
+
+    private static void send(HttpExchange exchange, int status, String text) throws IOException {
+        send(exchange, status, text.getBytes(StandardCharsets.UTF_8), null);
+    }
+
+    private static void send(HttpExchange exchange, Body body) throws IOException {
+        send(exchange, 200, body.plain, body.gzip);
+    }
+
+    private static void send(HttpExchange exchange, int status, byte[] plain, byte[] gzip) throws IOException {
+        byte[] bytes = plain;
+        if (gzip != null) {
+            // the body depends on the header, also for caches between us and the client
+            exchange.getResponseHeaders().set("Vary", "Accept-Encoding");
+            if (acceptsGzip(exchange.getRequestHeaders().get("Accept-Encoding"))) {
+                exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+                bytes = gzip;
+            }
+        }
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        if (exchange.getRequestMethod().equals("HEAD")) {
+            exchange.sendResponseHeaders(status, -1);
+            return;
+        }
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    /**
+     * @return whether the {@code Accept-Encoding} header values take gzip:
+     *         {@code gzip}, or else {@code *}, listed with a q-value above 0
+     */
+    static boolean acceptsGzip(List<String> headers) {
+        if (headers == null) return false;
+        double gzip = -1;
+        double any = -1;
+        for (String header : headers) {
+            for (String token : header.split(",")) {
+                String[] parts = token.split(";");
+                String coding = parts[0].trim().toLowerCase(Locale.ROOT);
+                double q = 1;
+                for (int i = 1; i < parts.length; i++) {
+                    String parameter = parts[i].trim();
+                    if (parameter.length() > 1 && Character.toLowerCase(parameter.charAt(0)) == 'q'
+                            && parameter.substring(1).trim().startsWith("=")) {
+                        q = qValue(parameter.substring(parameter.indexOf('=') + 1).trim());
+                    }
+                }
+                if (coding.equals("gzip") || coding.equals("x-gzip")) gzip = Math.max(gzip, q);
+                else if (coding.equals("*")) any = Math.max(any, q);
+            }
+        }
+        return (gzip >= 0 ? gzip : any) > 0;
+    }
+
+    // a malformed q-value refuses the coding
+    private static double qValue(String text) {
+        try {
+            double q = Double.parseDouble(text);
+            return q >= 0 && q <= 1 ? q : 0;
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    // ---- encoding
+
+    /**
+     * @return the lines of a query result, sorted by their first field
+     */
+    static String encode(Object result) {
+        StringBuilder text = new StringBuilder();
+        encode(text, "", result);
+        return text.toString();
+    }
+
+    private static void encode(StringBuilder text, String prefix, Object value) {
+        if (value instanceof Map) {
+            Map<Object, Object> sorted = new TreeMap<>(Comparator.nullsFirst(HutQueryServer::compare));
+            sorted.putAll((Map<?, ?>) value);
+            for (Map.Entry<Object, Object> e : sorted.entrySet()) {
+                encode(text, prefix + field(e.getKey()) + ";", e.getValue());
+            }
+            return;
+        }
+        text.append(prefix);
+        if (value instanceof List) {
+            List<?> values = (List<?>) value;
+            for (int i = 0; i < values.size(); i++) {
+                if (i > 0) text.append(';');
+                text.append(field(values.get(i)));
+            }
+        } else {
+            text.append(field(value));
+        }
+        text.append('\n');
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private static int compare(Object a, Object b) {
+        return ((Comparable) a).compareTo(b);
+    }
+
+    private static String field(Object value) {
+        if (value instanceof Optional) value = ((Optional<?>) value).orElse(null);
+        return value == null ? "" : value.toString();
+    }
+
+    /**
+     * @return the hut as a line of the CSV schema
+     */
+    static String row(MountainHut hut) {
+        Municipality m = hut.getMunicipality();
+        return (m == null ? ";;" : field(m.getProvince()) + ";" + m.getName() + ";" + field(m.getAltitude())) + ";"
+                + hut.getName() + ";" + field(hut.getAltitude()) + ";" + field(hut.getCategory()) + ";"
+                + field(hut.getBedsNumber()) + "\n";
+    }
+
+    private static byte[] gzip(byte[] bytes) {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(bytes.length / 4);
+        try (GZIPOutputStream out = new GZIPOutputStream(buffer)) {
+            out.write(bytes);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return buffer.toByteArray();
+    }
+}
@@ -0,0 +1,605 @@
+package mountainhuts;
+
+import java.util.AbstractCollection;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Columnar storage for the mountain huts of a region.
+ *
+ * Every hut is a row across primitive columns: altitude and beds are
+ * plain ints with {@link #NO_VALUE} for missing values, so that value
+ * itself is refused on the way in, and the category
+ * and the municipality are dictionary codes. The municipalities of the
+ * store get a dense code too, with their province and altitude kept in
+ * two more columns so that group-bys never leave int arrays.
+ *
+ * The rows themselves are kept by a {@link HutColumns}: Java arrays,
+ * or fixed-width records outside of the heap for an off-heap store.
+ *
+ * {@link MountainHut} objects are views over a row and are created
+ * only on request; an off-heap store does not keep them, so as not to
+ * hold a heap object for every hut it handed out.
+ *
+ * Every change goes through the store, which keeps the rows of each
+ * municipality and tells its {@link Listener}s about the change.
+ *
+ * Deleting a hut leaves a tombstone: the row keeps its number, but it
+ * is out of the name index and of its municipality, and full scans
+ * skip it through {@link #isDeleted}. Row numbers are therefore never
+ * reused, and {@link #size()} counts deleted rows too.
+ *
+ * A store of a concurrent region carries the {@link StampedLock} of
+ * that region; the lock helpers below do nothing for the others. The
+ * store methods themselves never lock, callers do.
+ */
+final class HutStore {
+
+    /** Sentinel for a missing altitude or beds number. */
+    static final int NO_VALUE = Integer.MIN_VALUE;
+
+    /**
+     * @return the value, an altitude or a beds number
+     * @throws IllegalArgumentException if it is {@link #NO_VALUE}, which
+     *         would read back as missing
+     */
+    static int requireValue(int value) {
+        if (value == NO_VALUE) {
+            throw new IllegalArgumentException(value + " is reserved for a missing value");
+        }
+        return value;
+    }
+
+    /**
+     * Parses an altitude or a beds number as {@link Integer#parseInt(String)}
+     * does, refusing {@link #NO_VALUE} as well.
+     *
+     * @throws NumberFormatException if the text is not an int or is {@link #NO_VALUE}
+     */
+    static int parseValue(String text) {
+        int value = Integer.parseInt(text);
+        if (value == NO_VALUE) {
+            throw new NumberFormatException("For input string: \"" + text + "\" (reserved for a missing value)");
+        }
+        return value;
+    }
+
+    /**
+     * Receives the changes made to a store. The {@code Changing} methods
+     * are called while the row still holds the old values, the
+     * {@code Changed} ones after the new values are in place.
+     */
+    interface Listener {
+        default void hutAdded(int row) {}
+
+        default void hutChanging(int row) {}
+
+        default void hutChanged(int row) {}
+
+        /**
+         * Called before a hut is deleted, while the row still holds its
+         * values; no {@code hutChanged} follows. By default the row is
+         * taken out as for a change.
+         */
+        default void hutRemoved(int row) {
+            hutChanging(row);
+        }
+
+        default void municipalityAdded(int code) {}
+
+        default void municipalityChanging(int code) {}
+
+        default void municipalityChanged(int code) {}
+    }
+
+    private HutColumns columns;
+    // views handed out so far, up to the highest row that has one
+    private MountainHut[] views = new MountainHut[0];
+    private int size;
+    private final BitSet deleted = new BitSet();
+    private int deletedCount;
+
+    private final StringDictionary categoryDictionary = new StringDictionary();
+    private final StringDictionary provinceDictionary = new StringDictionary();
+
+    private Municipality[] municipalityTable = new Municipality[16];
+    private int[] municipalityProvinces = new int[16];
+    private int[] municipalityAltitudes = new int[16];
+    private IntList[] municipalityRows = new IntList[16];
+    private final RowPositions municipalityPositions = new RowPositions();
+    private int municipalityCount;
+    // municipalities owned by another store, or built by the user, adopted by the huts put in them
+    private final Map<Municipality, Integer> foreign = new IdentityHashMap<>();
+
+    private Listener[] listeners = new Listener[0];
+    private final StampedLock lock;
+    private final boolean retainViews;
+
+    HutStore() {
+        this(new HeapHutColumns(16), false, true);
+    }
+
+    HutStore(boolean concurrent) {
+        this(new HeapHutColumns(16), concurrent, true);
+    }
+
+    /**
+     * A store keeping its rows outside of the Java heap, until
+     * {@link #close()}.
+     */
+    static HutStore offHeap() {
+        return new HutStore(new OffHeapHutColumns(), false, false);
+    }
+
+    private HutStore(HutColumns columns, boolean concurrent, boolean retainViews) {
+        this.columns = columns;
+        this.lock = concurrent ? new StampedLock() : null;
+        this.retainViews = retainViews;
+    }
+
+    /**
+     * Releases the rows kept outside of the heap, if any, at once rather
+     * than when the store becomes unreachable; an off-heap store cannot
+     * be used afterwards.
+     */
+    void close() {
+        long stamp = writeLock();
+        try {
+            columns.close();
+        } finally {
+            unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * @return the number of rows, deleted ones included
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return the number of huts, that is rows not deleted
+     */
+    int hutCount() {
+        return size - deletedCount;
+    }
+
+    boolean isDeleted(int row) {
+        return deletedCount != 0 && deleted.get(row);
+    }
+
+    boolean hasDeletions() {
+        return deletedCount != 0;
+    }
+
+    // ---- locking
+
+    boolean isConcurrent() {
+        return lock != null;
+    }
+
+    long writeLock() {
+        return lock == null ? 0 : lock.writeLock();
+    }
+
+    void unlockWrite(long stamp) {
+        if (lock != null) lock.unlockWrite(stamp);
+    }
+
+    long readLock() {
+        return lock == null ? 0 : lock.readLock();
+    }
+
+    void unlockRead(long stamp) {
+        if (lock != null) lock.unlockRead(stamp);
+    }
+
+    /**
+     * Lock-free lookup for a concurrent store: the row of the hut if it
+     * exists and the read was not disturbed by a writer, -1 otherwise.
+     * Callers fall back to a locked lookup on -1.
+     */
+    int findOptimistic(String name) {
+        long stamp = lock.tryOptimisticRead();
+        try {
+            int row = find(name);
+            return lock.validate(stamp) ? row : -1;
+        } catch (RuntimeException e) {
+            return -1; // torn read while a writer was growing the arrays
+        }
+    }
+
+    /**
+     * Lock-free lookup of an already created view, or null.
+     */
+    MountainHut findViewOptimistic(String name) {
+        long stamp = lock.tryOptimisticRead();
+        try {
+            int row = find(name);
+            MountainHut[] handedOut = views;
+            MountainHut view = row < 0 || row >= handedOut.length ? null : handedOut[row];
+            return lock.validate(stamp) ? view : null;
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    // ---- huts
+
+    /**
+     * @return the row of the hut with the given name, or -1
+     */
+    int find(String name) {
+        return columns.find(name);
+    }
+
+    /**
+     * Appends a hut; the caller is responsible for checking that the name is new.
+     *
+     * @return the row of the new hut
+     */
+    int add(String name, int altitude, String category, int bedsNumber, Municipality municipality) {
+        int row = size;
+        columns.append(row, name, altitude, bedsNumber, categoryDictionary.code(category), municipalityCode(municipality));
+        size++;
+        linkRow(row);
+        for (Listener l : listeners) l.hutAdded(row);
+        return row;
+    }
+
+    /**
+     * Deletes a hut, leaving a tombstone in its row.
+     */
+    void delete(int row) {
+        checkLive(row);
+        for (Listener l : listeners) l.hutRemoved(row);
+        unlinkRow(row);
+        columns.unindex(row);
+        deleted.set(row);
+        deletedCount++;
+    }
+
+    private void checkLive(int row) {
+        if (isDeleted(row)) throw new IllegalStateException("Mountain hut " + columns.name(row) + " was deleted");
+    }
+
+    void addListener(Listener listener) {
+        listeners = Arrays.copyOf(listeners, listeners.length + 1);
+        listeners[listeners.length - 1] = listener;
+    }
+
+    void removeListener(Listener listener) {
+        for (int i = 0; i < listeners.length; i++) {
+            if (listeners[i] == listener) {
+                Listener[] rest = new Listener[listeners.length - 1];
+                System.arraycopy(listeners, 0, rest, 0, i);
+                System.arraycopy(listeners, i + 1, rest, i, rest.length - i);
+                listeners = rest;
+                return;
+            }
+        }
+    }
+
+    private void fireHutChanging(int row) {
+        for (Listener l : listeners) l.hutChanging(row);
+    }
+
+    private void fireHutChanged(int row) {
+        for (Listener l : listeners) l.hutChanged(row);
+    }
+
+    private void linkRow(int row) {
+        int code = columns.municipality(row);
+        if (code != StringDictionary.NO_CODE) municipalityPositions.add(municipalityRows[code], row);
+    }
+
+    private void unlinkRow(int row) {
+        int code = columns.municipality(row);
+        if (code != StringDictionary.NO_CODE) municipalityPositions.remove(municipalityRows[code], row);
+    }
+
+    String name(int row) {
+        return columns.name(row);
+    }
+
+    int altitude(int row) {
+        return columns.altitude(row);
+    }
+
+    int beds(int row) {
+        return columns.beds(row);
+    }
+
+    void setBeds(int row, int bedsNumber) {
+        checkLive(row);
+        fireHutChanging(row);
+        columns.setBeds(row, bedsNumber);
+        fireHutChanged(row);
+    }
+
+    int categoryCode(int row) {
+        return columns.category(row);
+    }
+
+    String category(int row) {
+        return categoryDictionary.value(columns.category(row));
+    }
+
+    void setCategory(int row, String category) {
+        checkLive(row);
+        fireHutChanging(row);
+        columns.setCategory(row, categoryDictionary.code(category));
+        fireHutChanged(row);
+    }
+
+    int municipalityCode(int row) {
+        return columns.municipality(row);
+    }
+
+    Municipality municipality(int row) {
+        int code = columns.municipality(row);
+        return code == StringDictionary.NO_CODE ? null : municipalityTable[code];
+    }
+
+    void setMunicipality(int row, Municipality municipality) {
+        checkLive(row);
+        int code = municipalityCode(municipality);
+        fireHutChanging(row);
+        unlinkRow(row);
+        columns.setMunicipality(row, code);
+        linkRow(row);
+        fireHutChanged(row);
+    }
+
+    /**
+     * Replaces all the values of a hut but its name, telling the
+     * listeners once.
+     */
+    void update(int row, int altitude, String category, int bedsNumber, Municipality municipality) {
+        checkLive(row);
+        int code = municipalityCode(municipality);
+        boolean moved = code != columns.municipality(row);
+        fireHutChanging(row);
+        if (moved) unlinkRow(row);
+        columns.setAltitude(row, altitude);
+        columns.setBeds(row, bedsNumber);
+        columns.setCategory(row, categoryDictionary.code(category));
+        columns.setMunicipality(row, code);
+        if (moved) linkRow(row);
+        fireHutChanged(row);
+    }
+
+    /**
+     * Effective altitude of a hut: its own, or else the one of its municipality.
+     */
+    int effectiveAltitude(int row) {
+        int altitude = columns.altitude(row);
+        if (altitude != NO_VALUE) return altitude;
+        int code = columns.municipality(row);
+        return code == StringDictionary.NO_CODE ? NO_VALUE : municipalityAltitudes[code];
+    }
+
+    /**
+     * @return the view of the row, the same object on every call unless
+     *         the store does not retain views; views of a row are equal
+     */
+    MountainHut view(int row) {
+        if (!retainViews) return new MountainHut(this, row);
+        if (row >= views.length) {
+            views = Arrays.copyOf(views, Math.max(row + 1, views.length + (views.length >> 1) + 1));
+        }
+        MountainHut view = views[row];
+        if (view == null) {
+            view = new MountainHut(this, row);
+            views[row] = view;
+        }
+        return view;
+    }
+
+    /**
+     * @return the view of the row if one was handed out already, or else a
+     *         new view that is not retained; safe under a read lock
+     */
+    MountainHut transientView(int row) {
+        MountainHut[] handedOut = views;
+        MountainHut view = row < handedOut.length ? handedOut[row] : null;
+        return view != null ? view : new MountainHut(this, row);
+    }
+
+    /**
+     * Read-only collection of views over all rows but the deleted ones.
+     * Views not already handed out are created while iterating and not
+     * retained.
+     */
+    Collection<MountainHut> views() {
+        return new AbstractCollection<MountainHut>() {
+            @Override
+            public Iterator<MountainHut> iterator() {
+                return new Iterator<MountainHut>() {
+                    private int row = live(0);
+
+                    @Override
+                    public boolean hasNext() {
+                        return row < size;
+                    }
+
+                    @Override
+                    public MountainHut next() {
+                        if (row >= size) throw new NoSuchElementException();
+                        MountainHut view = transientView(row);
+                        row = live(row + 1);
+                        return view;
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return hutCount();
+            }
+        };
+    }
+
+    // the first row from the given one on that is not deleted, or size
+    private int live(int row) {
+        return deletedCount == 0 ? row : Math.min(deleted.nextClearBit(row), size);
+    }
+
+    /**
+     * Fills an empty store with whole columns, e.g. read from a snapshot.
+     * The municipalities must already be registered. The rows of
+     * municipality {@code c} are {@code links[offsets[c]]} up to
+     * {@code links[offsets[c + 1]]}, excluded.
+     * The column arrays are taken over, not copied, and must not be empty.
+     * Listeners are not told about the rows.
+     */
+    void restore(String[] names, int[] altitudes, int[] beds, int[] categories, int[] municipalities,
+                 int size, int[] offsets, int[] links) {
+        restore(new HeapHutColumns(names, altitudes, beds, categories, municipalities, size), size, offsets, links);
+    }
+
+    /**
+     * Same as above, with columns already filled and indexed, e.g. by a
+     * merge of parallel loads.
+     */
+    void restore(HeapHutColumns columns, int size, int[] offsets, int[] links) {
+        if (this.size != 0) throw new IllegalStateException("Store is not empty");
+        this.columns = columns;
+        this.size = size;
+        for (int code = 0; code < municipalityCount; code++) {
+            municipalityRows[code] = new IntList(links, offsets[code], offsets[code + 1]);
+            for (int i = offsets[code]; i < offsets[code + 1]; i++) municipalityPositions.set(links[i], i - offsets[code]);
+        }
+    }
+
+    // ---- municipalities
+
+    /**
+     * Registers a municipality in this store, giving it a dense code;
+     * the store becomes its owner unless another store already is.
+     */
+    Municipality addMunicipality(Municipality municipality) {
+        return addMunicipality(municipality, municipality.store == null);
+    }
+
+    /**
+     * Registers a municipality without taking ownership of it, as for
+     * one adopted from another store or built outside of any region.
+     */
+    Municipality addForeignMunicipality(Municipality municipality) {
+        return addMunicipality(municipality, false);
+    }
+
+    private Municipality addMunicipality(Municipality municipality, boolean own) {
+        if (municipalityCount == municipalityTable.length) {
+            int capacity = municipalityCount * 2;
+            municipalityTable = Arrays.copyOf(municipalityTable, capacity);
+            municipalityProvinces = Arrays.copyOf(municipalityProvinces, capacity);
+            municipalityAltitudes = Arrays.copyOf(municipalityAltitudes, capacity);
+            municipalityRows = Arrays.copyOf(municipalityRows, capacity);
+        }
+        int code = municipalityCount++;
+        municipalityTable[code] = municipality;
+        municipalityRows[code] = new IntList();
+        if (own) {
+            municipality.store = this;
+            municipality.id = code;
+        } else {
+            foreign.put(municipality, code);
+            municipality.adoptedBy(this);
+        }
+        refreshMunicipality(code);
+        for (Listener l : listeners) l.municipalityAdded(code);
+        return municipality;
+    }
+
+    /**
+     * Called by the setters of a municipality of the store, owned or
+     * adopted, before the columns take the change.
+     */
+    void municipalityChanging(Municipality municipality) {
+        int code = codeOf(municipality);
+        for (Listener l : listeners) l.municipalityChanging(code);
+    }
+
+    /**
+     * Copies province and altitude of a municipality of the store into
+     * the columns after one of its setters was called.
+     */
+    void municipalityChanged(Municipality municipality) {
+        int code = codeOf(municipality);
+        refreshMunicipality(code);
+        for (Listener l : listeners) l.municipalityChanged(code);
+    }
+
+    private int codeOf(Municipality municipality) {
+        return municipality.store == this ? municipality.id : foreign.get(municipality);
+    }
+
+    private void refreshMunicipality(int code) {
+        Municipality m = municipalityTable[code];
+        municipalityProvinces[code] = provinceDictionary.code(m.getProvince());
+        municipalityAltitudes[code] = m.getAltitude() == null ? NO_VALUE : m.getAltitude();
+    }
+
+    private int municipalityCode(Municipality municipality) {
+        if (municipality == null) {
+            return StringDictionary.NO_CODE;
+        }
+        if (municipality.store == this) {
+            return municipality.id;
+        }
+        Integer code = foreign.get(municipality);
+        if (code == null) {
+            addForeignMunicipality(municipality);
+            code = municipalityCount - 1;
+        }
+        return code;
+    }
+
+    int municipalityCount() {
+        return municipalityCount;
+    }
+
+    Municipality municipalityAt(int code) {
+        return municipalityTable[code];
+    }
+
+    /**
+     * @return whether the municipality with the code belongs to this store
+     *         rather than being adopted from another one
+     */
+    boolean ownsMunicipality(int code) {
+        return municipalityTable[code].store == this;
+    }
+
+    /**
+     * @return the rows of the huts located in the municipality; not to be modified
+     */
+    IntList rowsOf(int code) {
+        return municipalityRows[code];
+    }
+
+    int municipalityProvince(int code) {
+        return municipalityProvinces[code];
+    }
+
+    int municipalityAltitude(int code) {
+        return municipalityAltitudes[code];
+    }
+
+    StringDictionary provinces() {
+        return provinceDictionary;
+    }
+
+    StringDictionary categories() {
+        return categoryDictionary;
+    }
+}
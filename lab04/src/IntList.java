@@ -0,0 +1,74 @@
+package mountainhuts;
+
+import java.util.Arrays;
+
+/**
+ * Growable list of primitive ints.
+ */
+final class IntList {
+
+    private int[] values;
+    private int size;
+
+    IntList() {
+        this(4);
+    }
+
+    IntList(int capacity) {
+        values = new int[Math.max(capacity, 1)];
+    }
+
+    /**
+     * A list holding a copy of {@code values[from..to)}.
+     */
+    IntList(int[] values, int from, int to) {
+        this.values = Arrays.copyOfRange(values, from, Math.max(to, from + 1));
+        this.size = to - from;
+    }
+
+    void add(int value) {
+        if (size == values.length) {
+            values = Arrays.copyOf(values, size + (size >> 1) + 1);
+        }
+        values[size++] = value;
+    }
+
+    /**
+     * Removes one occurrence of the value, not keeping the order of the others.
+     *
+     * @return true if the value was found
+     */
+    boolean removeValue(int value) {
+        for (int i = 0; i < size; i++) {
+            if (values[i] == value) {
+                values[i] = values[--size];
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Removes the value at the index, moving the last value into its place.
+     *
+     * @return the value moved to the index, or -1 if the last one was removed
+     */
+    int removeAt(int index) {
+        int last = values[--size];
+        if (index == size) return -1;
+        values[index] = last;
+        return last;
+    }
+
+    int get(int index) {
+        return values[index];
+    }
+
+    int size() {
+        return size;
+    }
+
+    int[] toArray() {
+        return Arrays.copyOf(values, size);
+    }
+}
@@ -0,0 +1,146 @@
+package mountainhuts;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * A region opened over a mountain huts CSV file without loading it,
+ * see {@link Region#openLazy(String, String)}.
+ *
+ * Opening the file makes one pass over it that checks the rows, creates
+ * the municipalities and indexes the line of every hut by name; no
+ * {@link MountainHut} is built. A hut is parsed the first time it is
+ * looked up and is then kept, and all the remaining huts are loaded
+ * only when an aggregate query, or {@link #getRegion()}, needs them.
+ * Huts looked up before that come first in the region, the others
+ * follow in file order.
+ *
+ * The file must not change while the region is open. All the methods
+ * are synchronized.
+ */
+public final class LazyRegion {
+
+    private final Region region;
+    private HutFileIndex index;
+    // entries of the index already added to the region
+    private final BitSet loaded = new BitSet();
+
+    private LazyRegion(Region region, HutFileIndex index) {
+        this.region = region;
+        this.index = index;
+    }
+
+    static LazyRegion open(String name, Path file, RejectPolicy rejects) throws IOException {
+        Region region = new Region(name);
+        region.setRejectPolicy(rejects);
+        RejectLog log = new RejectLog(rejects, file.toString(), file);
+        HutFileIndex index = HutFileIndex.build(region, file, log);
+        log.finish();
+        return new LazyRegion(region, index);
+    }
+
+    public String getName() {
+        return region.getName();
+    }
+
+    public synchronized Collection<Municipality> getMunicipalities() {
+        return region.getMunicipalities();
+    }
+
+    /**
+     * @return the hut with the given name, parsed on the first lookup,
+     *         or null if there is none
+     */
+    public synchronized MountainHut getMountainHut(String name) {
+        if (index != null) {
+            int entry = index.find(name);
+            if (entry >= 0 && !loaded.get(entry)) {
+                index.load(entry, region);
+                loaded.set(entry);
+            }
+        }
+        return region.getMountainHut(name);
+    }
+
+    /**
+     * @return the number of huts in the file, loaded or not
+     */
+    public synchronized int size() {
+        return index != null ? index.size() : region.getMountainHuts().size();
+    }
+
+    /**
+     * @return whether all the huts are loaded
+     */
+    public synchronized boolean isLoaded() {
+        return index == null;
+    }
+
+    /**
+     * Loads the huts not looked up so far, on the first call, and
+     * releases the index.
+     *
+     * @return the region with all the huts of the file
+     */
+    public synchronized Region getRegion() {
+        if (index != null) {
+            LoadPhaseEvent insert = new LoadPhaseEvent();
+            insert.begin();
+            long start = System.nanoTime();
+            int rows = 0;
+            for (int entry = loaded.nextClearBit(0); entry < index.size(); entry = loaded.nextClearBit(entry + 1)) {
+                index.load(entry, region);
+                rows++;
+            }
+            insert.finish(region, LoadPhaseEvent.INSERT, start, rows);
+            index = null;
+            loaded.clear();
+        }
+        return region;
+    }
+
+    public synchronized RegionMetrics metrics() {
+        return region.metrics();
+    }
+
+    // ---- queries answered without loading the huts
+
+    public synchronized void setAltitudeRanges(String... ranges) {
+        region.setAltitudeRanges(ranges);
+    }
+
+    public synchronized String getAltitudeRange(Integer altitude) {
+        return region.getAltitudeRange(altitude);
+    }
+
+    public synchronized Map<String, Long> countMunicipalitiesPerProvince() {
+        return region.countMunicipalitiesPerProvince();
+    }
+
+    // ---- queries loading all the huts
+
+    public synchronized Map<String, Map<String, Long>> countMountainHutsPerMunicipalityPerProvince() {
+        return getRegion().countMountainHutsPerMunicipalityPerProvince();
+    }
+
+    public synchronized Map<String, Long> countMountainHutsPerAltitudeRange() {
+        return getRegion().countMountainHutsPerAltitudeRange();
+    }
+
+    public synchronized Map<String, Integer> totalBedsNumberPerProvince() {
+        return getRegion().totalBedsNumberPerProvince();
+    }
+
+    public synchronized Map<String, Optional<Integer>> maximumBedsNumberPerAltitudeRange() {
+        return getRegion().maximumBedsNumberPerAltitudeRange();
+    }
+
+    public synchronized Map<Long, List<String>> municipalityNamesPerCountOfMountainHuts() {
+        return getRegion().municipalityNamesPerCountOfMountainHuts();
+    }
+}
@@ -0,0 +1,60 @@
+package mountainhuts;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight recorder event for one step of loading huts into a region:
+ * reading a buffer of text, parsing a batch of rows or inserting it.
+ *
+ * The same durations are added up in the {@link RegionMetrics} of the
+ * region, whether a recording is running or not.
+ */
+@Name("mountainhuts.LoadPhase")
+@Label("Mountain Huts Load Phase")
+@Category("Mountain Huts")
+@Description("Reading, parsing or inserting a batch of mountain hut rows")
+@StackTrace(false)
+final class LoadPhaseEvent extends Event {
+
+    static final String READ = "read";
+    static final String PARSE = "parse";
+    static final String INSERT = "insert";
+
+    @Label("Region")
+    String region;
+
+    @Label("Phase")
+    String phase;
+
+    @Label("Rows")
+    @Description("Rows parsed or inserted; 0 for reads")
+    int rows;
+
+    /**
+     * Ends the phase started at {@code startNanos}, records its duration
+     * in the metrics of the region and commits the event if enabled.
+     */
+    void finish(Region target, String phase, long startNanos, int rows) {
+        finish(target.getName(), target.metrics(), phase, startNanos, rows);
+    }
+
+    /**
+     * Same as {@link #finish(Region, String, long, int)} for a step run
+     * before the region exists, with the metrics it will be given.
+     */
+    void finish(String regionName, RegionMetrics metrics, String phase, long startNanos, int rows) {
+        end();
+        metrics.addLoadPhase(phase, System.nanoTime() - startNanos);
+        if (shouldCommit()) {
+            this.region = regionName;
+            this.phase = phase;
+            this.rows = rows;
+            commit();
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package mountainhuts;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Loader that memory-maps a mountain huts CSV file and reads
+ * the fields directly from the mapped bytes.
+ *
+ * Altitudes and beds are parsed in place; only the names that are
+ * actually kept by the region become Strings. Repeated province,
+ * municipality and category names are resolved through a
+ * {@link StringPool} keyed on the raw bytes, so no String is created
+ * for them after their first occurrence. Rows are inserted by
+ * {@link RowBatch} batches, timed as parse and insert phases.
+ */
+final class MappedHutLoader {
+
+    /** Maximum size of a single mapping; larger files are mapped window by window. */
+    static final int WINDOW = 1 << 30;
+
+    private final Region region;
+    private final RejectLog rejects;
+    private final StringPool pool = new StringPool();
+
+    private final MappedRow row = new MappedRow();
+
+    /**
+     * @param rejects the log of the load, taking byte offsets from the
+     *                start of the file as positions
+     */
+    MappedHutLoader(Region region, RejectLog rejects) {
+        this.region = region;
+        this.rejects = rejects;
+    }
+
+    /**
+     * A loader that only parses lines into the {@link RowSink} given to
+     * {@link #parseLines(RowSink, ByteBuffer, int, int, boolean, long)}.
+     */
+    MappedHutLoader() {
+        this(null, null);
+    }
+
+    /**
+     * Maps the whole file and loads all rows but the header into the region.
+     */
+    void load(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            long position = 0;
+            boolean header = true;
+            while (position < size) {
+                int length = (int) Math.min(WINDOW, size - position);
+                LoadPhaseEvent read = new LoadPhaseEvent();
+                read.begin();
+                long readStart = System.nanoTime();
+                MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+                read.finish(region, LoadPhaseEvent.READ, readStart, 0);
+                int limit = length;
+                if (position + length < size) {
+                    limit = lastLineEnd(buf, length);
+                    if (limit < 0) {
+                        throw new IOException("Line longer than " + WINDOW + " bytes at offset " + position);
+                    }
+                }
+                parseLines(buf, 0, limit, header, position);
+                header = false;
+                position += limit;
+            }
+        }
+    }
+
+    /**
+     * Returns the position just after the last line terminator in the
+     * first {@code length} bytes of the buffer, or -1 if there is none.
+     */
+    static int lastLineEnd(ByteBuffer buf, int length) {
+        for (int i = length - 1; i >= 0; i--) {
+            byte b = buf.get(i);
+            if (b == '\n' || b == '\r') {
+                return i + 1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Parses the lines between {@code from} (inclusive) and {@code to} (exclusive).
+     * Both bounds are expected to lie on line boundaries.
+     *
+     * @param base offset in the file of the first byte of the buffer
+     */
+    void parseLines(ByteBuffer buf, int from, int to, boolean skipFirstLine, long base) {
+        parseLines(new RowBatch(region, rejects), buf, from, to, skipFirstLine, base);
+    }
+
+    /**
+     * Parses the lines between {@code from} (inclusive) and {@code to}
+     * (exclusive) into the given rows.
+     */
+    void parseLines(RowSink batch, ByteBuffer buf, int from, int to, boolean skipFirstLine, long base) {
+        int lineStart = from;
+        boolean skip = skipFirstLine;
+        for (int i = from; i < to; i++) {
+            byte b = buf.get(i);
+            if (b == '\n' || b == '\r') {
+                if (skip) {
+                    skip = false;
+                } else {
+                    parseLine(batch, buf, lineStart, i, base);
+                    if (batch.isFull()) batch.flush();
+                }
+                lineStart = i + 1;
+            }
+        }
+        if (lineStart < to && !skip) {
+            parseLine(batch, buf, lineStart, to, base);
+        }
+        batch.flush();
+    }
+
+    private void parseLine(RowSink batch, ByteBuffer buf, int start, int end, long base) {
+        if (!row.split(buf, start, end)) { // ignore incomplete lines
+            if (end > start) batch.reject(base + start, RejectReason.INCOMPLETE_ROW, null, row.decode(buf, start, end));
+            return;
+        }
+
+        Integer municipalityAltitude;
+        int altitude;
+        int bedsNumber;
+        try {
+            municipalityAltitude = row.isEmpty(MappedRow.MUNICIPALITY_ALTITUDE) ? null
+                    : row.parseField(buf, MappedRow.MUNICIPALITY_ALTITUDE);
+            altitude = row.parseField(buf, MappedRow.ALTITUDE, HutStore.NO_VALUE);
+            bedsNumber = row.parseField(buf, MappedRow.BEDS);
+        } catch (NumberFormatException e) {
+            batch.reject(base + start, RejectReason.BAD_NUMBER, e.getMessage(), row.decode(buf, start, end));
+            return;
+        }
+
+        batch.add(pooled(buf, MappedRow.PROVINCE), pooled(buf, MappedRow.MUNICIPALITY), municipalityAltitude,
+                row.decode(buf, MappedRow.NAME), altitude, pooled(buf, MappedRow.CATEGORY), bedsNumber);
+    }
+
+    private String pooled(ByteBuffer buf, int field) {
+        return pool.get(buf, row.starts[field], row.ends[field]);
+    }
+}
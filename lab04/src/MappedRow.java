@@ -0,0 +1,132 @@
+package mountainhuts;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The fields of one line of a mountain huts CSV file, as byte ranges of
+ * the buffer holding the line.
+ *
+ * Lines are split the way {@code String.split(";")} does and every
+ * field is trimmed; numbers are parsed in place with the rules and the
+ * messages of {@link HutStore#parseValue(String)}. One instance is reused
+ * for every line of a loader. Not thread-safe.
+ */
+final class MappedRow {
+
+    static final int FIELDS = 7;
+
+    static final int PROVINCE = 0;
+    static final int MUNICIPALITY = 1;
+    static final int MUNICIPALITY_ALTITUDE = 2;
+    static final int NAME = 3;
+    static final int ALTITUDE = 4;
+    static final int CATEGORY = 5;
+    static final int BEDS = 6;
+
+    final int[] starts = new int[FIELDS];
+    final int[] ends = new int[FIELDS];
+    private byte[] scratch = new byte[256];
+
+    /**
+     * Splits the line between {@code start} (inclusive) and {@code end}
+     * (exclusive) into trimmed fields.
+     *
+     * @return false for an incomplete line, whose fields are undefined
+     */
+    boolean split(ByteBuffer buf, int start, int end) {
+        // Trailing empty fields do not count, extra fields are ignored.
+        int count = 0;
+        boolean tailContent = false;
+        int fieldStart = start;
+        for (int i = start; i <= end; i++) {
+            if (i == end || buf.get(i) == ';') {
+                if (count < FIELDS) {
+                    starts[count] = fieldStart;
+                    ends[count] = i;
+                }
+                if (count >= FIELDS - 1 && i > fieldStart) {
+                    tailContent = true;
+                }
+                count++;
+                fieldStart = i + 1;
+            }
+        }
+        if (count < FIELDS || !tailContent) {
+            return false;
+        }
+        for (int f = 0; f < FIELDS; f++) {
+            trim(buf, f);
+        }
+        return true;
+    }
+
+    private void trim(ByteBuffer buf, int f) {
+        int s = starts[f];
+        int e = ends[f];
+        while (s < e && (buf.get(s) & 0xff) <= ' ') s++;
+        while (e > s && (buf.get(e - 1) & 0xff) <= ' ') e--;
+        starts[f] = s;
+        ends[f] = e;
+    }
+
+    boolean isEmpty(int field) {
+        return starts[field] == ends[field];
+    }
+
+    /**
+     * @throws NumberFormatException as {@link HutStore#parseValue(String)} does
+     */
+    int parseField(ByteBuffer buf, int field) {
+        return parseInt(buf, starts[field], ends[field]);
+    }
+
+    /**
+     * @return the field as an int, or {@code missing} for an empty field
+     */
+    int parseField(ByteBuffer buf, int field, int missing) {
+        return isEmpty(field) ? missing : parseField(buf, field);
+    }
+
+    /**
+     * Parses a decimal int with the same rules as {@link HutStore#parseValue(String)}.
+     * Anything unusual falls back to {@code HutStore.parseValue} so that the
+     * rejected rows have exactly the same message as with the reader based loader.
+     */
+    private int parseInt(ByteBuffer buf, int from, int to) {
+        int i = from;
+        boolean negative = false;
+        if (i < to) {
+            byte first = buf.get(i);
+            if (first == '-' || first == '+') {
+                negative = first == '-';
+                i++;
+            }
+        }
+        if (i == to || to - i > 9) {
+            return HutStore.parseValue(decode(buf, from, to));
+        }
+        int value = 0;
+        for (; i < to; i++) {
+            int d = buf.get(i) - '0';
+            if (d < 0 || d > 9) {
+                return HutStore.parseValue(decode(buf, from, to));
+            }
+            value = value * 10 + d;
+        }
+        return negative ? -value : value;
+    }
+
+    String decode(ByteBuffer buf, int field) {
+        return decode(buf, starts[field], ends[field]);
+    }
+
+    String decode(ByteBuffer buf, int from, int to) {
+        int length = to - from;
+        if (scratch.length < length) {
+            scratch = new byte[Math.max(length, scratch.length * 2)];
+        }
+        buf.get(from, scratch, 0, length);
+        return new String(scratch, 0, length, StandardCharsets.UTF_8);
+    }
+}
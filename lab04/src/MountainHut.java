@@ -4,22 +4,45 @@ import java.util.Optional;
 
 /**
  * Represents a mountain hut
- * 
+ *
  * It includes a name, optional altitude, category,
  * number of beds and location municipality.
+ *
+ * A hut is a lightweight view over one row of the columnar
+ * store of its region; all getters and setters go to the columns,
+ * under the region lock when the region is concurrent. A hut built
+ * with a public constructor belongs to no region and keeps its values
+ * in a {@link Fields} of its own.
  */
 public class MountainHut {
 
-    private final String name;
-    private final Optional<Integer> altitude;
-    private String category;
-    private Integer bedsNumber;
-    private Municipality municipality;
+    private final HutStore store;
+    private final int row;
+    private final Fields fields; // only for a hut outside of any region
+
+    /**
+     * The values of a hut outside of any region.
+     */
+    private static final class Fields {
+        final String name;
+        int altitude;
+        String category;
+        int beds;
+        Municipality municipality;
+
+        Fields(String name, int altitude, String category, int beds, Municipality municipality) {
+            this.name = name;
+            this.altitude = altitude;
+            this.category = category;
+            this.beds = beds;
+            this.municipality = municipality;
+        }
+    }
 
     /**
      * Constructor with altitude as Optional<Integer>.
      * Null value for altitude will be converted to Optional.empty().
-     * 
+     *
      * @param name         the name of the hut
      * @param altitude     optional altitude of the hut
      * @param category     category of the hut
@@ -28,17 +51,17 @@ public class MountainHut {
      */
     public MountainHut(String name, Optional<Integer> altitude, String category,
                        Integer bedsNumber, Municipality municipality) {
-        this.name = name;
-        this.altitude = altitude != null ? altitude : Optional.empty();
-        this.category = category;
-        this.bedsNumber = bedsNumber;
-        this.municipality = municipality;
+        this.store = null;
+        this.row = -1;
+        this.fields = new Fields(name,
+                altitude != null && altitude.isPresent() ? HutStore.requireValue(altitude.get()) : HutStore.NO_VALUE,
+                category, bedsNumber != null ? HutStore.requireValue(bedsNumber) : HutStore.NO_VALUE, municipality);
     }
 
     /**
      * Alternative constructor with altitude as Integer (nullable).
      * Converts altitude to Optional internally.
-     * 
+     *
      * @param name         the name of the hut
      * @param altitude     altitude of the hut or null if unknown
      * @param category     category of the hut
@@ -50,35 +73,130 @@ public class MountainHut {
         this(name, Optional.ofNullable(altitude), category, bedsNumber, municipality);
     }
 
+    /**
+     * View over a row of a store.
+     */
+    MountainHut(HutStore store, int row) {
+        this.store = store;
+        this.row = row;
+        this.fields = null;
+    }
+
     public String getName() {
-        return name;
+        if (fields != null) return fields.name;
+        long stamp = store.readLock();
+        try {
+            return store.name(row);
+        } finally {
+            store.unlockRead(stamp);
+        }
     }
 
     public Optional<Integer> getAltitude() {
-        return altitude;
+        int altitude;
+        if (fields != null) {
+            altitude = fields.altitude;
+        } else {
+            long stamp = store.readLock();
+            try {
+                altitude = store.altitude(row);
+            } finally {
+                store.unlockRead(stamp);
+            }
+        }
+        return altitude == HutStore.NO_VALUE ? Optional.empty() : Optional.of(altitude);
     }
 
     public String getCategory() {
-        return category;
+        if (fields != null) return fields.category;
+        long stamp = store.readLock();
+        try {
+            return store.category(row);
+        } finally {
+            store.unlockRead(stamp);
+        }
     }
 
     public void setCategory(String category) {
-        this.category = category;
+        if (fields != null) {
+            fields.category = category;
+            return;
+        }
+        long stamp = store.writeLock();
+        try {
+            store.setCategory(row, category);
+        } finally {
+            store.unlockWrite(stamp);
+        }
     }
 
     public Integer getBedsNumber() {
-        return bedsNumber;
+        int beds;
+        if (fields != null) {
+            beds = fields.beds;
+        } else {
+            long stamp = store.readLock();
+            try {
+                beds = store.beds(row);
+            } finally {
+                store.unlockRead(stamp);
+            }
+        }
+        return beds == HutStore.NO_VALUE ? null : beds;
     }
 
     public void setBedsNumber(Integer bedsNumber) {
-        this.bedsNumber = bedsNumber;
+        int beds = bedsNumber != null ? HutStore.requireValue(bedsNumber) : HutStore.NO_VALUE;
+        if (fields != null) {
+            fields.beds = beds;
+            return;
+        }
+        long stamp = store.writeLock();
+        try {
+            store.setBeds(row, beds);
+        } finally {
+            store.unlockWrite(stamp);
+        }
     }
 
     public Municipality getMunicipality() {
-        return municipality;
+        if (fields != null) return fields.municipality;
+        long stamp = store.readLock();
+        try {
+            return store.municipality(row);
+        } finally {
+            store.unlockRead(stamp);
+        }
     }
 
     public void setMunicipality(Municipality municipality) {
-        this.municipality = municipality;
+        if (fields != null) {
+            fields.municipality = municipality;
+            return;
+        }
+        long stamp = store.writeLock();
+        try {
+            store.setMunicipality(row, municipality);
+        } finally {
+            store.unlockWrite(stamp);
+        }
+    }
+
+    int row() {
+        return row;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof MountainHut) || fields != null) return false;
+        MountainHut other = (MountainHut) o;
+        return store == other.store && row == other.row;
+    }
+
+    @Override
+    public int hashCode() {
+        if (fields != null) return System.identityHashCode(this);
+        return System.identityHashCode(store) * 31 + row;
     }
 }
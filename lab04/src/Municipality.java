@@ -1,5 +1,7 @@
 package mountainhuts;
 
+import java.util.Arrays;
+
 /**
  * Class representing a municipality that hosts a mountain hut.
  * It is a data class with getters and setters for name, province, and altitude.
@@ -7,13 +9,19 @@ package mountainhuts;
 public class Municipality {
 
     private final String name;
-    private String province;
-    private Integer altitude;
+    private volatile String province;
+    private volatile Integer altitude;
+
+    // store of the region that owns the municipality and its code there
+    HutStore store;
+    int id = -1;
+    // other stores with huts in the municipality, told about its changes as well
+    private volatile HutStore[] adopters = new HutStore[0];
 
     public Municipality(String name, String province, Integer altitude) {
         this.name = name;
         this.province = province;
-        this.altitude = altitude;
+        this.altitude = altitude != null ? HutStore.requireValue(altitude) : null;
     }
 
     public String getName() {
@@ -25,7 +33,7 @@ public class Municipality {
     }
 
     public void setProvince(String province) {
-        this.province = province;
+        change(() -> this.province = province);
     }
 
     public Integer getAltitude() {
@@ -33,6 +41,42 @@ public class Municipality {
     }
 
     public void setAltitude(Integer altitude) {
-        this.altitude = altitude;
+        Integer value = altitude != null ? HutStore.requireValue(altitude) : null;
+        change(() -> this.altitude = value);
+    }
+
+    /**
+     * Sets a value while the owner store holds the old one, then lets
+     * every adopting store refresh its copy, each under its own lock.
+     */
+    private void change(Runnable setter) {
+        HutStore owner = store;
+        if (owner == null) {
+            setter.run();
+        } else {
+            long stamp = owner.writeLock();
+            try {
+                owner.municipalityChanging(this);
+                setter.run();
+                owner.municipalityChanged(this);
+            } finally {
+                owner.unlockWrite(stamp);
+            }
+        }
+        for (HutStore adopter : adopters) {
+            long stamp = adopter.writeLock();
+            try {
+                adopter.municipalityChanging(this);
+                adopter.municipalityChanged(this);
+            } finally {
+                adopter.unlockWrite(stamp);
+            }
+        }
+    }
+
+    synchronized void adoptedBy(HutStore adopter) {
+        HutStore[] all = Arrays.copyOf(adopters, adopters.length + 1);
+        all[all.length - 1] = adopter;
+        adopters = all;
     }
 }
@@ -0,0 +1,334 @@
+package mountainhuts;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Hut rows kept outside of the Java heap, in direct byte buffers.
+ *
+ * Every row is a fixed-width record of {@value #RECORD} bytes holding
+ * altitude, beds, category code, municipality code, the hash of the
+ * name and the place of the name in the name heap. The name heap holds
+ * the UTF-8 bytes of the names one after the other, and the index from
+ * name to row is an open addressing table of ints. All three are split
+ * in pages, so that they grow without copying and without the 2 GB
+ * limit of a single buffer.
+ *
+ * Pages count against the direct memory limit of the JVM,
+ * {@code -XX:MaxDirectMemorySize}, which defaults to the maximum heap
+ * size; a page over the limit fails with an {@link OutOfMemoryError}
+ * saying so. {@link #close()} releases all pages at once, the pages of
+ * a replaced index as soon as it is rebuilt; without close they are
+ * only released when the store becomes unreachable and the garbage
+ * collector runs. At most {@value #MAX_ROWS} rows fit, the index being
+ * kept at most half full in at most 2^30 slots.
+ *
+ * Names are decoded into a new String on every {@link #name} call, and
+ * looked up by comparing their UTF-8 bytes.
+ */
+final class OffHeapHutColumns implements HutColumns {
+
+    static final int RECORD = 32;
+    private static final int ALTITUDE = 0;
+    private static final int BEDS = 4;
+    private static final int CATEGORY = 8;
+    private static final int MUNICIPALITY = 12;
+    private static final int NAME_HASH = 16;
+    private static final int NAME_PAGE = 20;
+    private static final int NAME_OFFSET = 24;
+    private static final int NAME_LENGTH = 28;
+
+    // 64Ki records (2 MB) per record page
+    static final int RECORD_PAGE_BITS = 16;
+    private static final int RECORD_PAGE_MASK = (1 << RECORD_PAGE_BITS) - 1;
+    // 4 MB per name page; longer names get a page of their own
+    static final int NAME_PAGE_SIZE = 4 << 20;
+    // 1Mi slots (4 MB) per slot page
+    private static final int SLOT_PAGE_BITS = 20;
+    private static final int SLOT_PAGE_MASK = (1 << SLOT_PAGE_BITS) - 1;
+    static final int MAX_ROWS = 1 << 29;
+
+    // Unsafe.invokeCleaner, to release a page without waiting for the GC; null if not available
+    private static final MethodHandle CLEANER = cleaner();
+
+    private ByteBuffer[] records = new ByteBuffer[0];
+    private ByteBuffer[] names = new ByteBuffer[0];
+    private int nameCount; // name pages in use; the last one is being filled
+    private int size;
+
+    // row + 1, 0 for an empty slot
+    private ByteBuffer[] slots;
+    private int slotCount;
+    // rows taken out of the index
+    private final BitSet unindexed = new BitSet();
+    // bytes of direct memory held by the pages
+    private long reserved;
+
+    OffHeapHutColumns() {
+        slots = allocateSlots(32);
+        slotCount = 32;
+    }
+
+    private ByteBuffer allocate(int bytes) {
+        ByteBuffer page;
+        try {
+            page = ByteBuffer.allocateDirect(bytes);
+        } catch (OutOfMemoryError e) {
+            OutOfMemoryError error = new OutOfMemoryError("Off-heap hut store holding " + reserved
+                    + " bytes cannot get " + bytes + " more bytes of direct memory;"
+                    + " raise -XX:MaxDirectMemorySize, which defaults to -Xmx");
+            error.initCause(e);
+            throw error;
+        }
+        reserved += bytes;
+        return page.order(ByteOrder.nativeOrder());
+    }
+
+    private void release(ByteBuffer page) {
+        reserved -= page.capacity();
+        if (CLEANER == null) return;
+        try {
+            CLEANER.invokeExact(page);
+        } catch (Throwable e) {
+            // left to the garbage collector
+        }
+    }
+
+    private static MethodHandle cleaner() {
+        try {
+            Class<?> unsafe = Class.forName("sun.misc.Unsafe");
+            Field instance = unsafe.getDeclaredField("theUnsafe");
+            instance.setAccessible(true);
+            return MethodHandles.lookup()
+                    .findVirtual(unsafe, "invokeCleaner", MethodType.methodType(void.class, ByteBuffer.class))
+                    .bindTo(instance.get(null));
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Releases every page at once; the columns cannot be used afterwards.
+     */
+    @Override
+    public void close() {
+        if (records == null) return;
+        for (ByteBuffer page : records) release(page);
+        for (int i = 0; i < nameCount; i++) release(names[i]);
+        for (ByteBuffer page : slots) release(page);
+        records = null;
+        names = null;
+        slots = null;
+    }
+
+    private static IllegalStateException closed() {
+        return new IllegalStateException("Off-heap hut store is closed");
+    }
+
+    // ---- records
+
+    private ByteBuffer page(int row) {
+        ByteBuffer[] pages = records;
+        if (pages == null) throw closed();
+        return pages[row >>> RECORD_PAGE_BITS];
+    }
+
+    private static int offset(int row, int field) {
+        return ((row & RECORD_PAGE_MASK) * RECORD) + field;
+    }
+
+    @Override
+    public void append(int row, String name, int altitude, int beds, int category, int municipality) {
+        if (records == null) throw closed();
+        if (row >= MAX_ROWS) throw new IllegalStateException("Off-heap hut store is full at " + MAX_ROWS + " huts");
+        int pageIndex = row >>> RECORD_PAGE_BITS;
+        if (pageIndex == records.length) {
+            records = Arrays.copyOf(records, pageIndex + 1);
+            records[pageIndex] = allocate(RECORD << RECORD_PAGE_BITS);
+        }
+        ByteBuffer page = records[pageIndex];
+        int at = offset(row, 0);
+        byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+        page.putInt(at + ALTITUDE, altitude);
+        page.putInt(at + BEDS, beds);
+        page.putInt(at + CATEGORY, category);
+        page.putInt(at + MUNICIPALITY, municipality);
+        page.putInt(at + NAME_HASH, name.hashCode());
+        page.putInt(at + NAME_LENGTH, bytes.length);
+        storeName(page, at, bytes);
+        size = row + 1;
+        if ((long) size * 2 > slotCount) {
+            rehash(slotCount * 2);
+        } else {
+            insertSlot(row, name.hashCode());
+        }
+    }
+
+    private void storeName(ByteBuffer record, int at, byte[] bytes) {
+        ByteBuffer current = nameCount == 0 ? null : names[nameCount - 1];
+        if (current == null || current.remaining() < bytes.length) {
+            if (nameCount == names.length) {
+                names = Arrays.copyOf(names, Math.max(4, nameCount * 2));
+            }
+            current = allocate(Math.max(NAME_PAGE_SIZE, bytes.length));
+            names[nameCount++] = current;
+        }
+        record.putInt(at + NAME_PAGE, nameCount - 1);
+        record.putInt(at + NAME_OFFSET, current.position());
+        current.put(bytes);
+    }
+
+    @Override
+    public String name(int row) {
+        ByteBuffer page = page(row);
+        int at = offset(row, 0);
+        byte[] bytes = new byte[page.getInt(at + NAME_LENGTH)];
+        names[page.getInt(at + NAME_PAGE)].get(page.getInt(at + NAME_OFFSET), bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private boolean nameEquals(int row, int hash, byte[] bytes) {
+        ByteBuffer page = page(row);
+        int at = offset(row, 0);
+        if (page.getInt(at + NAME_HASH) != hash || page.getInt(at + NAME_LENGTH) != bytes.length) {
+            return false;
+        }
+        ByteBuffer heap = names[page.getInt(at + NAME_PAGE)];
+        int from = page.getInt(at + NAME_OFFSET);
+        for (int i = 0; i < bytes.length; i++) {
+            if (heap.get(from + i) != bytes[i]) return false;
+        }
+        return true;
+    }
+
+    @Override
+    public int altitude(int row) {
+        return page(row).getInt(offset(row, ALTITUDE));
+    }
+
+    @Override
+    public void setAltitude(int row, int altitude) {
+        page(row).putInt(offset(row, ALTITUDE), altitude);
+    }
+
+    @Override
+    public int beds(int row) {
+        return page(row).getInt(offset(row, BEDS));
+    }
+
+    @Override
+    public void setBeds(int row, int beds) {
+        page(row).putInt(offset(row, BEDS), beds);
+    }
+
+    @Override
+    public int category(int row) {
+        return page(row).getInt(offset(row, CATEGORY));
+    }
+
+    @Override
+    public void setCategory(int row, int category) {
+        page(row).putInt(offset(row, CATEGORY), category);
+    }
+
+    @Override
+    public int municipality(int row) {
+        return page(row).getInt(offset(row, MUNICIPALITY));
+    }
+
+    @Override
+    public void setMunicipality(int row, int municipality) {
+        page(row).putInt(offset(row, MUNICIPALITY), municipality);
+    }
+
+    // ---- name index
+
+    @Override
+    public int find(String name) {
+        int hash = name.hashCode();
+        byte[] bytes = null;
+        int mask = slotCount - 1;
+        int slot = HeapHutColumns.spread(hash) & mask;
+        int entry;
+        while ((entry = slot(slot)) != 0) {
+            if (bytes == null) bytes = name.getBytes(StandardCharsets.UTF_8);
+            if (nameEquals(entry - 1, hash, bytes)) {
+                return entry - 1;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    @Override
+    public void unindex(int row) {
+        int mask = slotCount - 1;
+        int slot = HeapHutColumns.spread(hash(row)) & mask;
+        while (slot(slot) != row + 1) {
+            slot = (slot + 1) & mask;
+        }
+        // backward shift: pull later entries of the probe run into the hole
+        int hole = slot;
+        int entry;
+        while ((entry = slot(slot = (slot + 1) & mask)) != 0) {
+            int home = HeapHutColumns.spread(hash(entry - 1)) & mask;
+            if (((slot - home) & mask) >= ((slot - hole) & mask)) {
+                setSlot(hole, entry);
+                hole = slot;
+            }
+        }
+        setSlot(hole, 0);
+        unindexed.set(row);
+    }
+
+    private int hash(int row) {
+        return page(row).getInt(offset(row, NAME_HASH));
+    }
+
+    private int slot(int slot) {
+        ByteBuffer[] pages = slots;
+        if (pages == null) throw closed();
+        return pages[slot >>> SLOT_PAGE_BITS].getInt((slot & SLOT_PAGE_MASK) << 2);
+    }
+
+    private void insertSlot(int row, int hash) {
+        int mask = slotCount - 1;
+        int slot = HeapHutColumns.spread(hash) & mask;
+        while (slot(slot) != 0) {
+            slot = (slot + 1) & mask;
+        }
+        setSlot(slot, row + 1);
+    }
+
+    private void setSlot(int slot, int entry) {
+        slots[slot >>> SLOT_PAGE_BITS].putInt((slot & SLOT_PAGE_MASK) << 2, entry);
+    }
+
+    private ByteBuffer[] allocateSlots(int count) {
+        int perPage = 1 << SLOT_PAGE_BITS;
+        ByteBuffer[] pages = new ByteBuffer[(count + perPage - 1) / perPage];
+        for (int i = 0; i < pages.length; i++) {
+            // direct buffers start zeroed
+            pages[i] = allocate(Math.min(count - i * perPage, perPage) << 2);
+        }
+        return pages;
+    }
+
+    private void rehash(int count) {
+        ByteBuffer[] old = slots;
+        slots = allocateSlots(count);
+        slotCount = count;
+        for (int row = 0; row < size; row++) {
+            if (!unindexed.get(row)) insertSlot(row, hash(row));
+        }
+        // off-heap stores are never shared between threads, nobody reads the old index any more
+        for (ByteBuffer page : old) release(page);
+    }
+}
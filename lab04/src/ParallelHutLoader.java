@@ -0,0 +1,324 @@
+package mountainhuts;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Loader that cuts a mountain huts CSV file into chunks aligned to
+ * line boundaries and parses them in parallel on a fork-join pool.
+ *
+ * Every chunk is parsed into bare columns, with its municipalities and
+ * categories coded locally. The chunks are then merged in one pass in
+ * file order, so that repeated municipality and hut names keep the
+ * first-wins behavior of the sequential loader, and the merged columns
+ * are handed to the store of the region in one go, as for a snapshot.
+ */
+final class ParallelHutLoader {
+
+    /** Chunks are never made smaller than this. */
+    static final int MIN_CHUNK = 64 * 1024;
+
+    private final String name;
+    private final int parallelism;
+    private final RejectPolicy rejectPolicy;
+
+    ParallelHutLoader(String name, int parallelism, RejectPolicy rejectPolicy) {
+        this.name = name;
+        this.parallelism = Math.max(1, parallelism);
+        this.rejectPolicy = rejectPolicy;
+    }
+
+    Region load(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long[] bounds = chunkBounds(channel);
+            if (bounds.length < 2) {
+                return new Region(name);
+            }
+            // one log for all the chunks, with offsets in the file as positions
+            RejectLog rejects = new RejectLog(rejectPolicy, file.toString(), file);
+            ChunkRows[] chunks = new ChunkRows[bounds.length - 1];
+            ForkJoinPool pool = new ForkJoinPool(parallelism);
+            try {
+                pool.invoke(new ChunkTask(channel, bounds, 0, chunks.length, rejects, chunks));
+            } catch (RuntimeException e) {
+                rejects.checkNotFailed(); // rather than the copy made by the fork-join pool
+                throw e;
+            } finally {
+                pool.shutdown();
+            }
+            rejects.finish();
+            return merge(chunks);
+        }
+    }
+
+    /**
+     * Appends the rows of the chunks in order, skipping repeated hut
+     * names, and builds the region on the resulting columns. Aggregates
+     * and indexes are built by the region on the first query.
+     */
+    private Region merge(ChunkRows[] chunks) {
+        LoadPhaseEvent insert = new LoadPhaseEvent();
+        insert.begin();
+        long start = System.nanoTime();
+        RegionMetrics metrics = new RegionMetrics();
+        int total = 0;
+        for (ChunkRows chunk : chunks) total += chunk.size;
+
+        HutStore store = new HutStore();
+        Map<String, Municipality> municipalities = new HashMap<>();
+        // the name index of the columns finds the repeated names, so every name is hashed once
+        HeapHutColumns columns = new HeapHutColumns(total);
+        int size = 0;
+        for (ChunkRows chunk : chunks) {
+            metrics.addCounters(chunk.metrics);
+            // the first chunk naming a municipality gives its province and altitude
+            int[] municipalityCode = new int[chunk.municipalityCount];
+            for (int local = 0; local < municipalityCode.length; local++) {
+                String province = chunk.provinces[local];
+                int altitude = chunk.municipalityAltitudes[local];
+                Municipality m = municipalities.computeIfAbsent(chunk.municipalities.value(local), n -> store.addMunicipality(
+                        new Municipality(n, province, altitude == HutStore.NO_VALUE ? null : altitude)));
+                municipalityCode[local] = m.id;
+            }
+            int[] categoryCode = new int[chunk.categories.size()];
+            for (int local = 0; local < categoryCode.length; local++) {
+                categoryCode[local] = store.categories().code(chunk.categories.value(local));
+            }
+            for (int i = 0; i < chunk.size; i++) {
+                int category = chunk.categoryCodes[i];
+                if (columns.appendIfAbsent(size, chunk.names[i], chunk.altitudes[i], chunk.beds[i],
+                        category == StringDictionary.NO_CODE ? category : categoryCode[category],
+                        municipalityCode[chunk.municipalityCodes[i]])) {
+                    size++;
+                } else {
+                    metrics.addDuplicateHutName();
+                }
+            }
+        }
+
+        // rows of every municipality, in row order
+        int count = store.municipalityCount();
+        int[] offsets = new int[count + 1];
+        for (int row = 0; row < size; row++) offsets[columns.municipality(row) + 1]++;
+        for (int code = 0; code < count; code++) offsets[code + 1] += offsets[code];
+        int[] links = new int[size];
+        int[] next = Arrays.copyOf(offsets, count);
+        for (int row = 0; row < size; row++) links[next[columns.municipality(row)]++] = row;
+        store.restore(columns, size, offsets, links);
+
+        Region region = new Region(name, store);
+        region.metrics().addCounters(metrics);
+        insert.finish(region, LoadPhaseEvent.INSERT, start, size);
+        return region;
+    }
+
+    /**
+     * Splits the file into about four chunks per worker, moving every
+     * cut forward to just after the next line terminator.
+     */
+    private long[] chunkBounds(FileChannel channel) throws IOException {
+        long size = channel.size();
+        long chunks = Math.max(1, Math.min(parallelism * 4L, size / MIN_CHUNK));
+        chunks = Math.max(chunks, (size + MappedHutLoader.WINDOW - 1) / MappedHutLoader.WINDOW);
+        List<Long> bounds = new ArrayList<>();
+        bounds.add(0L);
+        ByteBuffer probe = ByteBuffer.allocate(8192);
+        for (long i = 1; i < chunks; i++) {
+            long cut = Math.max(size * i / chunks, bounds.get(bounds.size() - 1));
+            cut = nextLineStart(channel, cut, probe);
+            if (cut >= size) break;
+            if (cut > bounds.get(bounds.size() - 1)) {
+                bounds.add(cut);
+            }
+        }
+        if (size > 0) {
+            bounds.add(size);
+        }
+        long[] result = new long[bounds.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = bounds.get(i);
+            if (i > 0 && result[i] - result[i - 1] > MappedHutLoader.WINDOW) {
+                throw new IOException("Line longer than " + MappedHutLoader.WINDOW + " bytes at offset " + result[i - 1]);
+            }
+        }
+        return result;
+    }
+
+    private static long nextLineStart(FileChannel channel, long position, ByteBuffer probe) throws IOException {
+        long pos = position;
+        while (true) {
+            probe.clear();
+            int n = channel.read(probe, pos);
+            if (n <= 0) {
+                return channel.size();
+            }
+            for (int i = 0; i < n; i++) {
+                byte b = probe.get(i);
+                if (b == '\n' || b == '\r') {
+                    return pos + i + 1;
+                }
+            }
+            pos += n;
+        }
+    }
+
+    /**
+     * Parses chunks {@code [from, to)}: a single chunk is parsed into its
+     * slot of {@code chunks}, larger spans are split in two.
+     */
+    private final class ChunkTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final FileChannel channel;
+        private final long[] bounds;
+        private final int from;
+        private final int to;
+        private final RejectLog rejects;
+        private final ChunkRows[] chunks;
+
+        ChunkTask(FileChannel channel, long[] bounds, int from, int to, RejectLog rejects, ChunkRows[] chunks) {
+            this.channel = channel;
+            this.bounds = bounds;
+            this.from = from;
+            this.to = to;
+            this.rejects = rejects;
+            this.chunks = chunks;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from == 1) {
+                chunks[from] = parseChunk();
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new ChunkTask(channel, bounds, from, mid, rejects, chunks),
+                    new ChunkTask(channel, bounds, mid, to, rejects, chunks));
+        }
+
+        private ChunkRows parseChunk() {
+            ChunkRows rows = new ChunkRows(rejects);
+            long start = bounds[from];
+            int length = (int) (bounds[to] - start);
+            try {
+                MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, start, length);
+                new MappedHutLoader().parseLines(rows, buf, 0, length, from == 0, start);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return rows;
+        }
+    }
+
+    /**
+     * The valid rows of one chunk as columns, with municipalities and
+     * categories coded in the order the chunk first names them.
+     */
+    private final class ChunkRows implements RowSink {
+
+        private final RejectLog rejects;
+        final RegionMetrics metrics = new RegionMetrics();
+
+        final StringDictionary municipalities = new StringDictionary();
+        int municipalityCount;
+        String[] provinces = new String[16];
+        int[] municipalityAltitudes = new int[16];
+        final StringDictionary categories = new StringDictionary();
+
+        String[] names = new String[RowBatch.CAPACITY];
+        int[] altitudes = new int[RowBatch.CAPACITY];
+        int[] beds = new int[RowBatch.CAPACITY];
+        int[] categoryCodes = new int[RowBatch.CAPACITY];
+        int[] municipalityCodes = new int[RowBatch.CAPACITY];
+        int size;
+
+        // rows and rejects since the last flush
+        private int flushed;
+        private int rejected;
+        private LoadPhaseEvent parse;
+        private long parseStart;
+
+        ChunkRows(RejectLog rejects) {
+            this.rejects = rejects;
+            startParse();
+        }
+
+        @Override
+        public void add(String province, String municipality, Integer municipalityAltitude,
+                        String name, int altitude, String category, int bedsNumber) {
+            if (size == names.length) grow();
+            int code = municipalities.code(municipality);
+            if (code == municipalityCount) { // first row of the chunk naming it
+                if (code == provinces.length) {
+                    provinces = Arrays.copyOf(provinces, code * 2);
+                    municipalityAltitudes = Arrays.copyOf(municipalityAltitudes, code * 2);
+                }
+                provinces[code] = province;
+                municipalityAltitudes[code] = municipalityAltitude == null ? HutStore.NO_VALUE : municipalityAltitude;
+                municipalityCount++;
+            }
+            names[size] = name;
+            altitudes[size] = altitude;
+            beds[size] = bedsNumber;
+            categoryCodes[size] = categories.code(category);
+            municipalityCodes[size] = code;
+            size++;
+        }
+
+        @Override
+        public void reject(long position, RejectReason reason, String message, String row) {
+            rejected++;
+            rejects.reject(position, reason, message, row);
+        }
+
+        @Override
+        public boolean isFull() {
+            return size - flushed >= RowBatch.CAPACITY;
+        }
+
+        /**
+         * Ends the parse phase of the rows since the last flush; the rows
+         * stay in the columns until the merge.
+         */
+        @Override
+        public int flush() {
+            rejects.checkNotFailed(); // another chunk of the same load gave up
+            int rows = size - flushed;
+            parse.finish(name, metrics, LoadPhaseEvent.PARSE, parseStart, rows);
+            metrics.addRowsParsed(rows);
+            metrics.addRowsRejected(rejected);
+            rejected = 0;
+            flushed = size;
+            startParse();
+            return rows;
+        }
+
+        private void startParse() {
+            parse = new LoadPhaseEvent();
+            parse.begin();
+            parseStart = System.nanoTime();
+        }
+
+        private void grow() {
+            int capacity = names.length * 2;
+            names = Arrays.copyOf(names, capacity);
+            altitudes = Arrays.copyOf(altitudes, capacity);
+            beds = Arrays.copyOf(beds, capacity);
+            categoryCodes = Arrays.copyOf(categoryCodes, capacity);
+            municipalityCodes = Arrays.copyOf(municipalityCodes, capacity);
+        }
+    }
+}
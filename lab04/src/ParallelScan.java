@@ -0,0 +1,80 @@
+package mountainhuts;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.BinaryOperator;
+import java.util.function.Supplier;
+
+/**
+ * Scan over the rows of a store split in chunks, one partial result per
+ * chunk, merged pairwise as the chunks complete.
+ *
+ * Below the threshold, or without spare cores, the rows are scanned
+ * sequentially into a single partial. Partials are private to their
+ * chunk, so the scan needs no synchronization besides the fork/join
+ * hand-off; the store must not change while it runs.
+ */
+final class ParallelScan {
+
+    /** Default number of rows from which scans run in parallel. */
+    static final int DEFAULT_THRESHOLD = 200_000;
+
+    /**
+     * Scans rows {@code [from, to)} into a partial result.
+     */
+    interface RangeScanner<P> {
+        void scan(P partial, int from, int to);
+    }
+
+    private ParallelScan() {
+    }
+
+    static <P> P reduce(int rows, int threshold, Supplier<P> partial, RangeScanner<P> scanner,
+                        BinaryOperator<P> merge) {
+        ForkJoinPool pool = ForkJoinPool.commonPool();
+        int parallelism = pool.getParallelism();
+        if (rows < threshold || parallelism < 2) {
+            P result = partial.get();
+            scanner.scan(result, 0, rows);
+            return result;
+        }
+        // one chunk per core: partials may be as large as the groups
+        int chunk = (rows + parallelism - 1) / parallelism;
+        return pool.invoke(new Task<>(0, rows, chunk, partial, scanner, merge));
+    }
+
+    private static final class Task<P> extends RecursiveTask<P> {
+        private static final long serialVersionUID = 1L;
+
+        private final int from;
+        private final int to;
+        private final int chunk;
+        private final Supplier<P> partial;
+        private final RangeScanner<P> scanner;
+        private final BinaryOperator<P> merge;
+
+        Task(int from, int to, int chunk, Supplier<P> partial, RangeScanner<P> scanner, BinaryOperator<P> merge) {
+            this.from = from;
+            this.to = to;
+            this.chunk = chunk;
+            this.partial = partial;
+            this.scanner = scanner;
+            this.merge = merge;
+        }
+
+        @Override
+        protected P compute() {
+            if (to - from <= chunk) {
+                P result = partial.get();
+                scanner.scan(result, from, to);
+                return result;
+            }
+            int middle = from + (to - from) / 2;
+            Task<P> right = new Task<>(middle, to, chunk, partial, scanner, merge);
+            right.fork();
+            P left = new Task<>(from, middle, chunk, partial, scanner, merge).compute();
+            // left before right, so merges that keep the first value see rows in order
+            return merge.apply(left, right.join());
+        }
+    }
+}
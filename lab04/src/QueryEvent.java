@@ -0,0 +1,24 @@
+package mountainhuts;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight recorder event for one invocation of a query of a region,
+ * cached results included.
+ */
+@Name("mountainhuts.Query")
+@Label("Mountain Huts Query")
+@Category("Mountain Huts")
+@Description("One invocation of an R4 or top-K query of a region")
+final class QueryEvent extends Event {
+
+    @Label("Region")
+    String region;
+
+    @Label("Query")
+    String query;
+}
@@ -1,63 +1,311 @@
 package mountainhuts;
 
 import java.io.BufferedReader;
+import java.io.Closeable;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.BooleanSupplier;
+import java.util.function.IntFunction;
+import java.util.function.IntUnaryOperator;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 /**
  * Class {@code Region} represents the main facade
  * class for the mountains hut system.
  */
-public class Region {
+public class Region implements Closeable {
+
+    static final String HEADER_PREFIX = "Province;";
 
     private String name;
-    private Map<String, Municipality> municipalities = new HashMap<>();
-    private Map<String, MountainHut> mountainHuts = new HashMap<>();
+    private final Map<String, Municipality> municipalities;
+    // پناهگاه‌ها به صورت ستونی (struct-of-arrays) نگه داشته می‌شوند
+    private final HutStore huts;
+    // نتایج تجمیعی R4 که همراه با هر تغییر به‌روز نگه داشته می‌شوند
+    private final RegionAggregates aggregates;
+    // نمایه‌های ثانویه (دسته، استان، شهرداری، تعداد تخت) برای HutQuery
+    private final HutIndexes indexes;
+    // نمایه‌ی مرتب بر اساس ارتفاع مؤثر (ارتفاع پناهگاه یا در نبود آن ارتفاع شهرداری)
+    private final EffectiveAltitudeIndex altitudeIndex;
+    // از این تعداد پناهگاه به بالا، پیمایش‌های کامل به صورت موازی انجام می‌شوند
+    private volatile int parallelThreshold = ParallelScan.DEFAULT_THRESHOLD;
+    // نتایج پرس‌وجوها بر اساس نام و پارامترها؛ با هر تغییر داده نسخه عوض می‌شود
+    private final ResultCache cache;
+    // شمارنده‌ها و تأخیرهای بارگذاری و پرس‌وجوها
+    private final RegionMetrics metrics = new RegionMetrics();
+    // گزارش سطرهای رد شده در بارگذاری‌ها
+    private volatile RejectPolicy rejectPolicy = RejectPolicy.printing();
 
     // رنج‌های ارتفاعی ذخیره شده به صورت لیست از شی Range
-    private List<Range> altitudeRanges = new ArrayList<>();
+    private volatile List<Range> altitudeRanges = new ArrayList<>();
+    // ساختار جستجوی رنج‌ها (جدول مستقیم + جستجوی دودویی) که با هر setAltitudeRanges ساخته می‌شود
+    private volatile AltitudeRangeIndex rangeIndex = AltitudeRangeIndex.EMPTY;
 
     public Region(String name) {
+        this(name, false);
+    }
+
+    private Region(String name, boolean concurrent) {
+        this(name, new HutStore(concurrent));
+    }
+
+    // ساخت Region روی یک HutStore از پیش پر شده (مثلاً خوانده شده از snapshot)
+    Region(String name, HutStore huts) {
         this.name = name;
+        this.municipalities = huts.isConcurrent() ? new ConcurrentHashMap<>() : new HashMap<>();
+        this.huts = huts;
+        this.aggregates = new RegionAggregates(huts);
+        this.indexes = new HutIndexes(huts);
+        this.altitudeIndex = new EffectiveAltitudeIndex(huts);
+        this.cache = new ResultCache(huts);
+        for (int code = 0; code < huts.municipalityCount(); code++) {
+            if (huts.ownsMunicipality(code)) {
+                Municipality m = huts.municipalityAt(code);
+                municipalities.put(m.getName(), m);
+            }
+        }
+    }
+
+    /**
+     * ایجاد یک Region امن برای استفاده‌ی هم‌زمان از چند نخ (thread)
+     * - createOrGet برای نام‌های موجود بدون قفل پاسخ می‌دهد و ایجاد نام جدید
+     *   به صورت اتمیک (اولین رکورد برنده است) انجام می‌شود.
+     * - پرس‌وجوهای R4 زیر قفل خواندن اجرا می‌شوند و تصویر سازگاری از داده می‌بینند.
+     * - setAltitudeRanges در حین اجرای پرس‌وجوها امن است.
+     */
+    public static Region concurrent(String name) {
+        return new Region(name, true);
+    }
+
+    /**
+     * ایجاد یک Region که پناهگاه‌هایش خارج از heap جاوا نگه داشته می‌شوند
+     * - هر پناهگاه یک رکورد با طول ثابت در بافرهای مستقیم (direct) است و
+     *   نام‌ها به صورت UTF-8 در یک دیکشنری خارج از heap ذخیره می‌شوند.
+     * - پرس‌وجوهای R4 مستقیماً روی همین حافظه پیمایش می‌کنند و اشیای
+     *   MountainHut فقط به عنوان نما (view) و در صورت درخواست ساخته می‌شوند؛
+     *   نماها نگه داشته نمی‌شوند و هر بار نمای تازه‌ای (برابر با equals) برمی‌گردد.
+     * - بافرها از سهمیه‌ی حافظه‌ی مستقیم JVM برداشته می‌شوند
+     *   (‎-XX:MaxDirectMemorySize، به طور پیش‌فرض برابر ‎-Xmx)؛ برای داده‌های
+     *   بزرگ باید آن را افزایش داد، وگرنه OutOfMemoryError با همین توضیح رخ می‌دهد.
+     * - close حافظه‌ی خارج از heap را فوراً آزاد می‌کند و پس از آن Region قابل استفاده نیست.
+     * - برای استفاده‌ی هم‌زمان از چند نخ مناسب نیست.
+     */
+    public static Region offHeap(String name) {
+        return new Region(name, HutStore.offHeap());
+    }
+
+    /**
+     * آزاد کردن فوری حافظه‌ی خارج از heap یک Region ساخته شده با offHeap
+     * برای Regionهای دیگر کاری انجام نمی‌دهد.
+     */
+    @Override
+    public void close() {
+        huts.close();
     }
 
     public String getName() {
         return name;
     }
 
+    boolean isConcurrent() {
+        return huts.isConcurrent();
+    }
+
     public Collection<Municipality> getMunicipalities() {
         return Collections.unmodifiableCollection(municipalities.values());
     }
 
+    // در حالت هم‌زمان یک کپی ثابت (snapshot) برگردانده می‌شود
     public Collection<MountainHut> getMountainHuts() {
-        return Collections.unmodifiableCollection(mountainHuts.values());
+        if (!huts.isConcurrent()) {
+            return huts.views();
+        }
+        long stamp = huts.readLock();
+        try {
+            return Collections.unmodifiableList(new ArrayList<>(huts.views()));
+        } finally {
+            huts.unlockRead(stamp);
+        }
     }
 
     // ایجاد یا بازیابی Municipality بر اساس نام (یکتا)
     public Municipality createOrGetMunicipality(String name, String province, Integer altitude) {
-        return municipalities.computeIfAbsent(name, n -> new Municipality(name, province, altitude));
+        Municipality existing = municipalities.get(name);
+        if (existing != null) return existing;
+        long stamp = huts.writeLock();
+        try {
+            return createOrGetMunicipalityLocked(name, province, altitude);
+        } finally {
+            huts.unlockWrite(stamp);
+        }
+    }
+
+    // همان createOrGetMunicipality وقتی قفل نوشتن از قبل گرفته شده است
+    Municipality createOrGetMunicipalityLocked(String name, String province, Integer altitude) {
+        return municipalities.computeIfAbsent(name, n -> huts.addMunicipality(new Municipality(name, province, altitude)));
+    }
+
+    // جستجوی پناهگاه بر اساس نام (یکتا)؛ در صورت نبودن null
+    public MountainHut getMountainHut(String name) {
+        if (huts.isConcurrent()) {
+            MountainHut existing = huts.findViewOptimistic(name);
+            if (existing != null) return existing;
+        }
+        long stamp = huts.writeLock();
+        try {
+            int row = huts.find(name);
+            return row < 0 ? null : huts.view(row);
+        } finally {
+            huts.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * جستجوی پناهگاه‌ها با شرط روی دسته، استان، شهرداری و تعداد تخت
+     * به جای پیمایش همه‌ی پناهگاه‌ها از نمایه‌های ثانویه استفاده می‌شود.
+     */
+    public HutQuery findMountainHuts() {
+        return new HutQuery(this);
+    }
+
+    List<MountainHut> select(HutQuery q) {
+        return query(indexes::isBuilt, indexes::build, () -> {
+            BitSet rows = indexes.select(q);
+            List<MountainHut> result = new ArrayList<>(rows.cardinality());
+            for (int row = rows.nextSetBit(0); row >= 0; row = rows.nextSetBit(row + 1)) {
+                result.add(huts.transientView(row));
+            }
+            return result;
+        });
+    }
+
+    long count(HutQuery q) {
+        return query(indexes::isBuilt, indexes::build, () -> (long) indexes.select(q).cardinality());
+    }
+
+    /**
+     * پناهگاه‌هایی که ارتفاع مؤثرشان در بازه‌ی [minAltitude, maxAltitude] است
+     * مرتب شده بر اساس ارتفاع؛ بدون پیمایش همه‌ی پناهگاه‌ها.
+     */
+    public List<MountainHut> getMountainHutsBetween(int minAltitude, int maxAltitude) {
+        return query(altitudeIndex::isBuilt, altitudeIndex::build, () -> {
+            int[] rows = altitudeIndex.rows(minAltitude, maxAltitude);
+            List<MountainHut> result = new ArrayList<>(rows.length);
+            for (int row : rows) {
+                result.add(huts.transientView(row));
+            }
+            return result;
+        });
+    }
+
+    // تعداد پناهگاه‌ها در یک بازه‌ی دلخواه ارتفاعی (مستقل از رنج‌های تعریف شده)
+    public long countMountainHutsBetween(int minAltitude, int maxAltitude) {
+        return query(altitudeIndex::isBuilt, altitudeIndex::build,
+                () -> altitudeIndex.count(minAltitude, maxAltitude));
+    }
+
+    // نزدیک‌ترین پناهگاه با ارتفاع مؤثر برابر یا بالاتر از ارتفاع داده شده
+    public Optional<MountainHut> getNearestMountainHutAbove(int altitude) {
+        return query(altitudeIndex::isBuilt, altitudeIndex::build, () -> {
+            int row = altitudeIndex.nearestAtOrAbove(altitude);
+            return row < 0 ? Optional.<MountainHut>empty() : Optional.of(huts.transientView(row));
+        });
     }
 
     // ایجاد یا بازیابی MountainHut بدون ارتفاع (Optional.empty)
     public MountainHut createOrGetMountainHut(String name, String category,
                                               Integer bedsNumber, Municipality municipality) {
-        return mountainHuts.computeIfAbsent(name, n -> new MountainHut(name, Optional.empty(), category, bedsNumber, municipality));
+        return createOrGetMountainHut(name, null, category, bedsNumber, municipality);
     }
 
     // ایجاد یا بازیابی MountainHut با ارتفاع مشخص (Optional.ofNullable)
     public MountainHut createOrGetMountainHut(String name, Integer altitude, String category,
                                               Integer bedsNumber, Municipality municipality) {
-        return mountainHuts.computeIfAbsent(name, n -> new MountainHut(name, Optional.ofNullable(altitude), category, bedsNumber, municipality));
+        if (huts.isConcurrent()) {
+            MountainHut existing = huts.findViewOptimistic(name);
+            if (existing != null) return existing;
+        }
+        long stamp = huts.writeLock();
+        try {
+            return huts.view(addMountainHutIfAbsent(name,
+                    altitude != null ? HutStore.requireValue(altitude) : HutStore.NO_VALUE, category,
+                    bedsNumber != null ? HutStore.requireValue(bedsNumber) : HutStore.NO_VALUE, municipality));
+        } finally {
+            huts.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * ایجاد یا بازیابی پناهگاه بدون ساختن شیء MountainHut (برای بارگذاری انبوه)
+     * مقدار HutStore.NO_VALUE یعنی ارتفاع یا تعداد تخت نامشخص.
+     *
+     * @return شماره‌ی سطر پناهگاه در HutStore
+     */
+    int putMountainHut(String name, int altitude, String category, int bedsNumber, Municipality municipality) {
+        if (huts.isConcurrent()) {
+            int row = huts.findOptimistic(name);
+            if (row >= 0) {
+                metrics.addDuplicateHutName();
+                return row;
+            }
+        }
+        long stamp = huts.writeLock();
+        try {
+            int size = huts.size();
+            int row = addMountainHutIfAbsent(name, altitude, category, bedsNumber, municipality);
+            if (row < size) metrics.addDuplicateHutName();
+            return row;
+        } finally {
+            huts.unlockWrite(stamp);
+        }
+    }
+
+    // فقط با قفل نوشتن (در حالت هم‌زمان) فراخوانی شود
+    private int addMountainHutIfAbsent(String name, int altitude, String category, int bedsNumber,
+                                       Municipality municipality) {
+        int row = huts.find(name);
+        if (row < 0) {
+            row = huts.add(name, altitude, category, bedsNumber, municipality);
+        }
+        return row;
     }
 
     /**
      * R1 - تعریف رنج‌های ارتفاعی به صورت دینامیک
      * هر رشته ورودی در قالب "min-max" است.
      */
-    public void setAltitudeRanges(String[] ranges) {
-        altitudeRanges.clear();
+    public void setAltitudeRanges(String... ranges) {
+        List<Range> altitudeRanges = parseRanges(ranges);
+        AltitudeRangeIndex index = AltitudeRangeIndex.build(altitudeRanges);
+        long stamp = huts.writeLock();
+        try {
+            this.altitudeRanges = altitudeRanges;
+            rangeIndex = index;
+            aggregates.setRanges(index);
+            cache.invalidate();
+        } finally {
+            huts.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * تبدیل رشته‌های "min-max" به رنج؛ رشته‌های نامعتبر نادیده گرفته می‌شوند.
+     */
+    static List<Range> parseRanges(String... ranges) {
+        List<Range> altitudeRanges = new ArrayList<>();
         for (String r : ranges) {
             String[] parts = r.trim().split("-");
             if (parts.length != 2) continue;
@@ -74,61 +322,322 @@ public class Region {
             } catch (NumberFormatException ignored) {
             }
         }
+        return altitudeRanges;
     }
 
     /**
      * R1 - برگرداندن رشته رنج ارتفاع برای ارتفاع داده شده
      * اگر ارتفاع در هیچ رنجی نبود، "0-INF" برگردانده می‌شود.
+     * در صورت هم‌پوشانی، اولین رنج تعریف شده انتخاب می‌شود.
      */
     public String getAltitudeRange(Integer altitude) {
-        if (altitude == null) return "0-INF";
-        for (Range range : altitudeRanges) {
-            if (range.includes(altitude)) {
-                return range.getLabel();
-            }
-        }
-        return "0-INF";
+        return rangeIndex.labelOf(altitude);
     }
 
     /**
      * R3 - ایجاد Region از فایل CSV
+     * سطرهای رد شده در پایان بارگذاری به System.err گزارش می‌شوند.
      */
     public static Region fromFile(String name, String file) {
-        Region region = new Region(name);
-        List<String> lines = readData(file);
+        return fromFile(name, file, RejectPolicy.printing());
+    }
+
+    /**
+     * @param rejects نحوه‌ی گزارش سطرهای رد شده؛ برای بارگذاری‌های بعدی Region هم استفاده می‌شود
+     * @throws RejectLimitExceededException اگر تعداد سطرهای رد شده از آستانه‌ی rejects بیشتر شود
+     */
+    public static Region fromFile(String name, String file, RejectPolicy rejects) {
+        return load(new Region(name), file, rejects);
+    }
 
-        if (lines.isEmpty()) return region;
+    /**
+     * R3 - ایجاد Region خارج از heap (مانند offHeap) از فایل CSV
+     */
+    public static Region fromFileOffHeap(String name, String file) {
+        return load(offHeap(name), file, RejectPolicy.printing());
+    }
 
-        lines.remove(0); // skip header
-        for (String line : lines) {
-            String[] fields = line.split(";");
-            if (fields.length < 7) continue; // ignore incomplete lines
+    private static Region load(Region region, String file, RejectPolicy rejects) {
+        region.setRejectPolicy(rejects);
+        RejectLog log = new RejectLog(rejects, file, null);
+        // خواندن سطرها از بافر کاراکتری بازیافتی، بدون split/trim/substring برای هر سطر
+        try (Reader in = new FileReader(file)) {
+            new CsvHutParser(region).parse(in, false, log); // سطر اول (عنوان) نادیده گرفته می‌شود
+        } catch (IOException e) {
+            System.err.println(e.getMessage());
+        }
+        log.finish();
+        return region;
+    }
 
-            try {
-                String province = fields[0].trim();
-                String municipalityName = fields[1].trim();
-                Integer municipalityAltitude = fields[2].trim().isEmpty() ? null : Integer.parseInt(fields[2].trim());
-                String hutName = fields[3].trim();
-                String altitudeStr = fields[4].trim();
-                Integer altitude = altitudeStr.isEmpty() ? null : Integer.parseInt(altitudeStr);
-                String category = fields[5].trim();
-                Integer bedsNumber = Integer.parseInt(fields[6].trim());
-
-                Municipality municipality = region.createOrGetMunicipality(municipalityName, province, municipalityAltitude);
-                if (altitude == null) {
-                    region.createOrGetMountainHut(hutName, category, bedsNumber, municipality);
-                } else {
-                    region.createOrGetMountainHut(hutName, altitude, category, bedsNumber, municipality);
-                }
-            } catch (NumberFormatException e) {
-                // خطا در تبدیل عدد - می‌توان لاگ گرفت یا رد کرد
-                System.err.println("Error parsing line: " + line + " - " + e.getMessage());
+    /**
+     * اعمال یک سطر CSV روی این Region
+     * سطرهای ناقص و سطرهای دارای خطای تبدیل عدد در rejects ثبت می‌شوند.
+     *
+     * @param lineNumber شماره‌ی سطر برای گزارش سطرهای رد شده
+     * @return true اگر سطر معتبر بود و اعمال شد
+     */
+    boolean applyRow(String line, RejectLog rejects, long lineNumber) {
+        String[] fields = line.split(";");
+        if (fields.length < 7) { // ignore incomplete lines
+            if (!line.isEmpty()) {
+                metrics.addRowsRejected(1);
+                rejects.reject(lineNumber, RejectReason.INCOMPLETE_ROW, null, line);
             }
+            return false;
+        }
+
+        try {
+            String province = fields[0].trim();
+            String municipalityName = fields[1].trim();
+            Integer municipalityAltitude = fields[2].trim().isEmpty() ? null : HutStore.parseValue(fields[2].trim());
+            String hutName = fields[3].trim();
+            String altitudeStr = fields[4].trim();
+            int altitude = altitudeStr.isEmpty() ? HutStore.NO_VALUE : HutStore.parseValue(altitudeStr);
+            String category = fields[5].trim();
+            int bedsNumber = HutStore.parseValue(fields[6].trim());
+
+            Municipality municipality = createOrGetMunicipality(municipalityName, province, municipalityAltitude);
+            putMountainHut(hutName, altitude, category, bedsNumber, municipality);
+            metrics.addRowsParsed(1);
+            return true;
+        } catch (NumberFormatException e) {
+            // خطا در تبدیل عدد
+            metrics.addRowsRejected(1);
+            rejects.reject(lineNumber, RejectReason.BAD_NUMBER, e.getMessage(), line);
+            return false;
+        }
+    }
+
+    /**
+     * R3 - ورود تدریجی سطرها به یک Region موجود
+     * سطرها یکی‌یکی اعمال می‌شوند؛ سطر عنوان (Province;...) نادیده گرفته می‌شود.
+     * مانند createOrGet، در نام‌های تکراری اولین رکورد حفظ می‌شود.
+     *
+     * @return تعداد سطرهای معتبر اعمال شده
+     */
+    public int ingest(Stream<String> rows) {
+        RejectLog rejects = new RejectLog(rejectPolicy, "stream", null);
+        long[] counts = new long[2]; // سطرهای خوانده شده، سطرهای اعمال شده
+        rows.forEach(line -> {
+            long lineNumber = ++counts[0];
+            if (!isHeader(line) && applyRow(line, rejects, lineNumber)) counts[1]++;
+        });
+        rejects.finish();
+        return (int) counts[1];
+    }
+
+    public int ingest(Reader reader) throws IOException {
+        RejectLog rejects = new RejectLog(rejectPolicy, "reader", null);
+        int applied = new CsvHutParser(this).parse(reader, true, rejects);
+        rejects.finish();
+        return applied;
+    }
+
+    public int ingest(InputStream in) throws IOException {
+        return ingest(new InputStreamReader(in, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * دنبال کردن یک فایل CSV در حال رشد (tail)
+     * سطرهای جدید با فراخوانی poll یا به صورت دوره‌ای در پس‌زمینه اعمال می‌شوند.
+     */
+    public HutFeedTailer follow(String file) {
+        return new HutFeedTailer(this, Paths.get(file), 0);
+    }
+
+    /**
+     * راه‌اندازی سرور HTTP برای پرس‌وجوهای R4، getAltitudeRange و جستجوی پناهگاه
+     * روی همین Region؛ هر درخواست در یک نخ مجازی (virtual thread) اجرا می‌شود.
+     * برای درخواست‌های هم‌زمان بهتر است Region با concurrent ساخته شده باشد.
+     * سرور فقط روی رابط loopback (localhost) گوش می‌دهد؛ برای دسترسی از
+     * میزبان‌های دیگر از HutQueryServer.start با یک InetSocketAddress استفاده کنید.
+     *
+     * @param port شماره‌ی درگاه، 0 برای یک درگاه آزاد دلخواه
+     */
+    public HutQueryServer serve(int port) throws IOException {
+        return HutQueryServer.start(this, port);
+    }
+
+    /**
+     * اعمال دسته‌ای تغییرات (delta) از یک فایل CSV با قالب فایل پناهگاه‌ها
+     * - ستون هشتم اختیاری Operation: مقدار DELETE پناهگاه هم‌نام را حذف می‌کند
+     *   (بقیه‌ی ستون‌ها می‌توانند خالی باشند)، در غیر این صورت سطر upsert است:
+     *   پناهگاه جدید اضافه می‌شود یا ارتفاع، دسته، تخت و شهرداری پناهگاه موجود جایگزین می‌شود.
+     * - از چند سطر با یک نام فقط آخرین سطر اعمال می‌شود.
+     * - همه‌ی سطرها ابتدا خوانده و سپس در یک پیمایش، گروه‌بندی شده بر اساس
+     *   شهرداری و زیر یک قفل نوشتن اعمال می‌شوند؛ داده‌های تجمیعی و نمایه‌ها
+     *   فقط برای پناهگاه‌های تغییر کرده به‌روز می‌شوند.
+     *
+     * @return تعداد درج‌ها، به‌روزرسانی‌ها و حذف‌ها و استان‌ها و رنج‌های ارتفاعی تغییر کرده
+     * @throws RejectLimitExceededException اگر سطرهای رد شده از آستانه بیشتر شوند؛ در این صورت هیچ تغییری اعمال نمی‌شود
+     */
+    public DeltaReport applyDelta(Path file) throws IOException {
+        try (BufferedReader in = Files.newBufferedReader(file)) {
+            return applyDelta(in.lines(), file.toString());
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
         }
+    }
 
+    public DeltaReport applyDelta(Reader reader) throws IOException {
+        try {
+            return applyDelta(new BufferedReader(reader).lines(), "reader");
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    public DeltaReport applyDelta(Stream<String> rows) {
+        return applyDelta(rows, "stream");
+    }
+
+    private DeltaReport applyDelta(Stream<String> rows, String source) {
+        RejectLog rejects = new RejectLog(rejectPolicy, source, null);
+        HutDelta delta = new HutDelta();
+        long[] lineNumber = new long[1];
+        rows.forEach(line -> {
+            lineNumber[0]++;
+            if (!isHeader(line)) delta.parse(this, line, rejects, lineNumber[0]);
+        });
+        rejects.finish();
+        long stamp = huts.writeLock();
+        try {
+            return delta.apply(this, huts, rangeIndex);
+        } finally {
+            huts.unlockWrite(stamp);
+        }
+    }
+
+    static boolean isHeader(String line) {
+        return line.startsWith(HEADER_PREFIX);
+    }
+
+    /**
+     * تعیین نحوه‌ی رسیدگی به سطرهای رد شده (ناقص یا با عدد نامعتبر) در
+     * ingest و follow: مقصد گزارش، تعداد سطرهای نگه داشته شده و آستانه‌ی توقف.
+     * پیش‌فرض: چاپ گزارش در System.err.
+     */
+    public void setRejectPolicy(RejectPolicy rejects) {
+        this.rejectPolicy = Objects.requireNonNull(rejects);
+    }
+
+    RejectPolicy getRejectPolicy() {
+        return rejectPolicy;
+    }
+
+    /**
+     * R3 - ایجاد Region از فایل CSV با نگاشت فایل در حافظه (memory-mapped)
+     * فیلدها مستقیماً از بایت‌های فایل خوانده می‌شوند و فقط نام‌هایی
+     * که نگه داشته می‌شوند به String تبدیل می‌شوند.
+     */
+    public static Region fromMappedFile(String name, String file) {
+        return fromMappedFile(name, file, RejectPolicy.printing());
+    }
+
+    public static Region fromMappedFile(String name, String file, RejectPolicy rejects) {
+        Region region = new Region(name);
+        region.setRejectPolicy(rejects);
+        Path path = Paths.get(file);
+        RejectLog log = new RejectLog(rejects, file, path);
+        try {
+            new MappedHutLoader(region, log).load(path);
+        } catch (IOException e) {
+            System.err.println(e.getMessage());
+        }
+        log.finish();
+        return region;
+    }
+
+    /**
+     * باز کردن فایل CSV بدون ساختن پناهگاه‌ها (حالت تنبل)
+     * - یک پیمایش سریع سطرها را بررسی می‌کند، شهرداری‌ها را می‌سازد و برای هر نام
+     *   پناهگاه فقط جای سطرش در فایل را نگه می‌دارد.
+     * - هر پناهگاه در اولین جستجو خوانده و نگه داشته می‌شود و بقیه فقط وقتی
+     *   خوانده می‌شوند که یک پرس‌وجوی تجمیعی به همه‌ی آنها نیاز داشته باشد.
+     */
+    public static LazyRegion openLazy(String name, String file) throws IOException {
+        return openLazy(name, file, RejectPolicy.printing());
+    }
+
+    public static LazyRegion openLazy(String name, String file, RejectPolicy rejects) throws IOException {
+        return LazyRegion.open(name, Paths.get(file), rejects);
+    }
+
+    /**
+     * R3 - ایجاد Region از فایل CSV به صورت موازی
+     * فایل به تکه‌هایی هم‌مرز با انتهای خطوط تقسیم و روی ForkJoinPool پردازش می‌شود.
+     * در نام‌های تکراری، مانند fromFile اولین رکورد حفظ می‌شود.
+     */
+    public static Region fromFileParallel(String name, String file) {
+        return fromFileParallel(name, file, ForkJoinPool.getCommonPoolParallelism());
+    }
+
+    public static Region fromFileParallel(String name, String file, int parallelism) {
+        return fromFileParallel(name, file, parallelism, RejectPolicy.printing());
+    }
+
+    public static Region fromFileParallel(String name, String file, int parallelism, RejectPolicy rejects) {
+        Region region;
+        try {
+            region = new ParallelHutLoader(name, parallelism, rejects).load(Paths.get(file));
+        } catch (IOException | UncheckedIOException e) {
+            System.err.println(e.getMessage());
+            region = new Region(name);
+        }
+        region.setRejectPolicy(rejects);
         return region;
     }
 
+    /**
+     * ذخیره‌ی Region در یک فایل باینری (snapshot) برای راه‌اندازی سریع
+     * شامل دیکشنری‌ها، ستون‌ها، پیوند شهرداری‌ها به پناهگاه‌ها و رنج‌های ارتفاعی.
+     * فایل ابتدا در یک فایل موقت نوشته و سپس جایگزین می‌شود.
+     */
+    public void saveSnapshot(Path file) throws IOException {
+        long stamp = huts.readLock();
+        try {
+            RegionSnapshot.write(file, name, huts, altitudeRanges);
+        } finally {
+            huts.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * ذخیره‌ی پناهگاه‌ها در یک آرشیو ستونی بلوکی برای گزارش‌های فیلتر شده
+     * هر بلوک کمینه و بیشینه‌ی ارتفاع مؤثر و تعداد تخت و مجموعه‌ی استان‌هایش را دارد
+     * تا پرس‌وجوهای {@link HutArchive} بلوک‌های نامربوط را نخوانند.
+     */
+    public void saveBlocks(Path file) throws IOException {
+        saveBlocks(file, HutBlockFile.DEFAULT_BLOCK_ROWS);
+    }
+
+    /**
+     * @param blockRows بیشترین تعداد پناهگاه در هر بلوک
+     */
+    public void saveBlocks(Path file, int blockRows) throws IOException {
+        long stamp = huts.readLock();
+        try {
+            HutBlockFile.write(file, name, huts, altitudeRanges, blockRows);
+        } finally {
+            huts.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * بارگذاری Region از snapshot با نگاشت فایل در حافظه (memory-mapped)
+     */
+    public static Region loadSnapshot(Path file) throws IOException {
+        return loadSnapshot(file, true);
+    }
+
+    /**
+     * @param mapped نگاشت فایل در حافظه، یا در غیر این صورت خواندن انبوه با بافر
+     */
+    public static Region loadSnapshot(Path file, boolean mapped) throws IOException {
+        return RegionSnapshot.read(file, mapped);
+    }
+
     /**
      * خواندن داده‌ها از فایل به صورت لیست رشته‌ها
      */
@@ -143,88 +652,186 @@ public class Region {
 
     /**
      * R4 Queries
+     * نتایج از روی داده‌های تجمیعی نگه‌داری شده (RegionAggregates) ساخته می‌شوند،
+     * بنابراین هزینه‌ی هر پرس‌وجو به تعداد گروه‌ها بستگی دارد نه تعداد پناهگاه‌ها.
      */
 
     // تعداد شهرداری‌ها به تفکیک استان
     public Map<String, Long> countMunicipalitiesPerProvince() {
-        return municipalities.values().stream()
-                .collect(Collectors.groupingBy(Municipality::getProvince, Collectors.counting()));
+        return cachedQuery("countMunicipalitiesPerProvince", aggregates::countMunicipalitiesPerProvince);
     }
 
     // تعداد پناهگاه‌های کوهستانی به تفکیک شهرداری و استان
     public Map<String, Map<String, Long>> countMountainHutsPerMunicipalityPerProvince() {
-        return mountainHuts.values().stream()
-                .collect(Collectors.groupingBy(
-                        mh -> mh.getMunicipality().getProvince(),
-                        Collectors.groupingBy(
-                                mh -> mh.getMunicipality().getName(),
-                                Collectors.counting()
-                        )
-                ));
+        return cachedQuery("countMountainHutsPerMunicipalityPerProvince", aggregates::countMountainHutsPerMunicipalityPerProvince);
     }
 
     // تعداد پناهگاه‌ها به تفکیک بازه ارتفاعی (اگر ارتفاع پناهگاه موجود نبود، ارتفاع شهرداری در نظر گرفته می‌شود)
     public Map<String, Long> countMountainHutsPerAltitudeRange() {
-        return mountainHuts.values().stream()
-                .collect(Collectors.groupingBy(
-                        mh -> {
-                            Integer altitude = mh.getAltitude().orElse(mh.getMunicipality().getAltitude());
-                            return getAltitudeRange(altitude);
-                        },
-                        Collectors.counting()
-                ));
+        return cachedQuery("countMountainHutsPerAltitudeRange", aggregates::countMountainHutsPerAltitudeRange);
     }
 
     // مجموع تخت‌ها به تفکیک استان
     public Map<String, Integer> totalBedsNumberPerProvince() {
-        return mountainHuts.values().stream()
-                .collect(Collectors.groupingBy(
-                        mh -> mh.getMunicipality().getProvince(),
-                        Collectors.summingInt(MountainHut::getBedsNumber)
-                ));
+        return cachedQuery("totalBedsNumberPerProvince", aggregates::totalBedsNumberPerProvince);
     }
 
     // بیشینه تخت‌ها در یک پناهگاه به تفکیک بازه ارتفاعی
     public Map<String, Optional<Integer>> maximumBedsNumberPerAltitudeRange() {
-        return mountainHuts.values().stream()
-                .collect(Collectors.groupingBy(
-                        mh -> {
-                            Integer altitude = mh.getAltitude().orElse(mh.getMunicipality().getAltitude());
-                            return getAltitudeRange(altitude);
-                        },
-                        Collectors.mapping(
-                                MountainHut::getBedsNumber,
-                                Collectors.maxBy(Integer::compareTo)
-                        )
-                ));
+        return cachedQuery("maximumBedsNumberPerAltitudeRange", aggregates::maximumBedsNumberPerAltitudeRange);
     }
 
     // نام شهرداری‌ها بر اساس تعداد پناهگاه‌ها (مرتب شده بر اساس حروف الفبا)
     public Map<Long, List<String>> municipalityNamesPerCountOfMountainHuts() {
-        Map<String, Long> hutsCountPerMunicipality = mountainHuts.values().stream()
-                .collect(Collectors.groupingBy(
-                        mh -> mh.getMunicipality().getName(),
-                        Collectors.counting()
-                ));
+        return cachedQuery("municipalityNamesPerCountOfMountainHuts", aggregates::municipalityNamesPerCountOfMountainHuts);
+    }
+
+    // پرس‌وجوی R4 بدون پارامتر، از طریق حافظه‌ی نهان و با اندازه‌گیری زمان
+    private <T> T cachedQuery(String query, Supplier<T> compute) {
+        return measured(query, () -> cache.get(List.of(query), () -> query(compute)));
+    }
+
+    /**
+     * اندازه‌گیری زمان هر فراخوانی پرس‌وجو (با یا بدون حافظه‌ی نهان)
+     * در RegionMetrics و به صورت رویداد JFR با نام mountainhuts.Query
+     */
+    private <T> T measured(String query, Supplier<T> compute) {
+        QueryEvent event = new QueryEvent();
+        event.begin();
+        long start = System.nanoTime();
+        try {
+            return compute.get();
+        } finally {
+            metrics.queryLatency(query).record(System.nanoTime() - start);
+            event.end();
+            if (event.shouldCommit()) {
+                event.region = name;
+                event.query = query;
+                event.commit();
+            }
+        }
+    }
 
-        Map<Long, List<String>> result = hutsCountPerMunicipality.entrySet().stream()
-                .collect(Collectors.groupingBy(
-                        Map.Entry::getValue,
-                        Collectors.mapping(
-                                Map.Entry::getKey,
-                                Collectors.toList()
-                        )
-                ));
+    /**
+     * شمارنده‌های بارگذاری (سطرهای معتبر، رد شده و نام‌های تکراری)،
+     * زمان هر مرحله‌ی بارگذاری (read، parse، insert) و توزیع تأخیر هر پرس‌وجو
+     */
+    public RegionMetrics metrics() {
+        return metrics;
+    }
+
+    /**
+     * حافظه‌ی نهان نتایج پرس‌وجوها (R4 و Top-K)
+     * هر ایجاد یا تغییر پناهگاه و شهرداری و هر setAltitudeRanges نتایج قبلی را
+     * نامعتبر می‌کند؛ بیش از ظرفیت، کم‌استفاده‌ترین نتیجه (LRU) حذف می‌شود.
+     * به طور پیش‌فرض غیرفعال است (ظرفیت صفر): هر فراخوانی نتیجه‌ی تازه و
+     * قابل تغییر خود را می‌گیرد. با ظرفیت مثبت، نتایج برگردانده شده بین
+     * فراخوانی‌ها مشترک و غیرقابل تغییر هستند.
+     */
+    public void setResultCacheSize(int entries) {
+        cache.setCapacity(entries);
+    }
 
-        result.values().forEach(Collections::sort);
+    public ResultCacheStats getResultCacheStats() {
+        return cache.stats();
+    }
 
-        return result;
+    // نسخه‌ی داده‌ها: با هر تغییر پناهگاه‌ها، شهرداری‌ها یا رنج‌ها افزایش می‌یابد
+    long dataVersion() {
+        return cache.version();
+    }
+
+    /**
+     * تعیین آستانه‌ی اجرای موازی: پیمایش‌های کامل (ساخت داده‌های تجمیعی R4
+     * و Top-K) برای Region‌هایی با حداقل این تعداد پناهگاه روی همه‌ی هسته‌ها
+     * تقسیم می‌شوند. Integer.MAX_VALUE اجرای موازی را غیرفعال می‌کند.
+     */
+    public void setParallelThreshold(int huts) {
+        long stamp = this.huts.writeLock();
+        try {
+            parallelThreshold = huts;
+            aggregates.setParallelThreshold(huts);
+        } finally {
+            this.huts.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Top-K: بزرگ‌ترین k پناهگاه (بر اساس تعداد تخت) در هر گروه
+     * در یک پیمایش و با یک heap محدود برای هر گروه؛ حافظه O(گروه‌ها × k).
+     * در تعداد تخت برابر، پناهگاهی که زودتر اضافه شده مقدم است.
+     */
+    public Map<String, List<MountainHut>> largestMountainHutsPerProvince(int k) {
+        return largestMountainHuts("largestMountainHutsPerProvince", k, () -> true, () -> {}, row -> {
+            int code = huts.municipalityCode(row);
+            return code == StringDictionary.NO_CODE ? -1 : huts.municipalityProvince(code);
+        }, group -> huts.provinces().value(group));
+    }
+
+    public Map<String, List<MountainHut>> largestMountainHutsPerMunicipality(int k) {
+        return largestMountainHuts("largestMountainHutsPerMunicipality", k, () -> true, () -> {}, huts::municipalityCode, group -> huts.municipalityAt(group).getName());
+    }
+
+    public Map<String, List<MountainHut>> largestMountainHutsPerAltitudeRange(int k) {
+        return largestMountainHuts("largestMountainHutsPerAltitudeRange", k,
+                aggregates::isBucketColumnCurrent, aggregates::ensureBucketColumn, aggregates::bucketOf, group -> rangeIndex.label(group));
+    }
+
+    private Map<String, List<MountainHut>> largestMountainHuts(String key, int k,
+                                                              BooleanSupplier prepared, Runnable prepare,
+                                                              IntUnaryOperator grouping, IntFunction<String> label) {
+        return measured(key, () -> cache.get(List.of(key, k), () -> query(prepared, prepare, () -> {
+            prepare.run();
+            TopHuts top = ParallelScan.reduce(huts.size(), parallelThreshold,
+                    () -> new TopHuts(huts, k, grouping), TopHuts::scan, TopHuts::merge);
+            Map<String, List<MountainHut>> result = new HashMap<>();
+            // شهرداری‌های هم‌نام (وارد شده از Region دیگر) در یک گروه رتبه‌بندی می‌شوند
+            top.topPerLabel(label).forEach((group, rows) -> {
+                List<MountainHut> largest = new ArrayList<>(rows.length);
+                for (int row : rows) {
+                    largest.add(huts.transientView(row));
+                }
+                result.put(group, largest);
+            });
+            return result;
+        })));
+    }
+
+    /**
+     * اجرای یک پرس‌وجو؛ در حالت هم‌زمان زیر قفل خواندن.
+     * اگر داده‌های تجمیعی هنوز ساخته نشده باشند، ابتدا با قفل نوشتن ساخته می‌شوند.
+     */
+    private <T> T query(Supplier<T> query) {
+        return query(aggregates::isPrepared, aggregates::prepare, query);
+    }
+
+    // مانند بالا، با ساختار داده‌ی دلخواهی که پیش از پرس‌وجو باید ساخته شود
+    private <T> T query(BooleanSupplier prepared, Runnable prepare, Supplier<T> query) {
+        if (!huts.isConcurrent()) {
+            return query.get();
+        }
+        while (true) {
+            long stamp = huts.readLock();
+            try {
+                if (prepared.getAsBoolean()) {
+                    return query.get();
+                }
+            } finally {
+                huts.unlockRead(stamp);
+            }
+            stamp = huts.writeLock();
+            try {
+                prepare.run();
+            } finally {
+                huts.unlockWrite(stamp);
+            }
+        }
     }
 
     /**
      * کلاس داخلی برای نگهداری رنج ارتفاعی
      */
-    private static class Range {
+    static class Range {
         private final int min;
         private final int max;
         private final String label;
@@ -239,6 +846,14 @@ public class Region {
             return value >= min && value <= max;
         }
 
+        public int getMin() {
+            return min;
+        }
+
+        public int getMax() {
+            return max;
+        }
+
         public String getLabel() {
             return label;
         }
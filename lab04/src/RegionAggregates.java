@@ -0,0 +1,390 @@
+package mountainhuts;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+
+/**
+ * Materialized aggregates behind the R4 queries of a region.
+ *
+ * The aggregates are kept per municipality code (huts, beds), per
+ * province code (municipalities) and per altitude range bucket (huts
+ * and a histogram of beds, so that the maximum survives decreases).
+ * They are built by one scan the first time a query needs them and
+ * from then on follow every change of the store, so each query only
+ * walks the groups.
+ *
+ * The range aggregates depend on the range definitions and are
+ * rebuilt lazily after {@link #setRanges}. They group rows by a column
+ * holding the bucket id of every hut, computed in bulk once per range
+ * epoch (each call of {@code setRanges}) and then refreshed only for
+ * the huts that change, so the effective altitude of a hut is not
+ * classified again on every rebuild or top-K scan.
+ *
+ * On large stores the building scans are split over the cores, each
+ * chunk filling its own partial aggregates that are then added up.
+ */
+final class RegionAggregates implements HutStore.Listener {
+
+    private final HutStore store;
+    private AltitudeRangeIndex ranges = AltitudeRangeIndex.EMPTY;
+
+    private boolean built;
+    private long[] municipalitiesPerProvince = new long[0];
+    private long[] hutsPerMunicipality = new long[0];
+    private long[] bedsPerMunicipality = new long[0];
+
+    // range bucket id of every row, valid while bucketColumnEpoch == rangesEpoch
+    private int rangesEpoch;
+    private int bucketColumnEpoch = -1;
+    private int[] bucketColumn = new int[0];
+
+    private boolean bucketsBuilt;
+    private long[] hutsPerBucket;
+    private BedsHistogram[] bedsPerBucket;
+
+    // number of huts from which the building scans run in parallel
+    private int parallelThreshold = ParallelScan.DEFAULT_THRESHOLD;
+
+    RegionAggregates(HutStore store) {
+        this.store = store;
+        store.addListener(this);
+    }
+
+    void setParallelThreshold(int parallelThreshold) {
+        this.parallelThreshold = parallelThreshold;
+    }
+
+    void setRanges(AltitudeRangeIndex ranges) {
+        this.ranges = ranges;
+        rangesEpoch++;
+        bucketsBuilt = false;
+        hutsPerBucket = null;
+        bedsPerBucket = null;
+    }
+
+    // ---- building
+
+    /**
+     * @return whether the queries can run without building anything
+     */
+    boolean isPrepared() {
+        return built && bucketsBuilt;
+    }
+
+    void prepare() {
+        ensureBuilt();
+        ensureBucketsBuilt();
+    }
+
+    private void ensureBuilt() {
+        if (built) return;
+        int municipalities = store.municipalityCount();
+        municipalitiesPerProvince = new long[store.provinces().size()];
+        hutsPerMunicipality = new long[municipalities];
+        bedsPerMunicipality = new long[municipalities];
+        for (int code = 0; code < municipalities; code++) {
+            countMunicipality(code, 1);
+        }
+        long[][] counts = ParallelScan.reduce(store.size(), parallelThreshold,
+                () -> new long[][] { new long[municipalities], new long[municipalities] },
+                (partial, from, to) -> {
+                    for (int row = from; row < to; row++) {
+                        int code = store.municipalityCode(row);
+                        if (code == StringDictionary.NO_CODE || store.isDeleted(row)) continue;
+                        partial[0][code]++;
+                        int beds = store.beds(row);
+                        if (beds != HutStore.NO_VALUE) partial[1][code] += beds;
+                    }
+                },
+                (a, b) -> {
+                    for (int code = 0; code < municipalities; code++) {
+                        a[0][code] += b[0][code];
+                        a[1][code] += b[1][code];
+                    }
+                    return a;
+                });
+        hutsPerMunicipality = counts[0];
+        bedsPerMunicipality = counts[1];
+        built = true;
+    }
+
+    /**
+     * @return whether the bucket id of every row is known for the current ranges
+     */
+    boolean isBucketColumnCurrent() {
+        return bucketColumnEpoch == rangesEpoch;
+    }
+
+    void ensureBucketColumn() {
+        if (isBucketColumnCurrent()) return;
+        int size = store.size();
+        int[] column = bucketColumn.length >= size ? bucketColumn : new int[size + (size >> 3)];
+        // every chunk writes its own rows of the column
+        ParallelScan.reduce(size, parallelThreshold, () -> column,
+                (partial, from, to) -> {
+                    for (int row = from; row < to; row++) {
+                        column[row] = computeBucket(row);
+                    }
+                },
+                (a, b) -> a);
+        bucketColumn = column;
+        bucketColumnEpoch = rangesEpoch;
+    }
+
+    private void ensureBucketsBuilt() {
+        if (bucketsBuilt) return;
+        ensureBucketColumn();
+        int[] column = bucketColumn;
+        Buckets buckets = ParallelScan.reduce(store.size(), parallelThreshold,
+                () -> new Buckets(ranges.bucketCount()),
+                (partial, from, to) -> {
+                    for (int row = from; row < to; row++) {
+                        if (store.isDeleted(row)) continue;
+                        int bucket = column[row];
+                        partial.huts[bucket]++;
+                        partial.beds[bucket].add(store.beds(row), 1);
+                    }
+                },
+                Buckets::merge);
+        hutsPerBucket = buckets.huts;
+        bedsPerBucket = buckets.beds;
+        bucketsBuilt = true;
+    }
+
+    /**
+     * Per bucket aggregates of a chunk of rows.
+     */
+    private static final class Buckets {
+        final long[] huts;
+        final BedsHistogram[] beds;
+
+        Buckets(int count) {
+            huts = new long[count];
+            beds = new BedsHistogram[count];
+            for (int bucket = 0; bucket < count; bucket++) {
+                beds[bucket] = new BedsHistogram();
+            }
+        }
+
+        Buckets merge(Buckets other) {
+            for (int bucket = 0; bucket < huts.length; bucket++) {
+                huts[bucket] += other.huts[bucket];
+                beds[bucket].addAll(other.beds[bucket]);
+            }
+            return this;
+        }
+    }
+
+    private void countMunicipality(int code, int sign) {
+        if (!store.ownsMunicipality(code)) return;
+        int province = store.municipalityProvince(code);
+        if (province == StringDictionary.NO_CODE) return;
+        if (province >= municipalitiesPerProvince.length) {
+            municipalitiesPerProvince = Arrays.copyOf(municipalitiesPerProvince, store.provinces().size());
+        }
+        municipalitiesPerProvince[province] += sign;
+    }
+
+    private void countHut(int row, int sign) {
+        int code = store.municipalityCode(row);
+        if (code == StringDictionary.NO_CODE) return;
+        if (code >= hutsPerMunicipality.length) {
+            hutsPerMunicipality = Arrays.copyOf(hutsPerMunicipality, store.municipalityCount());
+            bedsPerMunicipality = Arrays.copyOf(bedsPerMunicipality, store.municipalityCount());
+        }
+        hutsPerMunicipality[code] += sign;
+        int beds = store.beds(row);
+        if (beds != HutStore.NO_VALUE) bedsPerMunicipality[code] += sign * (long) beds;
+    }
+
+    private void countBucket(int row, int sign) {
+        int bucket = bucketOf(row);
+        hutsPerBucket[bucket] += sign;
+        bedsPerBucket[bucket].add(store.beds(row), sign);
+    }
+
+    /**
+     * @return the range bucket of the row; the bucket column must be current
+     */
+    int bucketOf(int row) {
+        return bucketColumn[row];
+    }
+
+    private int computeBucket(int row) {
+        int altitude = store.effectiveAltitude(row);
+        return altitude == HutStore.NO_VALUE ? AltitudeRangeIndex.DEFAULT_BUCKET : ranges.bucketOf(altitude);
+    }
+
+    private void refreshBucket(int row) {
+        if (row >= bucketColumn.length) {
+            bucketColumn = Arrays.copyOf(bucketColumn, Math.max(row + 1, bucketColumn.length + (bucketColumn.length >> 1)));
+        }
+        bucketColumn[row] = computeBucket(row);
+    }
+
+    // ---- store changes
+
+    // the bucket column still holds the old bucket in the Changing
+    // callbacks and is refreshed first in the Added/Changed ones
+
+    @Override
+    public void hutAdded(int row) {
+        if (built) countHut(row, 1);
+        if (isBucketColumnCurrent()) refreshBucket(row);
+        if (bucketsBuilt) countBucket(row, 1);
+    }
+
+    @Override
+    public void hutChanging(int row) {
+        if (built) countHut(row, -1);
+        if (bucketsBuilt) countBucket(row, -1);
+    }
+
+    @Override
+    public void hutChanged(int row) {
+        hutAdded(row);
+    }
+
+    @Override
+    public void municipalityAdded(int code) {
+        if (built) countMunicipality(code, 1);
+    }
+
+    @Override
+    public void municipalityChanging(int code) {
+        if (built) countMunicipality(code, -1);
+        if (bucketsBuilt) countInheritedAltitudes(code, -1);
+    }
+
+    @Override
+    public void municipalityChanged(int code) {
+        if (built) countMunicipality(code, 1);
+        if (isBucketColumnCurrent()) refreshInheritedBuckets(code);
+        if (bucketsBuilt) countInheritedAltitudes(code, 1);
+    }
+
+    // huts without an altitude of their own move with the municipality altitude
+    private void countInheritedAltitudes(int code, int sign) {
+        IntList rows = store.rowsOf(code);
+        for (int i = 0; i < rows.size(); i++) {
+            int row = rows.get(i);
+            if (store.altitude(row) == HutStore.NO_VALUE) countBucket(row, sign);
+        }
+    }
+
+    private void refreshInheritedBuckets(int code) {
+        IntList rows = store.rowsOf(code);
+        for (int i = 0; i < rows.size(); i++) {
+            int row = rows.get(i);
+            if (store.altitude(row) == HutStore.NO_VALUE) refreshBucket(row);
+        }
+    }
+
+    // ---- queries
+
+    Map<String, Long> countMunicipalitiesPerProvince() {
+        ensureBuilt();
+        Map<String, Long> result = new HashMap<>();
+        for (int province = 0; province < municipalitiesPerProvince.length; province++) {
+            if (municipalitiesPerProvince[province] > 0) {
+                result.put(store.provinces().value(province), municipalitiesPerProvince[province]);
+            }
+        }
+        return result;
+    }
+
+    Map<String, Map<String, Long>> countMountainHutsPerMunicipalityPerProvince() {
+        ensureBuilt();
+        Map<String, Map<String, Long>> result = new HashMap<>();
+        for (int code = 0; code < hutsPerMunicipality.length; code++) {
+            if (hutsPerMunicipality[code] == 0) continue;
+            Municipality m = store.municipalityAt(code);
+            result.computeIfAbsent(m.getProvince(), p -> new HashMap<>())
+                    .merge(m.getName(), hutsPerMunicipality[code], Long::sum);
+        }
+        return result;
+    }
+
+    Map<String, Integer> totalBedsNumberPerProvince() {
+        ensureBuilt();
+        Map<String, Integer> result = new HashMap<>();
+        for (int code = 0; code < hutsPerMunicipality.length; code++) {
+            if (hutsPerMunicipality[code] == 0) continue;
+            int province = store.municipalityProvince(code);
+            if (province == StringDictionary.NO_CODE) continue;
+            result.merge(store.provinces().value(province), (int) bedsPerMunicipality[code], Integer::sum);
+        }
+        return result;
+    }
+
+    Map<String, Long> countMountainHutsPerAltitudeRange() {
+        ensureBucketsBuilt();
+        Map<String, Long> result = new HashMap<>();
+        for (int bucket = 0; bucket < hutsPerBucket.length; bucket++) {
+            if (hutsPerBucket[bucket] > 0) {
+                result.put(ranges.label(bucket), hutsPerBucket[bucket]);
+            }
+        }
+        return result;
+    }
+
+    Map<String, Optional<Integer>> maximumBedsNumberPerAltitudeRange() {
+        ensureBucketsBuilt();
+        Map<String, Optional<Integer>> result = new HashMap<>();
+        for (int bucket = 0; bucket < hutsPerBucket.length; bucket++) {
+            if (hutsPerBucket[bucket] > 0) {
+                result.put(ranges.label(bucket), bedsPerBucket[bucket].max());
+            }
+        }
+        return result;
+    }
+
+    Map<Long, List<String>> municipalityNamesPerCountOfMountainHuts() {
+        ensureBuilt();
+        Map<String, Long> hutsCountPerMunicipality = new HashMap<>();
+        for (int code = 0; code < hutsPerMunicipality.length; code++) {
+            if (hutsPerMunicipality[code] > 0) {
+                hutsCountPerMunicipality.merge(store.municipalityAt(code).getName(), hutsPerMunicipality[code], Long::sum);
+            }
+        }
+
+        Map<Long, List<String>> result = hutsCountPerMunicipality.entrySet().stream()
+                .collect(Collectors.groupingBy(
+                        Map.Entry::getValue,
+                        Collectors.mapping(
+                                Map.Entry::getKey,
+                                Collectors.toList()
+                        )
+                ));
+
+        result.values().forEach(Collections::sort);
+
+        return result;
+    }
+
+    /**
+     * Multiset of the beds numbers in a bucket.
+     */
+    private static final class BedsHistogram {
+        private final TreeMap<Integer, Integer> counts = new TreeMap<>();
+
+        void add(int beds, int sign) {
+            if (beds == HutStore.NO_VALUE) return;
+            counts.merge(beds, sign, (a, b) -> a + b == 0 ? null : a + b);
+        }
+
+        void addAll(BedsHistogram other) {
+            other.counts.forEach((beds, count) -> counts.merge(beds, count, Integer::sum));
+        }
+
+        Optional<Integer> max() {
+            return counts.isEmpty() ? Optional.empty() : Optional.of(counts.lastKey());
+        }
+    }
+}
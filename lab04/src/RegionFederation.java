@@ -0,0 +1,251 @@
+package mountainhuts;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.function.BinaryOperator;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Set of regions loaded from a directory of mountain huts CSV files,
+ * one {@link Region} per file named after the file without the
+ * {@code .csv} extension, answering the R4 queries for all of them.
+ *
+ * The files are loaded in parallel, the largest first. Every query is
+ * run on each region and the partial results are merged: counts and
+ * beds are summed, maxima are compared and municipalities with the same
+ * name in different regions are counted together.
+ *
+ * A single region can be reloaded with {@link #refresh}; the new region
+ * is built aside and replaces the old one at once, so queries running
+ * meanwhile see either of them, never a partially loaded one. Regions
+ * are queried while holding their monitor, as for {@link HutFeedTailer}.
+ */
+public class RegionFederation {
+
+    static final String EXTENSION = ".csv";
+
+    private final Path directory;
+    // replaced as a whole on every change, by name
+    private volatile Map<String, Region> regions = Collections.emptyMap();
+    private volatile String[] altitudeRanges = new String[0];
+
+    private RegionFederation(Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Loads all the CSV files of the directory, as many at a time as
+     * the common pool parallelism.
+     */
+    public static RegionFederation fromDirectory(String directory) throws IOException {
+        return fromDirectory(directory, ForkJoinPool.getCommonPoolParallelism());
+    }
+
+    public static RegionFederation fromDirectory(String directory, int parallelism) throws IOException {
+        RegionFederation federation = new RegionFederation(Paths.get(directory));
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(federation.directory, "*" + EXTENSION)) {
+            for (Path file : entries) {
+                if (Files.isRegularFile(file)) files.add(file);
+            }
+        }
+        // largest first, so that a big region does not start last
+        Map<Path, Long> sizes = new HashMap<>();
+        for (Path file : files) {
+            sizes.put(file, Files.size(file));
+        }
+        files.sort(Comparator.comparing(sizes::get).reversed());
+
+        List<Callable<Region>> loads = new ArrayList<>();
+        for (Path file : files) {
+            loads.add(() -> federation.load(regionName(file)));
+        }
+        Map<String, Region> loaded = new TreeMap<>();
+        ForkJoinPool pool = new ForkJoinPool(Math.max(1, parallelism));
+        try {
+            for (Future<Region> future : pool.invokeAll(loads)) {
+                Region region = future.get();
+                loaded.put(region.getName(), region);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while loading " + directory, e);
+        } catch (ExecutionException e) {
+            throw new IOException("Cannot load " + directory, e.getCause());
+        } finally {
+            pool.shutdown();
+        }
+        federation.regions = Collections.unmodifiableMap(loaded);
+        return federation;
+    }
+
+    static String regionName(Path file) {
+        String fileName = file.getFileName().toString();
+        return fileName.substring(0, fileName.length() - EXTENSION.length());
+    }
+
+    private Region load(String name) {
+        Region region = Region.fromFile(name, fileOf(name).toString());
+        String[] ranges = altitudeRanges;
+        if (ranges.length > 0) region.setAltitudeRanges(ranges);
+        return region;
+    }
+
+    // the file of a region, which must be right in the directory
+    private Path fileOf(String name) {
+        Path file = directory.resolve(name + EXTENSION).normalize();
+        if (name.isEmpty() || name.contains("..") || !directory.normalize().equals(file.getParent())
+                || !file.getFileName().toString().equals(name + EXTENSION)) {
+            throw new IllegalArgumentException("Not a region of " + directory + ": " + name);
+        }
+        return file;
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    public Collection<Region> getRegions() {
+        return regions.values();
+    }
+
+    /**
+     * @return the region loaded from {@code name.csv}, or null
+     */
+    public Region getRegion(String name) {
+        return regions.get(name);
+    }
+
+    /**
+     * Reloads one region from its file, leaving the others untouched.
+     * A file added after loading the directory is loaded as a new
+     * region; a region whose file was deleted is dropped.
+     *
+     * @return the new region, or null if the file no longer exists
+     * @throws IllegalArgumentException if the name is not the one of a
+     *         file directly in the directory, e.g. holds a separator or ..
+     */
+    public synchronized Region refresh(String name) {
+        Path file = fileOf(name);
+        Map<String, Region> updated = new TreeMap<>(regions);
+        Region region = null;
+        if (Files.isRegularFile(file)) {
+            region = load(name);
+            updated.put(name, region);
+        } else {
+            updated.remove(name);
+        }
+        regions = Collections.unmodifiableMap(updated);
+        return region;
+    }
+
+    /**
+     * Sets the same altitude ranges on all the regions, including the
+     * ones loaded later by {@link #refresh}.
+     */
+    public synchronized void setAltitudeRanges(String... ranges) {
+        altitudeRanges = ranges.clone();
+        for (Region region : regions.values()) {
+            synchronized (region) {
+                region.setAltitudeRanges(ranges);
+            }
+        }
+    }
+
+    /**
+     * R4 Queries over all the regions
+     */
+    public Map<String, Long> countMunicipalitiesPerProvince() {
+        // a municipality named in several regions counts once in its province
+        Map<String, Set<String>> names = new HashMap<>();
+        for (List<Municipality> partial : partials(region -> new ArrayList<>(region.getMunicipalities()))) {
+            for (Municipality m : partial) {
+                if (m.getProvince() != null) names.computeIfAbsent(m.getProvince(), p -> new HashSet<>()).add(m.getName());
+            }
+        }
+        Map<String, Long> result = new HashMap<>();
+        names.forEach((province, municipalities) -> result.put(province, (long) municipalities.size()));
+        return result;
+    }
+
+    public Map<String, Map<String, Long>> countMountainHutsPerMunicipalityPerProvince() {
+        Map<String, Map<String, Long>> result = new HashMap<>();
+        for (Map<String, Map<String, Long>> partial : partials(Region::countMountainHutsPerMunicipalityPerProvince)) {
+            partial.forEach((province, counts) -> {
+                Map<String, Long> merged = result.computeIfAbsent(province, p -> new HashMap<>());
+                counts.forEach((municipality, count) -> merged.merge(municipality, count, Long::sum));
+            });
+        }
+        return result;
+    }
+
+    public Map<String, Long> countMountainHutsPerAltitudeRange() {
+        return sum(Region::countMountainHutsPerAltitudeRange, Long::sum);
+    }
+
+    public Map<String, Integer> totalBedsNumberPerProvince() {
+        return sum(Region::totalBedsNumberPerProvince, Integer::sum);
+    }
+
+    public Map<String, Optional<Integer>> maximumBedsNumberPerAltitudeRange() {
+        return sum(Region::maximumBedsNumberPerAltitudeRange, (a, b) ->
+                !a.isPresent() ? b : !b.isPresent() ? a : Optional.of(Math.max(a.get(), b.get())));
+    }
+
+    public Map<Long, List<String>> municipalityNamesPerCountOfMountainHuts() {
+        Map<String, Long> hutsCountPerMunicipality = new HashMap<>();
+        for (Map<Long, List<String>> partial : partials(Region::municipalityNamesPerCountOfMountainHuts)) {
+            partial.forEach((count, names) -> {
+                for (String name : names) {
+                    hutsCountPerMunicipality.merge(name, count, Long::sum);
+                }
+            });
+        }
+        Map<Long, List<String>> result = hutsCountPerMunicipality.entrySet().stream()
+                .collect(Collectors.groupingBy(Map.Entry::getValue,
+                        Collectors.mapping(Map.Entry::getKey, Collectors.toList())));
+        result.values().forEach(Collections::sort);
+        return result;
+    }
+
+    private <V> Map<String, V> sum(Function<Region, Map<String, V>> query, BinaryOperator<V> merge) {
+        Map<String, V> result = new HashMap<>();
+        for (Map<String, V> partial : partials(query)) {
+            partial.forEach((key, value) -> result.merge(key, value, merge));
+        }
+        return result;
+    }
+
+    /**
+     * Runs the query on every region, in parallel; the partial results
+     * are in region name order.
+     */
+    private <T> List<T> partials(Function<Region, T> query) {
+        return regions.values().parallelStream()
+                .map(region -> {
+                    synchronized (region) {
+                        return query.apply(region);
+                    }
+                })
+                .collect(Collectors.toList());
+    }
+}
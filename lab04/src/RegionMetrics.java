@@ -0,0 +1,114 @@
+package mountainhuts;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and latencies of a {@link Region}, updated as it loads rows
+ * and answers queries. The values are live: every getter returns the
+ * current figure.
+ *
+ * Loaders count rows per call or per batch rather than per row, and the
+ * time spent reading, parsing and inserting is added up per phase; the
+ * same steps are reported as {@code mountainhuts.LoadPhase} flight
+ * recorder events, and every query invocation as a
+ * {@code mountainhuts.Query} event.
+ */
+public final class RegionMetrics {
+
+    private final LongAdder rowsParsed = new LongAdder();
+    private final LongAdder rowsRejected = new LongAdder();
+    private final LongAdder duplicateHutNames = new LongAdder();
+    private final Map<String, LongAdder> loadPhaseNanos = new ConcurrentHashMap<>();
+    private final Map<String, LatencyHistogram> queryLatencies = new ConcurrentHashMap<>();
+
+    RegionMetrics() {
+    }
+
+    void addRowsParsed(long rows) {
+        rowsParsed.add(rows);
+    }
+
+    void addRowsRejected(long rows) {
+        rowsRejected.add(rows);
+    }
+
+    void addDuplicateHutName() {
+        duplicateHutNames.increment();
+    }
+
+    void addLoadPhase(String phase, long nanos) {
+        loadPhaseNanos.computeIfAbsent(phase, p -> new LongAdder()).add(nanos);
+    }
+
+    LatencyHistogram queryLatency(String query) {
+        return queryLatencies.computeIfAbsent(query, q -> new LatencyHistogram());
+    }
+
+    // the counters of a chunk of a parallel load merged into its region
+    void addCounters(RegionMetrics other) {
+        rowsParsed.add(other.rowsParsed.sum());
+        rowsRejected.add(other.rowsRejected.sum());
+        duplicateHutNames.add(other.duplicateHutNames.sum());
+        other.loadPhaseNanos.forEach((phase, nanos) -> addLoadPhase(phase, nanos.sum()));
+    }
+
+    /**
+     * @return the number of valid rows read from files and feeds,
+     *         duplicates included
+     */
+    public long getRowsParsed() {
+        return rowsParsed.sum();
+    }
+
+    /**
+     * @return the number of incomplete rows and of rows with bad numbers
+     */
+    public long getRowsRejected() {
+        return rowsRejected.sum();
+    }
+
+    /**
+     * @return the number of loaded rows ignored because a hut with the
+     *         same name was already present
+     */
+    public long getDuplicateHutNames() {
+        return duplicateHutNames.sum();
+    }
+
+    /**
+     * @return the nanoseconds spent in each load phase ("read", "parse",
+     *         "insert"), by phase name
+     */
+    public Map<String, Long> getLoadPhaseNanos() {
+        Map<String, Long> result = new TreeMap<>();
+        loadPhaseNanos.forEach((phase, nanos) -> result.put(phase, nanos.sum()));
+        return Collections.unmodifiableMap(result);
+    }
+
+    /**
+     * @return the latencies of the query with the given method name,
+     *         or null if it was never invoked
+     */
+    public LatencyHistogram getQueryLatency(String query) {
+        return queryLatencies.get(query);
+    }
+
+    public Map<String, LatencyHistogram> getQueryLatencies() {
+        return Collections.unmodifiableMap(new TreeMap<>(queryLatencies));
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder s = new StringBuilder();
+        s.append("rowsParsed=").append(getRowsParsed())
+                .append(" rowsRejected=").append(getRowsRejected())
+                .append(" duplicateHutNames=").append(getDuplicateHutNames())
+                .append(" loadPhaseNanos=").append(getLoadPhaseNanos());
+        getQueryLatencies().forEach((query, latency) -> s.append('\n').append(query).append(": ").append(latency));
+        return s.toString();
+    }
+}
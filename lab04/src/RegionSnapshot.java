@@ -0,0 +1,314 @@
+package mountainhuts;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/**
+ * Binary snapshot of a region, to restart without parsing the CSV.
+ *
+ * Layout, all ints little endian, strings as byte length (-1 for null)
+ * followed by their UTF-8 bytes:
+ * <pre>
+ * magic "HUTS", version
+ * region name
+ * categories:     count, values in code order
+ * provinces:      count, values in code order
+ * municipalities: count, names, province codes, altitudes, owned flags
+ * huts:           count, names, altitudes, beds, category codes,
+ *                 municipality codes
+ * links:          municipality count + 1 offsets, then the hut rows
+ *                 of every municipality (CSR)
+ * altitude ranges: count, definitions
+ * magic
+ * </pre>
+ * Missing altitudes and beds are stored as {@link HutStore#NO_VALUE}.
+ * Reading goes either through a small buffer refilled by bulk reads or
+ * through windows of a memory mapping of the file; the int columns are
+ * copied in bulk in both cases.
+ */
+final class RegionSnapshot {
+
+    static final int MAGIC = 0x48555453; // "HUTS"
+    static final int VERSION = 1;
+
+    private static final int BUFFER = 1 << 20;
+    private static final int WINDOW = 1 << 30;
+
+    private RegionSnapshot() {
+    }
+
+    // ---- writing
+
+    /**
+     * Writes the snapshot to a temporary file that then replaces the
+     * target, so readers never see a partial snapshot.
+     */
+    static void write(Path file, String name, HutStore store, List<Region.Range> ranges) throws IOException {
+        Path absolute = file.toAbsolutePath();
+        Path temp = absolute.resolveSibling(absolute.getFileName() + ".tmp");
+        try (Output out = new Output(FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeString(name);
+
+            writeDictionary(out, store.categories());
+            writeDictionary(out, store.provinces());
+
+            int municipalities = store.municipalityCount();
+            out.writeInt(municipalities);
+            for (int code = 0; code < municipalities; code++) out.writeString(store.municipalityAt(code).getName());
+            for (int code = 0; code < municipalities; code++) out.writeInt(store.municipalityProvince(code));
+            for (int code = 0; code < municipalities; code++) out.writeInt(store.municipalityAltitude(code));
+            for (int code = 0; code < municipalities; code++) out.writeInt(store.ownsMunicipality(code) ? 1 : 0);
+
+            // deleted rows are left out, the others renumbered in order
+            int size = store.hutCount();
+            int[] rows = new int[size];
+            int[] renumbered = store.hasDeletions() ? new int[store.size()] : null;
+            for (int row = 0, i = 0; i < size; row++) {
+                if (store.isDeleted(row)) continue;
+                if (renumbered != null) renumbered[row] = i;
+                rows[i++] = row;
+            }
+            out.writeInt(size);
+            for (int row : rows) out.writeString(store.name(row));
+            for (int row : rows) out.writeInt(store.altitude(row));
+            for (int row : rows) out.writeInt(store.beds(row));
+            for (int row : rows) out.writeInt(store.categoryCode(row));
+            for (int row : rows) out.writeInt(store.municipalityCode(row));
+
+            int offset = 0;
+            out.writeInt(offset);
+            for (int code = 0; code < municipalities; code++) {
+                offset += store.rowsOf(code).size();
+                out.writeInt(offset);
+            }
+            for (int code = 0; code < municipalities; code++) {
+                IntList links = store.rowsOf(code);
+                for (int i = 0; i < links.size(); i++) {
+                    out.writeInt(renumbered == null ? links.get(i) : renumbered[links.get(i)]);
+                }
+            }
+
+            out.writeInt(ranges.size());
+            for (Region.Range range : ranges) out.writeString(range.getLabel());
+            out.writeInt(MAGIC);
+        }
+        Files.move(temp, absolute, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void writeDictionary(Output out, StringDictionary dictionary) throws IOException {
+        out.writeInt(dictionary.size());
+        for (int code = 0; code < dictionary.size(); code++) out.writeString(dictionary.value(code));
+    }
+
+    // ---- reading
+
+    static Region read(Path file, boolean mapped) throws IOException {
+        try (Input in = new Input(FileChannel.open(file, StandardOpenOption.READ), mapped)) {
+            if (in.readInt() != MAGIC) throw new IOException(file + " is not a region snapshot");
+            int version = in.readInt();
+            if (version != VERSION) throw new IOException("Unsupported snapshot version " + version);
+            String name = in.readString();
+
+            HutStore store = new HutStore();
+            readDictionary(in, store.categories());
+            readDictionary(in, store.provinces());
+
+            int municipalities = in.readCount();
+            String[] municipalityNames = new String[municipalities];
+            for (int code = 0; code < municipalities; code++) municipalityNames[code] = in.readString();
+            int[] provinces = in.readInts(municipalities);
+            int[] altitudes = in.readInts(municipalities);
+            int[] owned = in.readInts(municipalities);
+            for (int code = 0; code < municipalities; code++) {
+                int altitude = altitudes[code];
+                Municipality m = new Municipality(municipalityNames[code], store.provinces().value(provinces[code]),
+                        altitude == HutStore.NO_VALUE ? null : altitude);
+                if (owned[code] != 0) store.addMunicipality(m);
+                else store.addForeignMunicipality(m);
+            }
+
+            int size = in.readCount();
+            int capacity = Math.max(size, 1);
+            String[] names = new String[capacity];
+            for (int row = 0; row < size; row++) names[row] = in.readString();
+            int[] hutAltitudes = in.readInts(size, capacity);
+            int[] beds = in.readInts(size, capacity);
+            int[] categories = in.readInts(size, capacity);
+            int[] municipalityCodes = in.readInts(size, capacity);
+
+            int[] offsets = in.readInts(municipalities + 1);
+            int[] links = in.readInts(offsets[municipalities]);
+            store.restore(names, hutAltitudes, beds, categories, municipalityCodes, size, offsets, links);
+
+            int rangeCount = in.readCount();
+            String[] ranges = new String[rangeCount];
+            for (int i = 0; i < rangeCount; i++) ranges[i] = in.readString();
+            if (in.readInt() != MAGIC) throw new IOException(file + " is corrupted");
+
+            Region region = new Region(name, store);
+            region.setAltitudeRanges(ranges);
+            return region;
+        }
+    }
+
+    private static void readDictionary(Input in, StringDictionary dictionary) throws IOException {
+        int count = in.readCount();
+        for (int code = 0; code < count; code++) {
+            if (dictionary.code(in.readString()) != code) throw new IOException("Duplicate dictionary value");
+        }
+    }
+
+    /**
+     * Buffered little endian writer over a file channel.
+     */
+    private static final class Output implements Closeable {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER).order(ByteOrder.LITTLE_ENDIAN);
+
+        Output(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        void writeInt(int value) throws IOException {
+            if (buffer.remaining() < Integer.BYTES) flush();
+            buffer.putInt(value);
+        }
+
+        void writeString(String value) throws IOException {
+            if (value == null) {
+                writeInt(-1);
+                return;
+            }
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            writeInt(bytes.length);
+            for (int offset = 0; offset < bytes.length; ) {
+                if (!buffer.hasRemaining()) flush();
+                int n = Math.min(buffer.remaining(), bytes.length - offset);
+                buffer.put(bytes, offset, n);
+                offset += n;
+            }
+        }
+
+        private void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) channel.write(buffer);
+            buffer.clear();
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                flush();
+                channel.force(false);
+            } finally {
+                channel.close();
+            }
+        }
+    }
+
+    /**
+     * Little endian reader over a file channel, either through bulk reads
+     * into a heap buffer or through memory-mapped windows.
+     */
+    private static final class Input implements Closeable {
+        private final FileChannel channel;
+        private final boolean mapped;
+        private final long length;
+        private ByteBuffer buffer;
+        // file offset of the first byte after the buffer content
+        private long next;
+        private byte[] scratch = new byte[256];
+
+        Input(FileChannel channel, boolean mapped) throws IOException {
+            this.channel = channel;
+            this.mapped = mapped;
+            this.length = channel.size();
+            this.buffer = mapped ? ByteBuffer.allocate(0) : ByteBuffer.allocate(BUFFER).flip();
+        }
+
+        private void refill() throws IOException {
+            long start = next - buffer.remaining();
+            if (mapped) {
+                buffer = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(WINDOW, length - start));
+                next = start + buffer.limit();
+            } else {
+                buffer.compact();
+                int n;
+                while (buffer.hasRemaining() && (n = channel.read(buffer, next)) > 0) next += n;
+                buffer.flip();
+            }
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+        }
+
+        private void require(int bytes) throws IOException {
+            if (buffer.remaining() < bytes) {
+                refill();
+                if (buffer.remaining() < bytes) throw new EOFException("Truncated snapshot");
+            }
+        }
+
+        int readInt() throws IOException {
+            require(Integer.BYTES);
+            return buffer.getInt();
+        }
+
+        int readCount() throws IOException {
+            int count = readInt();
+            if (count < 0) throw new IOException("Corrupted snapshot: negative count");
+            return count;
+        }
+
+        int[] readInts(int count) throws IOException {
+            return readInts(count, count);
+        }
+
+        int[] readInts(int count, int capacity) throws IOException {
+            int[] values = new int[capacity];
+            for (int offset = 0; offset < count; ) {
+                require(Integer.BYTES);
+                int n = Math.min(buffer.remaining() / Integer.BYTES, count - offset);
+                buffer.asIntBuffer().get(values, offset, n);
+                buffer.position(buffer.position() + n * Integer.BYTES);
+                offset += n;
+            }
+            return values;
+        }
+
+        String readString() throws IOException {
+            int n = readInt();
+            if (n < 0) return null;
+            if (buffer.remaining() >= n && buffer.hasArray()) {
+                String value = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), n,
+                        StandardCharsets.UTF_8);
+                buffer.position(buffer.position() + n);
+                return value;
+            }
+            if (scratch.length < n) scratch = new byte[Math.max(n, scratch.length * 2)];
+            for (int offset = 0; offset < n; ) {
+                require(1);
+                int k = Math.min(buffer.remaining(), n - offset);
+                buffer.get(scratch, offset, k);
+                offset += k;
+            }
+            return new String(scratch, 0, n, StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package mountainhuts;
+
+/**
+ * Thrown when a load rejects more rows than allowed by
+ * {@link RejectPolicy#failAfter}; the report has already been handed
+ * to the sink.
+ */
+public class RejectLimitExceededException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final transient RejectReport report;
+
+    RejectLimitExceededException(RejectReport report, long limit) {
+        super("More than " + limit + " rows rejected from " + report.getSource());
+        this.report = report;
+    }
+
+    public RejectReport getReport() {
+        return report;
+    }
+}
@@ -0,0 +1,148 @@
+package mountainhuts;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Rows rejected by one load, collected for its {@link RejectPolicy}.
+ *
+ * Only the rejected rows go through the log, so it costs nothing on
+ * valid rows. It keeps the rows with the lowest positions up to the
+ * limit of the policy, whatever the order they arrive in, so that the
+ * chunks of a parallel load can share it. Positions are line numbers,
+ * or byte offsets of the line starts for the loaders that do not count
+ * lines; those are turned into line numbers only for the rows kept,
+ * when the report is made.
+ */
+final class RejectLog {
+
+    private final RejectSink sink;
+    private final int keep;
+    private final long failAfter;
+    private final String source;
+    private final Path offsetsOf;
+
+    // the kept rows, the one with the highest position on top
+    private final PriorityQueue<Entry> first = new PriorityQueue<>(
+            Comparator.comparingLong((Entry e) -> e.position).reversed());
+    private final long[] perReason = new long[RejectReason.values().length];
+    private long rejected;
+    private volatile RejectLimitExceededException failure;
+
+    private static final class Entry {
+        final long position;
+        final RejectReason reason;
+        final String message;
+        final String row;
+
+        Entry(long position, RejectReason reason, String message, String row) {
+            this.position = position;
+            this.reason = reason;
+            this.message = message;
+            this.row = row;
+        }
+    }
+
+    /**
+     * @param offsetsOf the file the positions are byte offsets of, or
+     *                  null if they are line numbers
+     */
+    RejectLog(RejectPolicy policy, String source, Path offsetsOf) {
+        this.sink = policy.sink();
+        this.keep = policy.keep();
+        this.failAfter = policy.failAfter();
+        this.source = source;
+        this.offsetsOf = offsetsOf;
+    }
+
+    synchronized void reject(long position, RejectReason reason, String message, String row) {
+        checkNotFailed();
+        rejected++;
+        perReason[reason.ordinal()]++;
+        if (first.size() < keep) {
+            first.add(new Entry(position, reason, message, row));
+        } else if (keep > 0 && position < first.peek().position) {
+            first.poll();
+            first.add(new Entry(position, reason, message, row));
+        }
+        if (rejected > failAfter) {
+            RejectReport report = report(true);
+            failure = new RejectLimitExceededException(report, failAfter);
+            sink.accept(report);
+            throw failure;
+        }
+    }
+
+    /**
+     * Throws the failure of the load, if another part of it failed.
+     */
+    void checkNotFailed() {
+        RejectLimitExceededException f = failure;
+        if (f != null) throw f;
+    }
+
+    /**
+     * Ends the load: hands the report to the sink if any row was rejected.
+     */
+    synchronized void finish() {
+        checkNotFailed();
+        if (rejected > 0) sink.accept(report(false));
+    }
+
+    private RejectReport report(boolean aborted) {
+        List<Entry> entries = new ArrayList<>(first);
+        entries.sort(Comparator.comparingLong(e -> e.position));
+        long[] lines = offsetsOf == null ? null : lineNumbers(entries);
+        List<RejectedRow> rows = new ArrayList<>(entries.size());
+        for (int i = 0; i < entries.size(); i++) {
+            Entry e = entries.get(i);
+            rows.add(new RejectedRow(lines == null ? e.position : lines[i], e.reason, e.message, e.row));
+        }
+        EnumMap<RejectReason, Long> counts = new EnumMap<>(RejectReason.class);
+        for (RejectReason reason : RejectReason.values()) {
+            if (perReason[reason.ordinal()] > 0) counts.put(reason, perReason[reason.ordinal()]);
+        }
+        return new RejectReport(source, rejected, counts, rows, aborted);
+    }
+
+    // line numbers of the offsets, in one pass over the file up to the last one
+    private long[] lineNumbers(List<Entry> entries) {
+        long[] lines = new long[entries.size()];
+        if (entries.isEmpty()) return lines;
+        try (FileChannel channel = FileChannel.open(offsetsOf, StandardOpenOption.READ)) {
+            ByteBuffer buf = ByteBuffer.allocate(64 * 1024);
+            long line = 1;
+            long position = 0;
+            byte previous = 0;
+            int next = 0;
+            while (next < entries.size()) {
+                buf.clear();
+                int n = channel.read(buf, position);
+                for (int i = 0; i < Math.max(n, 0) && next < entries.size(); i++) {
+                    while (next < entries.size() && entries.get(next).position == position + i) {
+                        lines[next++] = line;
+                    }
+                    byte b = buf.get(i);
+                    // "\r\n" ends one line
+                    if (b == '\r' || (b == '\n' && previous != '\r')) line++;
+                    previous = b;
+                }
+                if (n <= 0) break;
+                position += n;
+            }
+            while (next < entries.size()) lines[next++] = line;
+        } catch (IOException e) {
+            Arrays.fill(lines, -1);
+        }
+        return lines;
+    }
+}
@@ -0,0 +1,69 @@
+package mountainhuts;
+
+/**
+ * How the rows rejected while loading a region are handled: where they
+ * are reported, how many of them are kept and after how many the load
+ * is stopped, e.g.
+ * <pre>
+ * region.setRejectPolicy(RejectPolicy.to(report -&gt; log(report))
+ *       .keep(1000)
+ *       .failAfter(100_000));
+ * </pre>
+ * Rejected rows are collected while loading and handed to the sink in
+ * one report at the end, so a feed with many broken rows costs little
+ * more than a clean one.
+ */
+public final class RejectPolicy {
+
+    /** Rows kept in the report by default. */
+    public static final int DEFAULT_KEEP = 100;
+
+    private final RejectSink sink;
+    private int keep = DEFAULT_KEEP;
+    private long failAfter = Long.MAX_VALUE;
+
+    private RejectPolicy(RejectSink sink) {
+        this.sink = sink;
+    }
+
+    public static RejectPolicy to(RejectSink sink) {
+        return new RejectPolicy(sink);
+    }
+
+    /**
+     * @return a policy printing the report to {@code System.err}
+     */
+    public static RejectPolicy printing() {
+        return to(RejectSink.printing(System.err));
+    }
+
+    /**
+     * Sets how many rejected rows are kept in the report; only their
+     * number is counted beyond that.
+     */
+    public RejectPolicy keep(int rows) {
+        this.keep = Math.max(rows, 0);
+        return this;
+    }
+
+    /**
+     * Stops a load with a {@link RejectLimitExceededException} as soon
+     * as more than the given number of its rows are rejected.
+     */
+    public RejectPolicy failAfter(long rows) {
+        this.failAfter = Math.max(rows, 0);
+        return this;
+    }
+
+    RejectSink sink() {
+        return sink;
+    }
+
+    int keep() {
+        return keep;
+    }
+
+    long failAfter() {
+        return failAfter;
+    }
+}
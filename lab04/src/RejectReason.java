@@ -0,0 +1,11 @@
+package mountainhuts;
+
+/**
+ * Why a row of a mountain huts file was not loaded.
+ */
+public enum RejectReason {
+    /** Fewer than seven fields, or nothing in the seventh. */
+    INCOMPLETE_ROW,
+    /** An altitude or a beds number that is not an integer. */
+    BAD_NUMBER
+}
@@ -0,0 +1,62 @@
+package mountainhuts;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Summary of the rows rejected by one load: how many, why, and the
+ * first ones in file order up to the {@link RejectPolicy#keep} limit.
+ */
+public final class RejectReport {
+
+    private final String source;
+    private final long rejected;
+    private final Map<RejectReason, Long> perReason;
+    private final List<RejectedRow> rows;
+    private final boolean aborted;
+
+    RejectReport(String source, long rejected, EnumMap<RejectReason, Long> perReason, List<RejectedRow> rows,
+                 boolean aborted) {
+        this.source = source;
+        this.rejected = rejected;
+        this.perReason = Collections.unmodifiableMap(perReason);
+        this.rows = Collections.unmodifiableList(rows);
+        this.aborted = aborted;
+    }
+
+    /**
+     * @return the file or feed that was loaded
+     */
+    public String getSource() {
+        return source;
+    }
+
+    public long getRejectedRows() {
+        return rejected;
+    }
+
+    public Map<RejectReason, Long> getRejectedPerReason() {
+        return perReason;
+    }
+
+    /**
+     * @return the first rejected rows, in line order
+     */
+    public List<RejectedRow> getRows() {
+        return rows;
+    }
+
+    /**
+     * @return whether the load was stopped by {@link RejectPolicy#failAfter}
+     */
+    public boolean isAborted() {
+        return aborted;
+    }
+
+    @Override
+    public String toString() {
+        return source + ": " + rejected + " rows rejected " + perReason + (aborted ? ", load aborted" : "");
+    }
+}
@@ -0,0 +1,37 @@
+package mountainhuts;
+
+import java.io.PrintStream;
+
+/**
+ * Receiver of the rows rejected while loading a region.
+ *
+ * The sink is called once at the end of every load, with a report of
+ * all the rows rejected by it, also when the load was stopped by the
+ * fail-fast threshold of the {@link RejectPolicy}; loads without
+ * rejected rows are not reported.
+ */
+@FunctionalInterface
+public interface RejectSink {
+
+    void accept(RejectReport report);
+
+    /**
+     * @return a sink printing every row kept in the report, then the
+     *         summary, to the given stream
+     */
+    static RejectSink printing(PrintStream out) {
+        return report -> {
+            StringBuilder s = new StringBuilder();
+            for (RejectedRow row : report.getRows()) {
+                if (row.getReason() == RejectReason.BAD_NUMBER) {
+                    s.append("Error parsing line: ").append(row.getRow()).append(" - ").append(row.getMessage());
+                } else {
+                    s.append("Incomplete line ").append(row.getLineNumber()).append(": ").append(row.getRow());
+                }
+                s.append(System.lineSeparator());
+            }
+            s.append(report);
+            out.println(s);
+        };
+    }
+}
@@ -0,0 +1,48 @@
+package mountainhuts;
+
+/**
+ * A row of a mountain huts file that was not loaded.
+ */
+public final class RejectedRow {
+
+    private final long lineNumber;
+    private final RejectReason reason;
+    private final String message;
+    private final String row;
+
+    RejectedRow(long lineNumber, RejectReason reason, String message, String row) {
+        this.lineNumber = lineNumber;
+        this.reason = reason;
+        this.message = message;
+        this.row = row;
+    }
+
+    /**
+     * @return the number of the line, starting from 1 for the header;
+     *         -1 if it could not be determined
+     */
+    public long getLineNumber() {
+        return lineNumber;
+    }
+
+    public RejectReason getReason() {
+        return reason;
+    }
+
+    /**
+     * @return the detail of the error, e.g. the number that could not
+     *         be parsed; null for incomplete rows
+     */
+    public String getMessage() {
+        return message;
+    }
+
+    public String getRow() {
+        return row;
+    }
+
+    @Override
+    public String toString() {
+        return "line " + lineNumber + ": " + reason + (message == null ? "" : " (" + message + ")") + ": " + row;
+    }
+}
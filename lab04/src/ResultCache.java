@@ -0,0 +1,146 @@
+package mountainhuts;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Cache of query results keyed by query name and parameters.
+ *
+ * Every entry records the data version it was computed at; the version
+ * is bumped by any change of the store (the cache listens to it) and by
+ * new altitude ranges, and an entry of an older version is a miss.
+ * Entries are evicted in least recently used order beyond the capacity.
+ *
+ * The cache is off unless given a capacity: results are then handed
+ * to the caller as computed, mutable like any other query result. With
+ * a capacity, results are shared by all callers, so they are stored
+ * unmodifiable, nested maps and lists included.
+ */
+final class ResultCache implements HutStore.Listener {
+
+    static final int DEFAULT_CAPACITY = 0;
+
+    // written only by the thread changing the data, under the write lock
+    private volatile long version;
+
+    private int capacity = DEFAULT_CAPACITY;
+    private final LinkedHashMap<List<Object>, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    private static final class Entry {
+        final long version;
+        final Object value;
+
+        Entry(long version, Object value) {
+            this.version = version;
+            this.value = value;
+        }
+    }
+
+    ResultCache(HutStore store) {
+        store.addListener(this);
+    }
+
+    /**
+     * @return the cached result for the key, or the one computed now
+     */
+    @SuppressWarnings("unchecked")
+    <T> T get(List<Object> key, Supplier<T> compute) {
+        long current = version;
+        boolean enabled;
+        synchronized (this) {
+            enabled = capacity > 0;
+            Entry entry = enabled ? entries.get(key) : null;
+            if (entry != null && entry.version == current) {
+                hits++;
+                return (T) entry.value;
+            }
+            misses++;
+            if (entry != null) entries.remove(key);
+        }
+        if (!enabled) return compute.get();
+        T result = freeze(compute.get());
+        synchronized (this) {
+            if (capacity > 0) {
+                entries.put(key, new Entry(current, result));
+                trim();
+            }
+        }
+        return result;
+    }
+
+    void invalidate() {
+        version++;
+    }
+
+    /**
+     * @return the data version, bumped by every change of the results
+     */
+    long version() {
+        return version;
+    }
+
+    synchronized void setCapacity(int capacity) {
+        this.capacity = Math.max(capacity, 0);
+        trim();
+    }
+
+    synchronized ResultCacheStats stats() {
+        return new ResultCacheStats(hits, misses, evictions, entries.size(), capacity);
+    }
+
+    private void trim() {
+        while (entries.size() > capacity) {
+            entries.remove(entries.keySet().iterator().next());
+            evictions++;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T freeze(T result) {
+        if (result instanceof Map) {
+            Map<Object, Object> copy = new LinkedHashMap<>();
+            ((Map<Object, Object>) result).forEach((k, v) -> copy.put(k, freeze(v)));
+            return (T) Collections.unmodifiableMap(copy);
+        }
+        if (result instanceof List) {
+            List<Object> copy = new ArrayList<>();
+            for (Object v : (List<Object>) result) copy.add(freeze(v));
+            return (T) Collections.unmodifiableList(copy);
+        }
+        return result;
+    }
+
+    // ---- store changes
+
+    @Override
+    public void hutAdded(int row) {
+        invalidate();
+    }
+
+    @Override
+    public void hutChanged(int row) {
+        invalidate();
+    }
+
+    @Override
+    public void hutRemoved(int row) {
+        invalidate();
+    }
+
+    @Override
+    public void municipalityAdded(int code) {
+        invalidate();
+    }
+
+    @Override
+    public void municipalityChanged(int code) {
+        invalidate();
+    }
+}
@@ -0,0 +1,112 @@
+package mountainhuts;
+
+import java.util.Arrays;
+
+/**
+ * Rows parsed by a loader and not yet inserted into the region.
+ *
+ * Loaders parse a run of rows into the batch and then insert them all
+ * at once, in order, so that the time spent parsing and inserting can
+ * be measured per batch rather than per row. The outcome is the same
+ * as inserting every row as soon as it is parsed.
+ */
+final class RowBatch implements RowSink {
+
+    /** Batch size for loaders that are not bounded by a buffer. */
+    static final int CAPACITY = 1024;
+
+    private final Region region;
+    private final RejectLog rejects;
+
+    private String[] provinces = new String[CAPACITY];
+    private String[] municipalities = new String[CAPACITY];
+    private Integer[] municipalityAltitudes = new Integer[CAPACITY];
+    private String[] names = new String[CAPACITY];
+    private int[] altitudes = new int[CAPACITY];
+    private String[] categories = new String[CAPACITY];
+    private int[] beds = new int[CAPACITY];
+    private int size;
+
+    private int rejected;
+    private LoadPhaseEvent parse;
+    private long parseStart;
+
+    RowBatch(Region region, RejectLog rejects) {
+        this.region = region;
+        this.rejects = rejects;
+        startParse();
+    }
+
+    @Override
+    public void add(String province, String municipality, Integer municipalityAltitude,
+             String name, int altitude, String category, int bedsNumber) {
+        if (size == names.length) grow();
+        provinces[size] = province;
+        municipalities[size] = municipality;
+        municipalityAltitudes[size] = municipalityAltitude;
+        names[size] = name;
+        altitudes[size] = altitude;
+        categories[size] = category;
+        beds[size] = bedsNumber;
+        size++;
+    }
+
+    @Override
+    public void reject(long position, RejectReason reason, String message, String row) {
+        rejected++;
+        rejects.reject(position, reason, message, row);
+    }
+
+    @Override
+    public boolean isFull() {
+        return size >= CAPACITY;
+    }
+
+    /**
+     * Ends the parse phase, inserts the rows into the region and starts
+     * the next parse phase.
+     *
+     * @return the number of rows inserted
+     */
+    @Override
+    public int flush() {
+        rejects.checkNotFailed(); // another chunk of the same load gave up
+        int rows = size;
+        parse.finish(region, LoadPhaseEvent.PARSE, parseStart, rows);
+        RegionMetrics metrics = region.metrics();
+        metrics.addRowsParsed(rows);
+        metrics.addRowsRejected(rejected);
+        rejected = 0;
+
+        LoadPhaseEvent insert = new LoadPhaseEvent();
+        insert.begin();
+        long start = System.nanoTime();
+        for (int i = 0; i < rows; i++) {
+            Municipality municipality = region.createOrGetMunicipality(municipalities[i], provinces[i], municipalityAltitudes[i]);
+            region.putMountainHut(names[i], altitudes[i], categories[i], beds[i], municipality);
+        }
+        insert.finish(region, LoadPhaseEvent.INSERT, start, rows);
+        // drop the references so that the strings can be collected
+        Arrays.fill(names, 0, rows, null);
+        size = 0;
+        startParse();
+        return rows;
+    }
+
+    private void startParse() {
+        parse = new LoadPhaseEvent();
+        parse.begin();
+        parseStart = System.nanoTime();
+    }
+
+    private void grow() {
+        int capacity = names.length * 2;
+        provinces = Arrays.copyOf(provinces, capacity);
+        municipalities = Arrays.copyOf(municipalities, capacity);
+        municipalityAltitudes = Arrays.copyOf(municipalityAltitudes, capacity);
+        names = Arrays.copyOf(names, capacity);
+        altitudes = Arrays.copyOf(altitudes, capacity);
+        categories = Arrays.copyOf(categories, capacity);
+        beds = Arrays.copyOf(beds, capacity);
+    }
+}
@@ -0,0 +1,41 @@
+package mountainhuts;
+
+import java.util.Arrays;
+
+/**
+ * The place of every row in the one {@link IntList} holding it, e.g.
+ * the rows of its municipality, so that a row leaves its list in
+ * constant time instead of a scan of the list.
+ */
+final class RowPositions {
+
+    private int[] positions = new int[16];
+
+    /**
+     * Appends the row to the list.
+     */
+    void add(IntList list, int row) {
+        set(row, list.size());
+        list.add(row);
+    }
+
+    /**
+     * Removes the row from the list it was added to, moving the last row
+     * of the list into its place.
+     */
+    void remove(IntList list, int row) {
+        int position = positions[row];
+        int moved = list.removeAt(position);
+        if (moved >= 0) positions[moved] = position;
+    }
+
+    /**
+     * Records the place of a row put in a list directly.
+     */
+    void set(int row, int position) {
+        if (row >= positions.length) {
+            positions = Arrays.copyOf(positions, Math.max(row + 1, positions.length + (positions.length >> 1)));
+        }
+        positions[row] = position;
+    }
+}
@@ -0,0 +1,32 @@
+package mountainhuts;
+
+/**
+ * Receives the rows parsed by a loader: a {@link RowBatch} inserts
+ * them into a region batch by batch, while the chunks of a
+ * {@link ParallelHutLoader} keep them all as columns until the load
+ * is merged.
+ */
+interface RowSink {
+
+    void add(String province, String municipality, Integer municipalityAltitude,
+             String name, int altitude, String category, int bedsNumber);
+
+    /**
+     * Records a row that is not loaded.
+     *
+     * @param position the line number, or the byte offset, of the row
+     */
+    void reject(long position, RejectReason reason, String message, String row);
+
+    /**
+     * @return whether the rows received so far should be flushed
+     */
+    boolean isFull();
+
+    /**
+     * Ends a run of rows, the last one included.
+     *
+     * @return the number of rows of the run
+     */
+    int flush();
+}
@@ -0,0 +1,49 @@
+package mountainhuts;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Dictionary encoding for repeated strings: every distinct value
+ * is kept once and referred to by a small dense int code.
+ */
+final class StringDictionary {
+
+    /** Code used for {@code null}. */
+    static final int NO_CODE = -1;
+
+    private final Map<String, Integer> codes = new HashMap<>();
+    private final List<String> values = new ArrayList<>();
+
+    /**
+     * @return the code of the value, adding it if it is new
+     */
+    int code(String value) {
+        if (value == null) return NO_CODE;
+        Integer code = codes.get(value);
+        if (code == null) {
+            code = values.size();
+            codes.put(value, code);
+            values.add(value);
+        }
+        return code;
+    }
+
+    /**
+     * @return the code of the value, or {@link #NO_CODE} if it is not in the dictionary
+     */
+    int find(String value) {
+        Integer code = value == null ? null : codes.get(value);
+        return code == null ? NO_CODE : code;
+    }
+
+    String value(int code) {
+        return code == NO_CODE ? null : values.get(code);
+    }
+
+    int size() {
+        return values.size();
+    }
+}
@@ -0,0 +1,154 @@
+package mountainhuts;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Deduplication pool for the values that repeat on every row of a
+ * mountain huts file (provinces, municipalities, categories).
+ *
+ * Values can be looked up straight from a char buffer or from the raw
+ * UTF-8 bytes of a byte buffer, so a String is created only the first
+ * time a value is seen; both lookups hand out the same instance for
+ * the same value. Not thread-safe.
+ */
+final class StringPool {
+
+    // open addressing by String.hashCode, probed from chars
+    private String[] values = new String[64];
+    private int size;
+
+    // open addressing by the raw bytes, probed from byte buffers
+    private byte[][] byteKeys = new byte[64][];
+    private String[] byteValues = new String[64];
+    private int byteSize;
+
+    /**
+     * @return the pooled String equal to {@code chars[from..to)}
+     */
+    String get(char[] chars, int from, int to) {
+        int hash = 0;
+        for (int i = from; i < to; i++) {
+            hash = 31 * hash + chars[i];
+        }
+        int mask = values.length - 1;
+        int slot = spread(hash) & mask;
+        String value;
+        while ((value = values[slot]) != null) {
+            if (matches(value, chars, from, to)) {
+                return value;
+            }
+            slot = (slot + 1) & mask;
+        }
+        value = new String(chars, from, to - from);
+        add(slot, value);
+        return value;
+    }
+
+    /**
+     * @return the pooled String equal to the given one
+     */
+    String get(String s) {
+        int mask = values.length - 1;
+        int slot = spread(s.hashCode()) & mask;
+        String value;
+        while ((value = values[slot]) != null) {
+            if (value.equals(s)) {
+                return value;
+            }
+            slot = (slot + 1) & mask;
+        }
+        add(slot, s);
+        return s;
+    }
+
+    /**
+     * @return the pooled String whose UTF-8 encoding is {@code buf[from..to)}
+     */
+    String get(ByteBuffer buf, int from, int to) {
+        int hash = 1;
+        for (int i = from; i < to; i++) {
+            hash = 31 * hash + buf.get(i);
+        }
+        int mask = byteKeys.length - 1;
+        int slot = spread(hash) & mask;
+        while (byteKeys[slot] != null) {
+            if (matches(byteKeys[slot], buf, from, to)) {
+                return byteValues[slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+        byte[] key = new byte[to - from];
+        buf.get(from, key);
+        String value = get(new String(key, StandardCharsets.UTF_8));
+        byteKeys[slot] = key;
+        byteValues[slot] = value;
+        if (++byteSize * 2 > byteKeys.length) {
+            rehashBytes();
+        }
+        return value;
+    }
+
+    int size() {
+        return size;
+    }
+
+    private void add(int slot, String value) {
+        values[slot] = value;
+        if (++size * 2 > values.length) {
+            String[] old = values;
+            values = new String[old.length * 2];
+            int mask = values.length - 1;
+            for (String v : old) {
+                if (v == null) continue;
+                int s = spread(v.hashCode()) & mask;
+                while (values[s] != null) {
+                    s = (s + 1) & mask;
+                }
+                values[s] = v;
+            }
+        }
+    }
+
+    private void rehashBytes() {
+        byte[][] oldKeys = byteKeys;
+        String[] oldValues = byteValues;
+        byteKeys = new byte[oldKeys.length * 2][];
+        byteValues = new String[oldKeys.length * 2];
+        int mask = byteKeys.length - 1;
+        for (int j = 0; j < oldKeys.length; j++) {
+            byte[] key = oldKeys[j];
+            if (key == null) continue;
+            int hash = 1;
+            for (byte b : key) {
+                hash = 31 * hash + b;
+            }
+            int slot = spread(hash) & mask;
+            while (byteKeys[slot] != null) {
+                slot = (slot + 1) & mask;
+            }
+            byteKeys[slot] = key;
+            byteValues[slot] = oldValues[j];
+        }
+    }
+
+    private static boolean matches(String value, char[] chars, int from, int to) {
+        if (value.length() != to - from) return false;
+        for (int i = 0; i < value.length(); i++) {
+            if (value.charAt(i) != chars[from + i]) return false;
+        }
+        return true;
+    }
+
+    private static boolean matches(byte[] key, ByteBuffer buf, int from, int to) {
+        if (key.length != to - from) return false;
+        for (int i = 0; i < key.length; i++) {
+            if (key[i] != buf.get(from + i)) return false;
+        }
+        return true;
+    }
+
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+}
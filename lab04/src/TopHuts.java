@@ -0,0 +1,159 @@
+package mountainhuts;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.IntFunction;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * The K huts with the most beds in every group, collected in one pass
+ * over the rows of a {@link HutStore}.
+ *
+ * Each group keeps a bounded min-heap of rows whose root is the worst
+ * hut kept, so a row is compared with the root only and memory is
+ * O(groups × K) whatever the number of huts. Ties on beds are broken
+ * in favour of the hut inserted first; huts without a beds number or
+ * without a group are skipped.
+ *
+ * Collectors over disjoint row ranges can be merged, which gives the
+ * same result as one collector over all of them, and so can groups
+ * sharing a label.
+ */
+final class TopHuts {
+
+    private final HutStore store;
+    private final int k;
+    // group of a row, or a negative value to skip it
+    private final IntUnaryOperator grouping;
+    private Heap[] heaps = new Heap[0];
+
+    TopHuts(HutStore store, int k, IntUnaryOperator grouping) {
+        if (k < 0) throw new IllegalArgumentException("Negative k: " + k);
+        this.store = store;
+        this.k = k;
+        this.grouping = grouping;
+    }
+
+    /**
+     * Offers the rows in {@code [from, to)}.
+     */
+    TopHuts scan(int from, int to) {
+        if (k == 0) return this;
+        for (int row = from; row < to; row++) {
+            if (store.beds(row) == HutStore.NO_VALUE || store.isDeleted(row)) continue;
+            int group = grouping.applyAsInt(row);
+            if (group < 0) continue;
+            heap(group).offer(row);
+        }
+        return this;
+    }
+
+    /**
+     * Adds the huts kept by another collector over different rows.
+     */
+    TopHuts merge(TopHuts other) {
+        if (k == 0) return this;
+        for (int group = 0; group < other.heaps.length; group++) {
+            Heap from = other.heaps[group];
+            if (from == null) continue;
+            Heap into = heap(group);
+            for (int i = 0; i < from.size; i++) into.offer(from.rows[i]);
+        }
+        return this;
+    }
+
+    /**
+     * @return the rows kept per label, the one with most beds first; the
+     *         groups with the same label are ranked together, as one group
+     */
+    Map<String, int[]> topPerLabel(IntFunction<String> label) {
+        Map<String, Heap> labelled = new HashMap<>();
+        for (int group = 0; group < heaps.length; group++) {
+            Heap from = heaps[group];
+            if (from == null || from.size == 0) continue;
+            Heap into = labelled.computeIfAbsent(label.apply(group), l -> new Heap(new int[Math.min(k, 16)], 0));
+            for (int i = 0; i < from.size; i++) into.offer(from.rows[i]);
+        }
+        Map<String, int[]> result = new HashMap<>();
+        labelled.forEach((l, heap) -> result.put(l, sorted(heap)));
+        return result;
+    }
+
+    // the rows of the heap, the one with most beds first
+    private int[] sorted(Heap heap) {
+        int[] sorted = Arrays.copyOf(heap.rows, heap.size);
+        // heap sort: repeatedly move the worst row to the end
+        Heap copy = new Heap(sorted, heap.size);
+        for (int end = heap.size - 1; end > 0; end--) {
+            int worst = copy.rows[0];
+            copy.rows[0] = copy.rows[end];
+            copy.size = end;
+            copy.siftDown(0);
+            copy.rows[end] = worst;
+        }
+        return sorted;
+    }
+
+    private Heap heap(int group) {
+        if (group >= heaps.length) heaps = Arrays.copyOf(heaps, Math.max(group + 1, heaps.length * 2));
+        Heap heap = heaps[group];
+        if (heap == null) {
+            heap = new Heap(new int[Math.min(k, 16)], 0);
+            heaps[group] = heap;
+        }
+        return heap;
+    }
+
+    // whether row a ranks below row b
+    private boolean worse(int a, int b) {
+        int bedsA = store.beds(a);
+        int bedsB = store.beds(b);
+        return bedsA != bedsB ? bedsA < bedsB : a > b;
+    }
+
+    private final class Heap {
+        int[] rows;
+        int size;
+
+        Heap(int[] rows, int size) {
+            this.rows = rows;
+            this.size = size;
+        }
+
+        void offer(int row) {
+            if (size < k) {
+                if (size == rows.length) rows = Arrays.copyOf(rows, Math.min(k, rows.length * 2));
+                rows[size] = row;
+                siftUp(size++);
+            } else if (worse(rows[0], row)) {
+                rows[0] = row;
+                siftDown(0);
+            }
+        }
+
+        void siftUp(int i) {
+            int row = rows[i];
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (!worse(row, rows[parent])) break;
+                rows[i] = rows[parent];
+                i = parent;
+            }
+            rows[i] = row;
+        }
+
+        void siftDown(int i) {
+            int row = rows[i];
+            int half = size >>> 1;
+            while (i < half) {
+                int child = 2 * i + 1;
+                if (child + 1 < size && worse(rows[child + 1], rows[child])) child++;
+                if (!worse(rows[child], row)) break;
+                rows[i] = rows[child];
+                i = child;
+            }
+            rows[i] = row;
+        }
+    }
+}
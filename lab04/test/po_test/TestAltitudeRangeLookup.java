@@ -0,0 +1,52 @@
+package it.polito.po.test;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import mountainhuts.Region;
+
+public class TestAltitudeRangeLookup {
+
+	// reference first-match scan over the range definitions
+	static String firstMatch(String[] ranges, int altitude) {
+		for (String r : ranges) {
+			String[] p = r.split("-");
+			int min = Integer.parseInt(p[0]);
+			int max = p[1].equals("INF") ? Integer.MAX_VALUE : Integer.parseInt(p[1]);
+			if (altitude >= min && altitude <= max) return r;
+		}
+		return "0-INF";
+	}
+
+	@Test
+	public void testOverlappingUnsortedRanges() {
+		Region r = new Region("Piemonte");
+		String[] ranges = { "2000-3000", "1000-2500", "0-1000", "500-700", "2800-INF", "1500-1400", "0-1000" };
+		r.setAltitudeRanges(ranges);
+
+		int[] probes = { -10, 0, 499, 500, 700, 1000, 1001, 1999, 2000, 2500, 2501, 2799, 2800,
+				3000, 3001, 9999, 10000, 12000, Integer.MAX_VALUE, Integer.MIN_VALUE };
+		for (int a : probes) {
+			assertEquals("Wrong range for " + a, firstMatch(ranges, a), r.getAltitudeRange(a));
+		}
+	}
+
+	@Test
+	public void testRandomFineGrainedRanges() {
+		Random rnd = new Random(42);
+		Region r = new Region("Piemonte");
+		String[] ranges = new String[300];
+		for (int i = 0; i < ranges.length; i++) {
+			int min = rnd.nextInt(12000);
+			ranges[i] = min + "-" + (min + rnd.nextInt(400));
+		}
+		r.setAltitudeRanges(ranges);
+
+		for (int a = -1000; a < 13000; a += 7) {
+			assertEquals("Wrong range for " + a, firstMatch(ranges, a), r.getAltitudeRange(a));
+		}
+	}
+}
@@ -0,0 +1,94 @@
+package it.polito.po.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+import org.junit.Test;
+
+import mountainhuts.MountainHut;
+import mountainhuts.Municipality;
+import mountainhuts.Region;
+
+public class TestAltitudeWindows {
+
+	static List<MountainHut> scan(Region r, int min, int max) {
+		return r.getMountainHuts().stream()
+				.filter(h -> TestMaterializedAggregates.effectiveAltitude(h) != null)
+				.filter(h -> {
+					int a = TestMaterializedAggregates.effectiveAltitude(h);
+					return a >= min && a <= max;
+				})
+				.collect(Collectors.toList());
+	}
+
+	static void assertSameAsScan(Region r, int min, int max) {
+		List<MountainHut> expected = scan(r, min, max);
+		List<MountainHut> found = r.getMountainHutsBetween(min, max);
+		assertEquals("Wrong count in " + min + ".." + max, expected.size(), r.countMountainHutsBetween(min, max));
+		assertEquals("Wrong huts in " + min + ".." + max,
+				expected.stream().map(MountainHut::getName).sorted().collect(Collectors.toList()),
+				found.stream().map(MountainHut::getName).sorted().collect(Collectors.toList()));
+		for (int i = 1; i < found.size(); i++) {
+			assertFalse("Huts not sorted by altitude",
+					TestMaterializedAggregates.effectiveAltitude(found.get(i - 1))
+							> TestMaterializedAggregates.effectiveAltitude(found.get(i)));
+		}
+		Optional<Integer> nearest = r.getMountainHuts().stream()
+				.map(TestMaterializedAggregates::effectiveAltitude)
+				.filter(a -> a != null && a >= min)
+				.min(Comparator.naturalOrder());
+		assertEquals("Wrong nearest above " + min, nearest,
+				r.getNearestMountainHutAbove(min).map(TestMaterializedAggregates::effectiveAltitude));
+	}
+
+	@Test
+	public void testWindows() {
+		Region r = Region.fromFile("Piemonte", TestR3_ReadData.file);
+		assertSameAsScan(r, 1800, 2400);
+		assertSameAsScan(r, 0, Integer.MAX_VALUE);
+		assertSameAsScan(r, 2400, 1800);
+		assertSameAsScan(r, 5000, 6000);
+		assertEquals("Nothing above the highest hut", Optional.empty(), r.getNearestMountainHutAbove(20000));
+	}
+
+	@Test
+	public void testWindowsFollowMutations() {
+		Region r = Region.fromFile("Piemonte", TestR3_ReadData.file);
+		Municipality m = r.createOrGetMunicipality("Far", "Somewhere", -3000);
+		r.createOrGetMountainHut("Deep", "Bivacco", 1, m);
+		r.createOrGetMountainHut("Space", 15000, "Bivacco", 1, m);
+		Random rnd = new Random(5);
+		r.countMountainHutsBetween(0, 1); // build the index before mutating
+		for (int round = 0; round < 30; round++) {
+			TestMaterializedAggregates.mutate(r, rnd, 20);
+			int min = rnd.nextInt(3000) - 500;
+			assertSameAsScan(r, min, min + rnd.nextInt(1500));
+		}
+		assertSameAsScan(r, Integer.MIN_VALUE, Integer.MAX_VALUE);
+		assertSameAsScan(r, -5000, -2000);
+		assertSameAsScan(r, 12000, 20000);
+	}
+
+	@Test
+	public void testMunicipalityAltitudeMovesHuts() {
+		Region r = new Region("Piemonte");
+		Municipality m = r.createOrGetMunicipality("Acceglio", "Cuneo", 1200);
+		r.createOrGetMountainHut("Inherits", "Rifugio", 10, m);
+		r.createOrGetMountainHut("Own", 2500, "Rifugio", 10, m);
+		assertEquals("Wrong count", 1, r.countMountainHutsBetween(1000, 1500));
+
+		m.setAltitude(2100);
+		assertEquals("Wrong count", 0, r.countMountainHutsBetween(1000, 1500));
+		List<String> names = new ArrayList<>();
+		r.getMountainHutsBetween(2000, 3000).forEach(h -> names.add(h.getName()));
+		assertEquals("Wrong huts", List.of("Inherits", "Own"), names);
+		assertEquals("Wrong nearest", "Inherits", r.getNearestMountainHutAbove(1300).get().getName());
+	}
+}
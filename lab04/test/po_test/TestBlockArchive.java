@@ -0,0 +1,111 @@
+package it.polito.po.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+
+import org.junit.Test;
+
+import mountainhuts.HutArchive;
+import mountainhuts.MountainHut;
+import mountainhuts.Region;
+
+public class TestBlockArchive {
+
+	private static final String[] RANGES = { "0-1000", "1001-1500", "1501-2000", "2001-INF" };
+
+	private static Region region() {
+		Region r = Region.fromFile("Piemonte", TestR3_ReadData.file);
+		r.setAltitudeRanges(RANGES);
+		return r;
+	}
+
+	private static Map<String, Long> countPerRange(Region r, Predicate<MountainHut> filter) {
+		return r.getMountainHuts().stream().filter(filter)
+				.collect(Collectors.groupingBy(h -> r.getAltitudeRange(TestMaterializedAggregates.effectiveAltitude(h)),
+						Collectors.counting()));
+	}
+
+	private static Map<String, Optional<Integer>> maxBedsPerRange(Region r, Predicate<MountainHut> filter) {
+		return r.getMountainHuts().stream().filter(filter)
+				.collect(Collectors.groupingBy(h -> r.getAltitudeRange(TestMaterializedAggregates.effectiveAltitude(h)),
+						Collectors.mapping(MountainHut::getBedsNumber, Collectors.maxBy(Integer::compare))));
+	}
+
+	@Test
+	public void testSameAsRegion() throws IOException {
+		Region r = region();
+		Path file = TestSnapshot.tempSnapshot();
+		r.saveBlocks(file, 16);
+		try (HutArchive archive = HutArchive.open(file)) {
+			assertEquals("Wrong name", "Piemonte", archive.getName());
+			assertEquals("Wrong size", r.getMountainHuts().size(), archive.size());
+			assertEquals("Wrong ranges", List.of(RANGES), archive.getAltitudeRanges());
+			assertEquals("Wrong huts per altitude range", r.countMountainHutsPerAltitudeRange(),
+					archive.findMountainHuts().countMountainHutsPerAltitudeRange());
+			assertEquals("Wrong max beds per altitude range", r.maximumBedsNumberPerAltitudeRange(),
+					archive.findMountainHuts().maximumBedsNumberPerAltitudeRange());
+			assertEquals("Wrong huts for other ranges", countPerRange(Region.fromFile("Piemonte", TestR3_ReadData.file), h -> true),
+					archive.findMountainHuts().countMountainHutsPerAltitudeRange("0-INF"));
+			assertEquals("Wrong names", r.getMountainHuts().stream().map(MountainHut::getName).sorted().collect(Collectors.toList()),
+					archive.findMountainHuts().names().stream().sorted().collect(Collectors.toList()));
+		}
+	}
+
+	@Test
+	public void testFilters() throws IOException {
+		Region r = region();
+		Path file = TestSnapshot.tempSnapshot();
+		r.saveBlocks(file, 16);
+		Predicate<MountainHut> cuneo = h -> h.getMunicipality().getProvince().equals("CUNEO");
+		Predicate<MountainHut> high = h -> TestMaterializedAggregates.effectiveAltitude(h) >= 1800
+				&& TestMaterializedAggregates.effectiveAltitude(h) <= 2500;
+		Predicate<MountainHut> large = h -> h.getBedsNumber() >= 20;
+		try (HutArchive archive = HutArchive.open(file)) {
+			assertEquals("Wrong huts in CUNEO", countPerRange(r, cuneo),
+					archive.findMountainHuts().province("CUNEO").countMountainHutsPerAltitudeRange());
+			assertEquals("Wrong huts in CUNEO and TORINO",
+					countPerRange(r, h -> List.of("CUNEO", "TORINO").contains(h.getMunicipality().getProvince())),
+					archive.findMountainHuts().province("CUNEO", "TORINO").countMountainHutsPerAltitudeRange());
+			assertEquals("Wrong high huts", r.getMountainHuts().stream().filter(high).count(),
+					archive.findMountainHuts().minAltitude(1800).maxAltitude(2500).count());
+			assertEquals("Wrong large high huts in CUNEO", maxBedsPerRange(r, cuneo.and(high).and(large)),
+					archive.findMountainHuts().province("CUNEO").minAltitude(1800).maxAltitude(2500).minBeds(20)
+							.maximumBedsNumberPerAltitudeRange());
+			assertEquals("Wrong names", r.getMountainHuts().stream().filter(cuneo.and(large)).map(MountainHut::getName)
+					.sorted().collect(Collectors.toList()),
+					archive.findMountainHuts().province("CUNEO").minBeds(20).names().stream().sorted().collect(Collectors.toList()));
+			assertEquals("Unknown province", 0, archive.findMountainHuts().province("ASTI").count());
+		}
+	}
+
+	@Test
+	public void testBlocksSkipped() throws IOException {
+		Region r = region();
+		Path file = TestSnapshot.tempSnapshot();
+		r.saveBlocks(file, 8);
+		try (HutArchive archive = HutArchive.open(file)) {
+			int blocks = archive.getBlockCount();
+			assertEquals("Wrong block count", (r.getMountainHuts().size() + 7) / 8, blocks);
+
+			archive.findMountainHuts().province("BIELLA").countMountainHutsPerAltitudeRange();
+			assertTrue("Blocks of other provinces must be skipped", archive.getBlocksSkipped() > blocks / 2);
+
+			long bytes = archive.getBytesRead();
+			long skipped = archive.getBlocksSkipped();
+			assertEquals("Wrong count", r.getMountainHuts().size(), archive.findMountainHuts().count());
+			assertEquals("A plain count reads no column", bytes, archive.getBytesRead());
+			assertEquals("A plain count skips no block", skipped, archive.getBlocksSkipped());
+
+			archive.findMountainHuts().minAltitude(3000).count();
+			assertTrue("Low blocks must be skipped", archive.getBlocksSkipped() > skipped + blocks / 2);
+		}
+	}
+}
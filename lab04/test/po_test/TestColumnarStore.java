@@ -0,0 +1,97 @@
+package it.polito.po.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Map;
+import java.util.Optional;
+
+import org.junit.Test;
+
+import mountainhuts.MountainHut;
+import mountainhuts.Municipality;
+import mountainhuts.Region;
+
+public class TestColumnarStore {
+
+	@Test
+	public void testViewsReflectSetters() {
+		Region r = new Region("Piemonte");
+		Municipality acceglio = r.createOrGetMunicipality("Acceglio", "Cuneo", 1200);
+		Municipality torino = r.createOrGetMunicipality("Torino", "Torino", 245);
+		MountainHut h = r.createOrGetMountainHut("Campo Base", "Rifugio", 32, acceglio);
+		r.setAltitudeRanges("0-1000", "1001-1500");
+
+		assertEquals("Wrong range count", Long.valueOf(1), r.countMountainHutsPerAltitudeRange().get("1001-1500"));
+
+		h.setBedsNumber(40);
+		h.setCategory("Bivacco");
+		acceglio.setAltitude(800);
+
+		MountainHut same = r.getMountainHuts().iterator().next();
+		assertEquals("Views of the same row must be equal", h, same);
+		assertEquals("Wrong beds", Integer.valueOf(40), same.getBedsNumber());
+		assertEquals("Wrong category", "Bivacco", same.getCategory());
+		assertEquals("Wrong range count", Long.valueOf(1), r.countMountainHutsPerAltitudeRange().get("0-1000"));
+
+		h.setMunicipality(torino);
+		assertSame("Wrong municipality", torino, h.getMunicipality());
+		assertEquals("Wrong beds per province", Integer.valueOf(40), r.totalBedsNumberPerProvince().get("Torino"));
+		assertNull("Province without huts", r.totalBedsNumberPerProvince().get("Cuneo"));
+
+		torino.setProvince("TO");
+		assertEquals("Wrong beds per province", Integer.valueOf(40), r.totalBedsNumberPerProvince().get("TO"));
+	}
+
+	@Test
+	public void testDetachedHut() {
+		Municipality m = new Municipality("Bobbio Pellice", "Torino", 732);
+		MountainHut h = new MountainHut("Barant", 2373, "Rifugio", null, m);
+
+		assertEquals("Wrong name", "Barant", h.getName());
+		assertEquals("Wrong altitude", Optional.of(2373), h.getAltitude());
+		assertNull("Wrong beds", h.getBedsNumber());
+		assertSame("Wrong municipality", m, h.getMunicipality());
+
+		Region r = new Region("Piemonte");
+		MountainHut inRegion = r.createOrGetMountainHut("Barant", 2373, "Rifugio", 10, m);
+		assertSame("Wrong municipality", m, inRegion.getMunicipality());
+		assertEquals("User-built municipality is not part of the region", 0, r.getMunicipalities().size());
+		assertTrue("User-built municipality is not counted", r.countMunicipalitiesPerProvince().isEmpty());
+		assertEquals("Wrong beds per province", Integer.valueOf(10), r.totalBedsNumberPerProvince().get("Torino"));
+		assertTrue("Detached hut is not part of the region", !r.getMountainHuts().contains(h));
+
+		h.setBedsNumber(12);
+		h.setCategory("Bivacco");
+		assertEquals("Wrong beds", Integer.valueOf(12), h.getBedsNumber());
+		assertEquals("Wrong category", "Bivacco", h.getCategory());
+		assertEquals("Region hut must not change", Integer.valueOf(10), inRegion.getBedsNumber());
+		assertTrue("Detached huts are distinct", !h.equals(new MountainHut("Barant", 2373, "Rifugio", null, m)));
+	}
+
+	@Test
+	public void testAdoptedMunicipalityChanges() {
+		for (int cacheSize : new int[] { 0, 16 }) {
+			Region owner = new Region("Piemonte");
+			Municipality m = owner.createOrGetMunicipality("M", "TO", 700);
+			Region r = new Region("Adopting");
+			r.setResultCacheSize(cacheSize);
+			r.setAltitudeRanges("0-1000", "1001-INF");
+			r.createOrGetMountainHut("H", "Rifugio", 10, m);
+			assertEquals("Wrong beds per province", Map.of("TO", 10), r.totalBedsNumberPerProvince());
+			assertEquals("Wrong range count", Map.of("0-1000", 1L), r.countMountainHutsPerAltitudeRange());
+
+			m.setProvince("CN");
+			m.setAltitude(1200);
+			assertEquals("Adopting region must see the new province", Map.of("CN", 10), r.totalBedsNumberPerProvince());
+			assertEquals("Adopting region must see the new province", Map.of("CN", Map.of("M", 1L)),
+					r.countMountainHutsPerMunicipalityPerProvince());
+			assertEquals("Adopting region must see the new altitude", Map.of("1001-INF", 1L),
+					r.countMountainHutsPerAltitudeRange());
+			assertEquals("Owner must see the new province", Map.of("CN", 1L), owner.countMunicipalitiesPerProvince());
+			TestMaterializedAggregates.assertSameAsScan(r);
+		}
+	}
+}
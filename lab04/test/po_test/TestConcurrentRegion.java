@@ -0,0 +1,95 @@
+package it.polito.po.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import mountainhuts.MountainHut;
+import mountainhuts.Municipality;
+import mountainhuts.Region;
+
+public class TestConcurrentRegion {
+
+	@Test
+	public void testConcurrentCreateOrGet() throws Exception {
+		Region r = Region.concurrent("Piemonte");
+		int threads = 8;
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		CountDownLatch start = new CountDownLatch(1);
+		List<Future<List<MountainHut>>> results = new ArrayList<>();
+		for (int t = 0; t < threads; t++) {
+			int id = t;
+			results.add(pool.submit(() -> {
+				start.await();
+				List<MountainHut> got = new ArrayList<>();
+				for (int i = 0; i < 2000; i++) {
+					Municipality m = r.createOrGetMunicipality("M" + i % 50, "P" + i % 5, 1000 + id);
+					got.add(r.createOrGetMountainHut("H" + i, 1500, "Rifugio", id, m));
+				}
+				return got;
+			}));
+		}
+		start.countDown();
+		List<List<MountainHut>> all = new ArrayList<>();
+		for (Future<List<MountainHut>> f : results) {
+			all.add(f.get(30, TimeUnit.SECONDS));
+		}
+		pool.shutdown();
+
+		for (List<MountainHut> got : all) {
+			for (int i = 0; i < got.size(); i++) {
+				assertSame("Every thread must get the same hut", all.get(0).get(i), got.get(i));
+			}
+		}
+		assertEquals("Wrong number of huts", 2000, r.getMountainHuts().size());
+		assertEquals("Wrong number of municipalities", 50, r.getMunicipalities().size());
+		int beds = r.totalBedsNumberPerProvince().values().stream().mapToInt(Integer::intValue).sum();
+		int expected = r.getMountainHuts().stream().mapToInt(MountainHut::getBedsNumber).sum();
+		assertEquals("Wrong total beds", expected, beds);
+	}
+
+	@Test
+	public void testQueriesWhileWriting() throws Exception {
+		Region r = Region.concurrent("Piemonte");
+		Municipality m = r.createOrGetMunicipality("Acceglio", "Cuneo", 1200);
+		ConcurrentLinkedQueue<Throwable> errors = new ConcurrentLinkedQueue<>();
+		Thread writer = new Thread(() -> {
+			try {
+				for (int i = 0; i < 5000; i++) {
+					MountainHut h = r.createOrGetMountainHut("H" + i, i % 3000, "Rifugio", 1, m);
+					h.setBedsNumber(2);
+					if (i % 500 == 0) r.setAltitudeRanges("0-1000", "1001-" + (1500 + i % 1000));
+				}
+			} catch (Throwable e) {
+				errors.add(e);
+			}
+		});
+		writer.start();
+		while (writer.isAlive()) {
+			try {
+				Map<String, Long> counts = r.countMountainHutsPerAltitudeRange();
+				long total = counts.values().stream().mapToLong(Long::longValue).sum();
+				Map<String, Integer> beds = r.totalBedsNumberPerProvince();
+				assertTrue("Inconsistent snapshot", total >= 0 && (beds.isEmpty() || beds.get("Cuneo") > 0));
+				r.getAltitudeRange(1200);
+			} catch (Throwable e) {
+				errors.add(e);
+			}
+		}
+		writer.join();
+		assertTrue("Errors while running: " + errors, errors.isEmpty());
+		assertEquals("Wrong total beds", Integer.valueOf(10000), r.totalBedsNumberPerProvince().get("Cuneo"));
+	}
+}
@@ -0,0 +1,210 @@
+package it.polito.po.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.Test;
+
+import mountainhuts.DeltaReport;
+import mountainhuts.HutArchive;
+import mountainhuts.MountainHut;
+import mountainhuts.RejectLimitExceededException;
+import mountainhuts.RejectPolicy;
+import mountainhuts.RejectReport;
+import mountainhuts.Region;
+
+public class TestDelta {
+
+	private static final String[] RANGES = { "0-1000", "1001-1500", "1501-2000", "2001-INF" };
+	private static final String HEADER = "Province;Municipality;MunicipalityAltitude;Name;Altitude;Category;BedsNumber;Operation";
+
+	@Test
+	public void testSameAsReload() throws IOException {
+		Region r = Region.fromFile("Piemonte", TestR3_ReadData.file);
+		r.setAltitudeRanges(RANGES);
+		TestMaterializedAggregates.assertSameAsScan(r); // aggregates are built before the delta
+		MountainHut dosso = r.getMountainHut("IL DOSSO");
+
+		String delta = TestMappedLoader.writeTemp(HEADER + "\n"
+				+ ";;;SESTO CALENDE;;;;DELETE\n"
+				+ "VERBANO-CUSIO-OSSOLA;BOGNANCO;980;IL DOSSO;1740;Rifugio Alpino;45\n"
+				+ "VERBANO-CUSIO-OSSOLA;BOGNANCO;980;BLITZ;;Rifugio Alpino;4\n"
+				+ "VERBANO-CUSIO-OSSOLA;BEURA-CARDEZZA;257;ALPE POZZOLO;1640;Bivacco Fisso;15\n"
+				+ "TORINO;CERESOLE REALE;1620;NUOVO RIFUGIO;1900;Rifugio Alpino;30\n"
+				+ ";;;RIFUGIO CHE NON C'E';;;;delete\n");
+		DeltaReport report = r.applyDelta(Paths.get(delta));
+
+		assertEquals("Wrong inserted", 1, report.getInserted());
+		assertEquals("Wrong updated", 2, report.getUpdated());
+		assertEquals("Wrong deleted", 1, report.getDeleted());
+		assertEquals("Wrong unchanged", 2, report.getUnchanged());
+		assertEquals("Wrong changed provinces", Set.of("VERBANO-CUSIO-OSSOLA", "TORINO"), report.getChangedProvinces());
+		assertEquals("Wrong changed ranges", Set.of("0-1000", "1001-1500", "1501-2000"), report.getChangedAltitudeRanges());
+
+		List<String> edited = new ArrayList<>();
+		for (String line : Files.readAllLines(Paths.get(TestR3_ReadData.file))) {
+			if (line.contains(";SESTO CALENDE;")) continue;
+			if (line.contains(";IL DOSSO;")) line = "VERBANO-CUSIO-OSSOLA;BOGNANCO;980;IL DOSSO;1740;Rifugio Alpino;45";
+			if (line.contains(";BLITZ;")) line = "VERBANO-CUSIO-OSSOLA;BOGNANCO;980;BLITZ;;Rifugio Alpino;4";
+			edited.add(line);
+		}
+		edited.add("TORINO;CERESOLE REALE;1620;NUOVO RIFUGIO;1900;Rifugio Alpino;30");
+		Region expected = Region.fromFile("Piemonte", TestMappedLoader.writeTemp(String.join("\n", edited)));
+
+		assertEquals("Different huts than a reload", TestMappedLoader.describe(expected), TestMappedLoader.describe(r));
+		assertEquals("Updated huts keep their object", dosso, r.getMountainHut("IL DOSSO"));
+		assertEquals("Wrong beds", Integer.valueOf(45), dosso.getBedsNumber());
+		assertNull("Deleted hut", r.getMountainHut("SESTO CALENDE"));
+		TestMaterializedAggregates.assertSameAsScan(r);
+		assertEquals("Wrong huts between", expected.countMountainHutsBetween(1000, 2000), r.countMountainHutsBetween(1000, 2000));
+		assertEquals("Wrong query", expected.findMountainHuts().minBeds(20).count(), r.findMountainHuts().minBeds(20).count());
+		assertEquals("Wrong query", expected.findMountainHuts().count(), r.findMountainHuts().count());
+	}
+
+	@Test
+	public void testDeletedHuts() throws IOException {
+		Region r = new Region("Piemonte");
+		r.ingest(Stream.of("CUNEO;ACCEGLIO;1200;A;1660;Rifugio;32", "CUNEO;ACCEGLIO;1200;B;;Bivacco;10",
+				"TORINO;BUSSOLENO;440;C;2000;Rifugio;7"));
+		MountainHut a = r.getMountainHut("A");
+
+		DeltaReport report = r.applyDelta(new StringReader(HEADER + "\n"
+				+ ";;;A;;;;DELETE\n"
+				+ "CUNEO;ACCEGLIO;1200;B;;Bivacco;12\n"
+				+ "CUNEO;ACCEGLIO;1200;B;;Bivacco;14;DELETE"));
+		assertEquals("The last row of a name wins", 2, report.getDeleted());
+		assertEquals("Wrong updated", 0, report.getUpdated());
+		assertEquals("Wrong huts", 1, r.getMountainHuts().size());
+		assertEquals("Wrong huts per province", 1, r.countMountainHutsPerMunicipalityPerProvince().size());
+		try {
+			a.setBedsNumber(40);
+			fail("A deleted hut cannot change");
+		} catch (IllegalStateException e) {
+			// expected
+		}
+
+		report = r.applyDelta(Stream.of("CUNEO;ACCEGLIO;1200;A;1700;Rifugio;20"));
+		assertEquals("Wrong inserted", 1, report.getInserted());
+		assertNotSame("A new hut", a, r.getMountainHut("A"));
+		assertEquals("Wrong beds", Integer.valueOf(20), r.getMountainHut("A").getBedsNumber());
+		TestMaterializedAggregates.assertSameAsScan(r);
+
+		Path snapshot = TestSnapshot.tempSnapshot();
+		r.saveSnapshot(snapshot);
+		assertEquals("Deleted huts are not saved", TestMappedLoader.describe(r),
+				TestMappedLoader.describe(Region.loadSnapshot(snapshot)));
+		Path blocks = TestSnapshot.tempSnapshot();
+		r.saveBlocks(blocks);
+		try (HutArchive archive = HutArchive.open(blocks)) {
+			assertEquals("Deleted huts are not archived", 2, archive.size());
+		}
+	}
+
+	@Test
+	public void testDeleteHalf() throws IOException {
+		for (Region r : List.of(Region.fromFile("Piemonte", TestR3_ReadData.file),
+				Region.fromFileOffHeap("Piemonte", TestR3_ReadData.file))) {
+			r.setAltitudeRanges(RANGES);
+			List<String> names = r.getMountainHuts().stream().map(MountainHut::getName).collect(Collectors.toList());
+			List<String> deletes = new ArrayList<>();
+			for (int i = 0; i < names.size(); i += 2) deletes.add(";;;" + names.get(i) + ";;;;DELETE");
+			assertEquals("Wrong deleted", deletes.size(), r.applyDelta(deletes.stream()).getDeleted());
+
+			for (int i = 0; i < names.size(); i++) {
+				if (i % 2 == 0) assertNull("Deleted hut", r.getMountainHut(names.get(i)));
+				else assertNotNull("Hut lost by a delete", r.getMountainHut(names.get(i)));
+			}
+			assertEquals("Wrong huts", names.size() - deletes.size(), r.getMountainHuts().size());
+			TestMaterializedAggregates.assertSameAsScan(r);
+		}
+	}
+
+	@Test
+	public void testRejects() throws IOException {
+		Region r = Region.fromFile("Piemonte", TestR3_ReadData.file);
+		List<RejectReport> reports = new ArrayList<>();
+		r.setRejectPolicy(RejectPolicy.to(reports::add));
+		DeltaReport report = r.applyDelta(Stream.of(HEADER, "CUNEO;ACCEGLIO", "CUNEO;ACCEGLIO;1200;X;;Bivacco;x",
+				";;;;;;;DELETE", "CUNEO;ACCEGLIO;1200;X;;Bivacco;3"));
+		assertEquals("One report per delta", 1, reports.size());
+		assertEquals("Wrong rejected count", 3, reports.get(0).getRejectedRows());
+		assertEquals("Wrong inserted", 1, report.getInserted());
+	}
+
+	@Test
+	public void testAbortedDelta() {
+		Region r = new Region("Piemonte");
+		r.ingest(Stream.of("CUNEO;ACCEGLIO;1200;A;1660;Rifugio;32"));
+		r.setRejectPolicy(RejectPolicy.to(report -> { }).failAfter(0));
+		try {
+			r.applyDelta(Stream.of("TORINO;NEWMUNI;800;B;;Bivacco;4", "TORINO;NEWMUNI;800;C;;Bivacco;x"));
+			fail("The bad row must abort the delta");
+		} catch (RejectLimitExceededException e) {
+			// expected
+		}
+		assertEquals("No municipality from an aborted delta", 1, r.getMunicipalities().size());
+		assertEquals("No municipality from an aborted delta", Map.of("CUNEO", 1L), r.countMunicipalitiesPerProvince());
+		assertNull("No hut from an aborted delta", r.getMountainHut("B"));
+
+		r.setRejectPolicy(RejectPolicy.to(report -> { }));
+		r.applyDelta(Stream.of("TORINO;NEWMUNI;800;B;;Bivacco;4", "TORINO;OTHERMUNI;300;B;;Bivacco;4",
+				"TORINO;NEWMUNI;800;C;;Bivacco;4", ";;;C;;;;DELETE"));
+		assertEquals("Superseded rows create no municipality", Map.of("CUNEO", 1L, "TORINO", 1L),
+				r.countMunicipalitiesPerProvince());
+		assertEquals("Wrong municipalities", 2, r.getMunicipalities().size());
+		TestMaterializedAggregates.assertSameAsScan(r);
+	}
+
+	@Test
+	public void testDeletesInLargeMunicipality() {
+		List<String> rows = new ArrayList<>();
+		for (int i = 0; i < 300_000; i++) {
+			rows.add("TORINO;GRANDE;" + (i % 3 == 0 ? "" : "500") + ";H" + i + ";" + (i % 2 == 0 ? "" : String.valueOf(1000 + i % 2000))
+					+ ";Rifugio;" + (i % 5));
+		}
+		Region r = new Region("Piemonte");
+		r.ingest(rows.stream());
+		r.setAltitudeRanges(RANGES);
+		// indexes and aggregates built before the deletes
+		r.findMountainHuts().municipality("GRANDE").minBeds(2).count();
+		r.countMountainHutsBetween(0, 5000);
+		TestMaterializedAggregates.assertSameAsScan(r);
+
+		List<String> deletes = new ArrayList<>();
+		List<String> kept = new ArrayList<>();
+		// latest rows first, the farthest from the head of the municipality list
+		for (int i = rows.size() - 1; i >= 0; i--) {
+			if (i % 10 == 3) deletes.add(";;;H" + i + ";;;;DELETE");
+			else kept.add(rows.get(i));
+		}
+		long start = System.nanoTime();
+		assertEquals("Wrong deleted", deletes.size(), r.applyDelta(deletes.stream()).getDeleted());
+		long millis = (System.nanoTime() - start) / 1_000_000;
+		assertTrue("Deletes must not scan the municipality: " + millis + " ms", millis < 2000);
+
+		Region expected = new Region("Piemonte");
+		expected.ingest(kept.stream());
+		assertEquals("Wrong huts in the municipality", expected.findMountainHuts().municipality("GRANDE").count(),
+				r.findMountainHuts().municipality("GRANDE").count());
+		assertEquals("Wrong beds query", expected.findMountainHuts().minBeds(2).maxBeds(3).count(),
+				r.findMountainHuts().minBeds(2).maxBeds(3).count());
+		assertEquals("Wrong huts between", expected.countMountainHutsBetween(1200, 2400), r.countMountainHutsBetween(1200, 2400));
+		TestMaterializedAggregates.assertSameAsScan(r);
+	}
+}
@@ -0,0 +1,90 @@
+package it.polito.po.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+import org.junit.Test;
+
+import mountainhuts.MountainHut;
+import mountainhuts.Municipality;
+import mountainhuts.Region;
+
+public class TestHutQuery {
+
+	static List<String> names(List<MountainHut> huts) {
+		return huts.stream().map(MountainHut::getName).sorted().collect(Collectors.toList());
+	}
+
+	@Test
+	public void testLookupByName() {
+		Region r = Region.fromFile("Piemonte", TestR3_ReadData.file);
+		MountainHut h = r.getMountainHut("LONGA");
+		assertEquals("Wrong hut", "LONGA", h.getName());
+		assertSame("Lookup must return the same hut", h,
+				r.createOrGetMountainHut("LONGA", "Rifugio", 1, h.getMunicipality()));
+		assertNull("Unknown hut", r.getMountainHut("Nowhere"));
+	}
+
+	@Test
+	public void testFilters() {
+		Region r = Region.fromFile("Piemonte", TestR3_ReadData.file);
+		List<MountainHut> all = new ArrayList<>(r.getMountainHuts());
+
+		assertEquals("Wrong huts for category and beds",
+				names(all.stream().filter(h -> h.getCategory().equals("Bivacco Fisso") && h.getBedsNumber() > 8)
+						.collect(Collectors.toList())),
+				names(r.findMountainHuts().category("Bivacco Fisso").minBeds(9).list()));
+		assertEquals("Wrong huts for province",
+				all.stream().filter(h -> h.getMunicipality().getProvince().equals("CUNEO")).count(),
+				r.findMountainHuts().province("CUNEO").count());
+		assertEquals("Unknown values match nothing", 0, r.findMountainHuts().province("NOWHERE").count());
+		assertEquals("No filter matches all", 167, r.findMountainHuts().count());
+		assertEquals("Empty beds range", 0, r.findMountainHuts().minBeds(10).maxBeds(5).count());
+	}
+
+	@Test
+	public void testFiltersFollowMutations() {
+		Region r = Region.fromFile("Piemonte", TestR3_ReadData.file);
+		Random rnd = new Random(11);
+		r.findMountainHuts().count(); // build the indexes before mutating
+		for (int round = 0; round < 30; round++) {
+			TestMaterializedAggregates.mutate(r, rnd, 20);
+			List<MountainHut> all = new ArrayList<>(r.getMountainHuts());
+			List<Municipality> ms = new ArrayList<>(r.getMunicipalities());
+			String category = all.get(rnd.nextInt(all.size())).getCategory();
+			String province = ms.get(rnd.nextInt(ms.size())).getProvince();
+			String municipality = ms.get(rnd.nextInt(ms.size())).getName();
+			int min = rnd.nextInt(40);
+			int max = min + rnd.nextInt(60);
+
+			assertEquals("Wrong huts for category, province and beds",
+					names(all.stream().filter(h -> h.getCategory().equals(category)
+							&& h.getMunicipality().getProvince().equals(province)
+							&& h.getBedsNumber() >= min && h.getBedsNumber() <= max).collect(Collectors.toList())),
+					names(r.findMountainHuts().category(category).province(province).minBeds(min).maxBeds(max).list()));
+			assertEquals("Wrong huts for municipality or province",
+					names(all.stream().filter(h -> h.getMunicipality().getName().equals(municipality)
+							&& (h.getMunicipality().getProvince().equals(province) || h.getMunicipality().getProvince().equals("P1")))
+							.collect(Collectors.toList())),
+					names(r.findMountainHuts().municipality(municipality).province(province, "P1").list()));
+		}
+	}
+
+	@Test
+	public void testConcurrentRegion() {
+		Region r = Region.concurrent("Piemonte");
+		Municipality m = r.createOrGetMunicipality("Acceglio", "Cuneo", 1200);
+		for (int i = 0; i < 100; i++) {
+			r.createOrGetMountainHut("H" + i, "C" + i % 3, i, m);
+		}
+		assertEquals("Wrong huts", 17, r.findMountainHuts().category("C0").minBeds(50).count());
+		assertSame("Lookup must return the same hut", r.getMountainHut("H3"),
+				r.findMountainHuts().category("C0").maxBeds(3).list().get(1));
+	}
+}
@@ -0,0 +1,123 @@
+package it.polito.po.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.junit.Test;
+
+import mountainhuts.HutFeedTailer;
+import mountainhuts.Region;
+import mountainhuts.RejectLimitExceededException;
+import mountainhuts.RejectPolicy;
+import mountainhuts.RejectReport;
+
+public class TestIngestion {
+
+	private static final String HEADER = "Province;Municipality;MunicipalityAltitude;Name;Altitude;Category;BedsNumber\n";
+
+	@Test
+	public void testIngestSources() throws IOException {
+		Region r = new Region("Piemonte");
+
+		int n = r.ingest(Stream.of(HEADER.trim(), "CUNEO;ACCEGLIO;1200;Campo Base;1660;Rifugio;32", "bad line"));
+		assertEquals("Wrong number of applied rows", 1, n);
+
+		n = r.ingest(new StringReader("CUNEO;ACCEGLIO;1200;Campo Base;1660;Rifugio;99\nTORINO;BUSSOLENO;440;Alpe;;Bivacco;4\n"));
+		assertEquals("Wrong number of applied rows", 2, n);
+
+		n = r.ingest(new ByteArrayInputStream("TORINO;BUSSOLENO;440;Tappa;2000;Rifugio;7".getBytes(StandardCharsets.UTF_8)));
+		assertEquals("Wrong number of applied rows", 1, n);
+
+		assertEquals("Wrong number of mountain huts", 3, r.getMountainHuts().size());
+		assertEquals("First record must win", Integer.valueOf(32 + 4 + 7),
+				Integer.valueOf(r.totalBedsNumberPerProvince().values().stream().mapToInt(Integer::intValue).sum()));
+	}
+
+	@Test
+	public void testFollow() throws IOException {
+		String file = TestMappedLoader.writeTemp(HEADER + "CUNEO;ACCEGLIO;1200;Campo Base;1660;Rifugio;32\nTORINO;BUSS");
+		Region r = new Region("Piemonte");
+
+		try (HutFeedTailer tailer = r.follow(file)) {
+			assertEquals("Wrong number of applied rows", 1, tailer.poll());
+			assertEquals("Wrong number of mountain huts", 1, r.getMountainHuts().size());
+
+			Files.write(Paths.get(file), "OLENO;440;Alpe;;Bivacco;4\nTORINO;BUSSOLENO;440;Tappa;2000;Rifugio;7\n"
+					.getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+			assertEquals("Wrong number of applied rows", 2, tailer.poll());
+			assertEquals("Wrong number of applied rows", 0, tailer.poll());
+		}
+		assertEquals("Wrong number of mountain huts", 3, r.getMountainHuts().size());
+		assertEquals("Wrong number of huts in Bussoleno", Long.valueOf(2),
+				r.countMountainHutsPerMunicipalityPerProvince().get("TORINO").get("BUSSOLENO"));
+	}
+
+	@Test
+	public void testFollowAfterAbort() throws IOException {
+		String file = TestMappedLoader.writeTemp(HEADER + "CUNEO;ACCEGLIO;1200;Campo Base;1660;Rifugio;32\n"
+				+ "TORINO;BUSSOLENO;440;Alpe;;Bivacco;x\nTORINO;BUSSOLENO;440;Tappa;2000;Rifugio;7\n");
+		Region r = new Region("Piemonte");
+		List<RejectReport> reports = new ArrayList<>();
+		r.setRejectPolicy(RejectPolicy.to(reports::add).failAfter(0));
+
+		try (HutFeedTailer tailer = r.follow(file)) {
+			try {
+				tailer.poll();
+				fail("The bad row must stop the poll");
+			} catch (RejectLimitExceededException e) {
+				assertTrue("Report must be marked aborted", e.getReport().isAborted());
+			}
+			assertEquals("Sink must get the report once", 1, reports.size());
+			assertEquals("Wrong number of mountain huts", 1, r.getMountainHuts().size());
+
+			assertEquals("Rows after the bad one must not be lost", 1, tailer.poll());
+			assertEquals("Wrong position", Files.size(Paths.get(file)), tailer.getPosition());
+			assertEquals("No more reports", 1, reports.size());
+		}
+		assertEquals("Wrong number of mountain huts", 2, r.getMountainHuts().size());
+	}
+
+	@Test
+	public void testBackgroundPollAfterAbort() throws Exception {
+		String file = TestMappedLoader.writeTemp(HEADER + "TORINO;BUSSOLENO;440;Alpe;;Bivacco;x\n");
+		Region r = new Region("Piemonte");
+		List<RejectReport> reports = Collections.synchronizedList(new ArrayList<>());
+		r.setRejectPolicy(RejectPolicy.to(reports::add).failAfter(0));
+
+		try (HutFeedTailer tailer = r.follow(file)) {
+			tailer.start(10, TimeUnit.MILLISECONDS);
+			long deadline = System.currentTimeMillis() + 10_000;
+			while (reports.isEmpty() && System.currentTimeMillis() < deadline) Thread.sleep(10);
+			assertTrue("Report must be marked aborted", reports.get(0).isAborted());
+
+			Files.write(Paths.get(file), "TORINO;BUSSOLENO;440;Tappa;2000;Rifugio;7\n".getBytes(StandardCharsets.UTF_8),
+					StandardOpenOption.APPEND);
+			while (System.currentTimeMillis() < deadline) {
+				synchronized (r) {
+					if (r.getMountainHut("Tappa") != null) break;
+				}
+				Thread.sleep(10);
+			}
+			synchronized (r) {
+				assertTrue("Polling must go on after a failed poll", r.getMountainHut("Tappa") != null);
+			}
+			while (tailer.getLastFailure() != null && System.currentTimeMillis() < deadline) Thread.sleep(10);
+			assertNull("The failure is cleared by a good poll", tailer.getLastFailure());
+		}
+	}
+}
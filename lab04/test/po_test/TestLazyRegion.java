@@ -0,0 +1,88 @@
+package it.polito.po.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import mountainhuts.LazyRegion;
+import mountainhuts.MountainHut;
+import mountainhuts.RejectPolicy;
+import mountainhuts.RejectReport;
+import mountainhuts.Region;
+
+public class TestLazyRegion {
+
+	@Test
+	public void testLookupWithoutLoading() throws IOException {
+		Region expected = Region.fromFile("Piemonte", TestR3_ReadData.file);
+		LazyRegion lazy = Region.openLazy("Piemonte", TestR3_ReadData.file);
+		assertEquals("Wrong name", "Piemonte", lazy.getName());
+		assertEquals("Wrong size", expected.getMountainHuts().size(), lazy.size());
+		assertEquals("Wrong municipalities", expected.countMunicipalitiesPerProvince(), lazy.countMunicipalitiesPerProvince());
+		assertEquals("Wrong rows parsed", expected.metrics().getRowsParsed(), lazy.metrics().getRowsParsed());
+
+		for (MountainHut e : expected.getMountainHuts()) {
+			MountainHut h = lazy.getMountainHut(e.getName());
+			assertEquals("Wrong altitude", e.getAltitude(), h.getAltitude());
+			assertEquals("Wrong beds", e.getBedsNumber(), h.getBedsNumber());
+			assertEquals("Wrong category", e.getCategory(), h.getCategory());
+			assertEquals("Wrong municipality", e.getMunicipality().getName(), h.getMunicipality().getName());
+			assertSame("Parsed huts must be kept", h, lazy.getMountainHut(e.getName()));
+		}
+		assertNull("Unknown hut", lazy.getMountainHut("Rifugio che non c'è"));
+		assertFalse("Lookups must not load all the huts", lazy.isLoaded());
+	}
+
+	@Test
+	public void testAggregatesLoadEverything() throws IOException {
+		Region expected = Region.fromFile("Piemonte", TestR3_ReadData.file);
+		expected.setAltitudeRanges("0-1000", "1001-1500", "1501-2000", "2001-INF");
+		LazyRegion lazy = Region.openLazy("Piemonte", TestR3_ReadData.file);
+		lazy.setAltitudeRanges("0-1000", "1001-1500", "1501-2000", "2001-INF");
+
+		MountainHut first = expected.getMountainHuts().iterator().next();
+		MountainHut looked = lazy.getMountainHut(first.getName());
+		looked.setBedsNumber(first.getBedsNumber() + 100);
+		first.setBedsNumber(first.getBedsNumber() + 100);
+
+		assertEquals("Wrong huts per altitude range", expected.countMountainHutsPerAltitudeRange(),
+				lazy.countMountainHutsPerAltitudeRange());
+		assertTrue("An aggregate must load all the huts", lazy.isLoaded());
+		assertEquals("Wrong beds per province", expected.totalBedsNumberPerProvince(), lazy.totalBedsNumberPerProvince());
+		assertEquals("Different huts after loading", TestMappedLoader.describe(expected),
+				TestMappedLoader.describe(lazy.getRegion()));
+		assertSame("Looked up huts must stay the same", looked, lazy.getMountainHut(first.getName()));
+		TestMaterializedAggregates.assertSameAsScan(lazy.getRegion());
+	}
+
+	@Test
+	public void testRejectsAndDuplicates() throws IOException {
+		String file = TestMappedLoader.writeTemp("Province;Municipality;MunicipalityAltitude;Name;Altitude;Category;BedsNumber\r\n"
+				+ "CUNEO;ACCEGLIO;1200;A;1660;Rifugio;32\r\n"
+				+ "CUNEO;ACCEGLIO;1200;B;;Bivacco;x\r\n"
+				+ "CUNEO;ACCEGLIO;1200;A;1700;Rifugio;10\r\n"
+				+ "CUNEO;ACCEGLIO;1200\r\n"
+				+ "TORINO;BUSSOLENO;440;B;;Bivacco;7");
+		List<RejectReport> reports = new ArrayList<>();
+		LazyRegion lazy = Region.openLazy("Piemonte", file, RejectPolicy.to(reports::add));
+		assertEquals("One report per load", 1, reports.size());
+		assertEquals("Wrong rejected count", 2, reports.get(0).getRejectedRows());
+		assertEquals("Wrong duplicates", 1, lazy.metrics().getDuplicateHutNames());
+		assertEquals("Wrong size", 2, lazy.size());
+
+		assertEquals("First valid row wins", Integer.valueOf(32), lazy.getMountainHut("A").getBedsNumber());
+		MountainHut b = lazy.getMountainHut("B");
+		assertEquals("Rejected rows are not indexed", "BUSSOLENO", b.getMunicipality().getName());
+		assertEquals("Missing altitude", false, b.getAltitude().isPresent());
+		assertEquals("Different huts after loading", TestMappedLoader.describe(Region.fromFile("Piemonte", file)),
+				TestMappedLoader.describe(lazy.getRegion()));
+	}
+}
@@ -0,0 +1,66 @@
+package it.polito.po.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.Collectors;
+
+import org.junit.Test;
+
+import mountainhuts.MountainHut;
+import mountainhuts.Region;
+
+public class TestMappedLoader {
+
+	static String writeTemp(String content) throws IOException {
+		File f = File.createTempFile("mountain_huts", ".csv");
+		f.deleteOnExit();
+		Files.write(f.toPath(), content.getBytes(StandardCharsets.UTF_8));
+		return f.getCanonicalPath();
+	}
+
+	static Map<String, String> describe(Region r) {
+		return r.getMountainHuts().stream()
+				.collect(Collectors.toMap(MountainHut::getName,
+						h -> h.getMunicipality().getProvince() + "|" + h.getMunicipality().getName() + "|"
+								+ h.getMunicipality().getAltitude() + "|" + h.getAltitude() + "|"
+								+ h.getCategory() + "|" + h.getBedsNumber()));
+	}
+
+	@Test
+	public void testSameAsReaderLoader() {
+		Region expected = Region.fromFile("Piemonte", TestR3_ReadData.file);
+		Region r = Region.fromMappedFile("Piemonte", TestR3_ReadData.file);
+
+		assertNotNull("Missing region", r);
+		assertEquals("Wrong number of municipalities", 94, r.getMunicipalities().size());
+		assertEquals("Wrong number of mountain huts", 167, r.getMountainHuts().size());
+		assertEquals("Different huts than the reader loader", describe(expected), describe(r));
+	}
+
+	@Test
+	public void testMalformedAndCrLf() throws IOException {
+		String file = writeTemp("Province;Municipality;MunicipalityAltitude;Name;Altitude;Category;BedsNumber\r\n"
+				+ " CUNEO ; ACCEGLIO ;1200; Campo Base ;1660;Rifugio;32\r\n"
+				+ "CUNEO;ACCEGLIO;999;Duplicate;;Bivacco;x\r\n"
+				+ "CUNEO;ACCEGLIO;;Short;;Bivacco;\r\n"
+				+ "TORINO;BUSSOLENO;;Alpe;;Bivacco;-4\r\n"
+				+ "\r\n"
+				+ "TORINO;BUSSOLENO;440;Tappa;2000;Rifugio;7");
+
+		Region r = Region.fromMappedFile("Piemonte", file);
+
+		assertEquals("Wrong huts", describe(Region.fromFile("Piemonte", file)), describe(r));
+		assertEquals("Wrong number of mountain huts", 3, r.getMountainHuts().size());
+		MountainHut h = r.getMountainHuts().stream()
+				.filter(m -> m.getName().equals("Campo Base")).findFirst().get();
+		assertEquals("Wrong altitude", Optional.of(1660), h.getAltitude());
+		assertEquals("Wrong province", "CUNEO", h.getMunicipality().getProvince());
+	}
+}
@@ -0,0 +1,124 @@
+package it.polito.po.test;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+import org.junit.Test;
+
+import mountainhuts.MountainHut;
+import mountainhuts.Municipality;
+import mountainhuts.Region;
+
+public class TestMaterializedAggregates {
+
+	// R4 queries recomputed from scratch through the public API
+
+	static Integer effectiveAltitude(MountainHut h) {
+		return h.getAltitude().orElse(h.getMunicipality().getAltitude());
+	}
+
+	static void assertSameAsScan(Region r) {
+		List<MountainHut> huts = new ArrayList<>(r.getMountainHuts());
+		assertEquals("Wrong municipalities per province",
+				r.getMunicipalities().stream().collect(Collectors.groupingBy(Municipality::getProvince, Collectors.counting())),
+				r.countMunicipalitiesPerProvince());
+		assertEquals("Wrong huts per municipality per province",
+				huts.stream().collect(Collectors.groupingBy(h -> h.getMunicipality().getProvince(),
+						Collectors.groupingBy(h -> h.getMunicipality().getName(), Collectors.counting()))),
+				r.countMountainHutsPerMunicipalityPerProvince());
+		assertEquals("Wrong huts per altitude range",
+				huts.stream().collect(Collectors.groupingBy(h -> r.getAltitudeRange(effectiveAltitude(h)), Collectors.counting())),
+				r.countMountainHutsPerAltitudeRange());
+		assertEquals("Wrong beds per province",
+				huts.stream().collect(Collectors.groupingBy(h -> h.getMunicipality().getProvince(),
+						Collectors.summingInt(MountainHut::getBedsNumber))),
+				r.totalBedsNumberPerProvince());
+		assertEquals("Wrong max beds per altitude range",
+				huts.stream().collect(Collectors.groupingBy(h -> r.getAltitudeRange(effectiveAltitude(h)),
+						Collectors.mapping(MountainHut::getBedsNumber, Collectors.maxBy(Integer::compareTo)))),
+				r.maximumBedsNumberPerAltitudeRange());
+		Map<Long, List<String>> names = huts.stream()
+				.collect(Collectors.groupingBy(h -> h.getMunicipality().getName(), Collectors.counting()))
+				.entrySet().stream()
+				.collect(Collectors.groupingBy(Map.Entry::getValue,
+						Collectors.mapping(Map.Entry::getKey, Collectors.toList())));
+		names.values().forEach(Collections::sort);
+		assertEquals("Wrong municipality names per count", names, r.municipalityNamesPerCountOfMountainHuts());
+	}
+
+	static void mutate(Region r, Random rnd, int steps) {
+		List<Municipality> ms = new ArrayList<>(r.getMunicipalities());
+		List<MountainHut> hs = new ArrayList<>(r.getMountainHuts());
+		for (int i = 0; i < steps; i++) {
+			MountainHut h = hs.get(rnd.nextInt(hs.size()));
+			Municipality m = ms.get(rnd.nextInt(ms.size()));
+			switch (rnd.nextInt(6)) {
+			case 0: h.setBedsNumber(rnd.nextInt(120)); break;
+			case 1: h.setMunicipality(m); break;
+			case 2: m.setProvince("P" + rnd.nextInt(8)); break;
+			case 3: m.setAltitude(rnd.nextInt(3000)); break;
+			case 4: h.setCategory("C" + rnd.nextInt(3)); break;
+			default:
+				Municipality created = r.createOrGetMunicipality("NEW" + rnd.nextInt(20), "P" + rnd.nextInt(8), rnd.nextInt(3000));
+				ms.add(created);
+				hs.add(r.createOrGetMountainHut("NEWHUT" + i, rnd.nextBoolean() ? null : rnd.nextInt(3000),
+						"C0", rnd.nextInt(50), created));
+			}
+		}
+	}
+
+	@Test
+	public void testQueriesFollowMutations() {
+		Region r = Region.fromFile("Piemonte", TestR3_ReadData.file);
+		r.setAltitudeRanges("0-1000", "1001-1500", "1501-2000", "1800-2600");
+		assertSameAsScan(r);
+
+		Random rnd = new Random(7);
+		for (int round = 0; round < 20; round++) {
+			mutate(r, rnd, 25);
+			assertSameAsScan(r);
+		}
+
+		r.setAltitudeRanges("0-500", "500-2500");
+		assertSameAsScan(r);
+		mutate(r, rnd, 100);
+		assertSameAsScan(r);
+	}
+
+	@Test
+	public void testMaximumAfterDecrease() {
+		Region r = new Region("Piemonte");
+		Municipality m = r.createOrGetMunicipality("Acceglio", "Cuneo", 1200);
+		MountainHut big = r.createOrGetMountainHut("Big", "Rifugio", 90, m);
+		r.createOrGetMountainHut("Small", "Rifugio", 10, m);
+
+		assertEquals("Wrong maximum", Optional.of(90), r.maximumBedsNumberPerAltitudeRange().get("0-INF"));
+		big.setBedsNumber(5);
+		assertEquals("Wrong maximum", Optional.of(10), r.maximumBedsNumberPerAltitudeRange().get("0-INF"));
+	}
+
+	@Test
+	public void testRangeBucketsFollowAltitudesAndRanges() {
+		Region r = Region.fromFile("Piemonte", TestR3_ReadData.file);
+		r.setAltitudeRanges("0-1000", "1001-1500", "1501-2000", "2001-INF");
+		Random rnd = new Random(11);
+		for (int round = 0; round < 10; round++) {
+			// the top-K scan alone builds the bucket column before the counts
+			assertEquals("Wrong top per range",
+					TestTopK.expected(r, h -> r.getAltitudeRange(effectiveAltitude(h)), 3),
+					TestTopK.beds(r.largestMountainHutsPerAltitudeRange(3)));
+			assertSameAsScan(r);
+			mutate(r, rnd, 30);
+			if (round % 3 == 2) {
+				r.setAltitudeRanges("0-" + (800 + round * 100), (801 + round * 100) + "-INF");
+			}
+		}
+	}
+}
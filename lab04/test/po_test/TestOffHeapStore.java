@@ -0,0 +1,86 @@
+package it.polito.po.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import mountainhuts.MountainHut;
+import mountainhuts.Municipality;
+import mountainhuts.Region;
+
+public class TestOffHeapStore {
+
+	@Test
+	public void testSameAsHeap() {
+		Region heap = Region.fromFile("Piemonte", TestR3_ReadData.file);
+		Region offHeap = Region.fromFileOffHeap("Piemonte", TestR3_ReadData.file);
+		assertEquals("Different huts than on heap", TestMappedLoader.describe(heap), TestMappedLoader.describe(offHeap));
+
+		offHeap.setAltitudeRanges("0-1000", "1001-1500", "1501-2000", "2001-INF");
+		TestMaterializedAggregates.assertSameAsScan(offHeap);
+		TestMaterializedAggregates.mutate(offHeap, new Random(3), 200);
+		TestMaterializedAggregates.assertSameAsScan(offHeap);
+	}
+
+	@Test
+	public void testLookupAcrossPages() {
+		Region r = Region.offHeap("Piemonte");
+		Municipality m = r.createOrGetMunicipality("Courmayeur", "Aosta", 1224);
+		int count = 150_000; // more than two record pages
+		for (int i = 0; i < count; i++) {
+			r.createOrGetMountainHut("Rifugio Città di Novara " + i, i % 7 == 0 ? null : i % 4000, "Rifugio", i % 90, m);
+		}
+		assertEquals("Wrong number of huts", count, r.getMountainHuts().size());
+		Random rnd = new Random(5);
+		for (int k = 0; k < 1000; k++) {
+			int i = rnd.nextInt(count);
+			MountainHut h = r.getMountainHut("Rifugio Città di Novara " + i);
+			assertEquals("Wrong name", "Rifugio Città di Novara " + i, h.getName());
+			assertEquals("Wrong beds", Integer.valueOf(i % 90), h.getBedsNumber());
+			assertEquals("Wrong altitude", i % 7 == 0 ? null : i % 4000, h.getAltitude().orElse(null));
+		}
+		assertNull("Unknown names must not be found", r.getMountainHut("Rifugio Città di Novara " + count));
+
+		MountainHut first = r.createOrGetMountainHut("Rifugio Città di Novara 12", "Bivacco", 3, m);
+		MountainHut again = r.getMountainHut("Rifugio Città di Novara 12");
+		assertNotSame("Views must not be retained off heap", first, again);
+		assertEquals("Views of a hut must be equal", first, again);
+		first.setBedsNumber(99);
+		assertEquals("Setter must write the record", Integer.valueOf(99), r.getMountainHut("Rifugio Città di Novara 12").getBedsNumber());
+	}
+
+	@Test
+	public void testClose() {
+		Region r = Region.offHeap("Piemonte");
+		Municipality m = r.createOrGetMunicipality("Courmayeur", "Aosta", 1224);
+		for (int i = 0; i < 70_000; i++) {
+			r.createOrGetMountainHut("Rifugio " + i, i % 4000, "Rifugio", i % 90, m);
+		}
+		MountainHut hut = r.getMountainHut("Rifugio 7");
+		r.close();
+		r.close(); // a second close does nothing
+		List<Runnable> uses = List.of(
+				() -> r.getMountainHut("Rifugio 7"),
+				() -> hut.getBedsNumber(),
+				() -> r.createOrGetMountainHut("Rifugio nuovo", 2000, "Rifugio", 4, m),
+				() -> r.getMountainHuts().iterator().next().getName());
+		for (Runnable use : uses) {
+			try {
+				use.run();
+				fail("A closed off-heap region must not be used");
+			} catch (IllegalStateException e) {
+				assertEquals("Wrong message", "Off-heap hut store is closed", e.getMessage());
+			}
+		}
+
+		Region heap = Region.fromFile("Piemonte", TestR3_ReadData.file);
+		heap.close();
+		assertEquals("Closing a heap region must change nothing", 167, heap.getMountainHuts().size());
+	}
+}
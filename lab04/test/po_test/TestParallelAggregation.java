@@ -0,0 +1,62 @@
+package it.polito.po.test;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import mountainhuts.Municipality;
+import mountainhuts.Region;
+
+public class TestParallelAggregation {
+
+	static Region generated(int huts, int threshold) {
+		Region r = new Region("Generated");
+		r.setParallelThreshold(threshold);
+		Random rnd = new Random(huts);
+		for (int i = 0; i < huts; i++) {
+			Municipality m = r.createOrGetMunicipality("M" + rnd.nextInt(300), "P" + rnd.nextInt(12), 500 + rnd.nextInt(1500));
+			r.createOrGetMountainHut("H" + i, rnd.nextInt(4) == 0 ? null : rnd.nextInt(3500), "C" + rnd.nextInt(4),
+					rnd.nextInt(100), m);
+		}
+		r.setAltitudeRanges("0-1000", "1001-1500", "1501-2000", "2001-2500", "2501-INF");
+		return r;
+	}
+
+	@Test
+	public void testSameAsSequential() {
+		Region parallel = generated(20000, 1);
+		Region sequential = generated(20000, Integer.MAX_VALUE);
+		assertEquals("Wrong municipalities per province", sequential.countMunicipalitiesPerProvince(),
+				parallel.countMunicipalitiesPerProvince());
+		assertEquals("Wrong huts per municipality", sequential.countMountainHutsPerMunicipalityPerProvince(),
+				parallel.countMountainHutsPerMunicipalityPerProvince());
+		assertEquals("Wrong huts per range", sequential.countMountainHutsPerAltitudeRange(),
+				parallel.countMountainHutsPerAltitudeRange());
+		assertEquals("Wrong beds per province", sequential.totalBedsNumberPerProvince(),
+				parallel.totalBedsNumberPerProvince());
+		assertEquals("Wrong max beds per range", sequential.maximumBedsNumberPerAltitudeRange(),
+				parallel.maximumBedsNumberPerAltitudeRange());
+		assertEquals("Wrong names per count", sequential.municipalityNamesPerCountOfMountainHuts(),
+				parallel.municipalityNamesPerCountOfMountainHuts());
+		assertEquals("Wrong top per province",
+				TestTopK.beds(sequential.largestMountainHutsPerProvince(7)),
+				TestTopK.beds(parallel.largestMountainHutsPerProvince(7)));
+		assertEquals("Wrong top per municipality",
+				TestTopK.beds(sequential.largestMountainHutsPerMunicipality(3)),
+				TestTopK.beds(parallel.largestMountainHutsPerMunicipality(3)));
+	}
+
+	@Test
+	public void testParallelFollowsMutations() {
+		Region r = Region.fromFile("Piemonte", TestR3_ReadData.file);
+		r.setParallelThreshold(1);
+		r.setAltitudeRanges("0-1000", "1001-1500", "1501-2000", "1800-2600");
+		TestMaterializedAggregates.assertSameAsScan(r);
+		TestMaterializedAggregates.mutate(r, new Random(13), 200);
+		TestMaterializedAggregates.assertSameAsScan(r);
+		r.setAltitudeRanges("0-500", "500-2500");
+		TestMaterializedAggregates.assertSameAsScan(r);
+	}
+}
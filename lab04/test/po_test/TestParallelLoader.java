@@ -0,0 +1,59 @@
+package it.polito.po.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import org.junit.Test;
+
+import mountainhuts.Municipality;
+import mountainhuts.Region;
+
+public class TestParallelLoader {
+
+	static Map<String, String> municipalities(Region r) {
+		return r.getMunicipalities().stream()
+				.collect(Collectors.toMap(Municipality::getName,
+						m -> m.getProvince() + "|" + m.getAltitude()));
+	}
+
+	@Test
+	public void testSameAsReaderLoader() {
+		Region r = Region.fromFileParallel("Piemonte", TestR3_ReadData.file, 4);
+
+		assertNotNull("Missing region", r);
+		assertEquals("Wrong number of municipalities", 94, r.getMunicipalities().size());
+		assertEquals("Wrong number of mountain huts", 167, r.getMountainHuts().size());
+		assertEquals("Wrong total beds", 1046, r.totalBedsNumberPerProvince().get("CUNEO").intValue());
+	}
+
+	@Test
+	public void testFirstWinsAcrossChunks() throws IOException {
+		StringBuilder csv = new StringBuilder("Province;Municipality;MunicipalityAltitude;Name;Altitude;Category;BedsNumber\n");
+		for (int i = 0; i < 40000; i++) {
+			// municipality and hut names repeat across the whole file with different values
+			csv.append("P").append(i % 7).append(';')
+				.append("M").append(i % 501).append(';')
+				.append(i).append(';')
+				.append("H").append(i % 12007).append(';')
+				.append(i % 3 == 0 ? "" : String.valueOf(i)).append(';')
+				.append("C").append(i % 4).append(';')
+				.append(i % 97).append(i % 1000 == 5 ? "x" : "").append('\n');
+		}
+		String file = TestMappedLoader.writeTemp(csv.toString());
+
+		Region expected = Region.fromFile("R", file);
+		Region r = Region.fromFileParallel("R", file, 4);
+
+		assertEquals("Wrong municipalities", municipalities(expected), municipalities(r));
+		assertEquals("Wrong huts", TestMappedLoader.describe(expected), TestMappedLoader.describe(r));
+		assertEquals("Wrong repeated names", expected.metrics().getDuplicateHutNames(), r.metrics().getDuplicateHutNames());
+		for (int i = 0; i < 12007; i += 1000) {
+			assertEquals("Wrong hut found by name", expected.getMountainHut("H" + i).getBedsNumber(),
+					r.getMountainHut("H" + i).getBedsNumber());
+		}
+	}
+}
@@ -0,0 +1,145 @@
+package it.polito.po.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.Test;
+
+import mountainhuts.HutQueryServer;
+import mountainhuts.MountainHut;
+import mountainhuts.Region;
+
+public class TestQueryServer {
+
+	private static Region region() throws IOException {
+		Region r = Region.concurrent("Piemonte");
+		try (Reader in = Files.newBufferedReader(Paths.get(TestR3_ReadData.file))) {
+			r.ingest(in);
+		}
+		r.setAltitudeRanges("0-1000", "1001-1500", "1501-2000", "2001-INF");
+		return r;
+	}
+
+	private static int status;
+	private static String encoding;
+
+	private static String vary;
+
+	private static String get(HutQueryServer server, String path, boolean gzip) throws IOException {
+		return get(server, path, gzip ? "gzip" : null);
+	}
+
+	private static String get(HutQueryServer server, String path, String acceptEncoding) throws IOException {
+		HttpURLConnection c = (HttpURLConnection) new URL("http://" + server.getAddress().getAddress().getHostAddress() + ":" + server.getPort() + path).openConnection();
+		if (acceptEncoding != null) c.setRequestProperty("Accept-Encoding", acceptEncoding);
+		status = c.getResponseCode();
+		encoding = c.getContentEncoding();
+		vary = c.getHeaderField("Vary");
+		try (InputStream raw = status < 400 ? c.getInputStream() : c.getErrorStream()) {
+			InputStream in = "gzip".equals(encoding) ? new GZIPInputStream(raw) : raw;
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			in.transferTo(out);
+			return out.toString(StandardCharsets.UTF_8);
+		}
+	}
+
+	private static String lines(Map<String, ?> result) {
+		StringBuilder text = new StringBuilder();
+		new TreeMap<>(result).forEach((k, v) -> text.append(k).append(';')
+				.append(v instanceof Optional ? ((Optional<?>) v).map(Object::toString).orElse("") : v)
+				.append('\n'));
+		return text.toString();
+	}
+
+	@Test
+	public void testQueries() throws IOException {
+		Region r = region();
+		try (HutQueryServer server = r.serve(0)) {
+			assertTrue("Only local requests by default", server.getAddress().getAddress().isLoopbackAddress());
+			assertEquals("Wrong huts per range", lines(r.countMountainHutsPerAltitudeRange()),
+					get(server, "/countMountainHutsPerAltitudeRange", false));
+			assertEquals("Wrong beds per province", lines(r.totalBedsNumberPerProvince()),
+					get(server, "/totalBedsNumberPerProvince", false));
+			assertEquals("Wrong max beds per range", lines(r.maximumBedsNumberPerAltitudeRange()),
+					get(server, "/maximumBedsNumberPerAltitudeRange", false));
+			String perMunicipality = get(server, "/countMountainHutsPerMunicipalityPerProvince", false);
+			assertEquals("Wrong huts per municipality", r.getMunicipalities().stream()
+					.filter(m -> r.getMountainHuts().stream().anyMatch(h -> h.getMunicipality() == m)).count(),
+					perMunicipality.lines().count());
+			assertEquals("Large bodies must be compressed", perMunicipality,
+					get(server, "/countMountainHutsPerMunicipalityPerProvince", true));
+			assertEquals("Wrong encoding", "gzip", encoding);
+			assertEquals("Compressible bodies vary by encoding", "Accept-Encoding", vary);
+			for (String refusal : new String[] { "gzip;q=0", "gzip; q=0.000, deflate", "*;q=0", "identity", "gzip;q=x" }) {
+				assertEquals("Wrong body for " + refusal, perMunicipality,
+						get(server, "/countMountainHutsPerMunicipalityPerProvince", refusal));
+				assertEquals("Gzip refused by " + refusal, null, encoding);
+				assertEquals("Compressible bodies vary by encoding", "Accept-Encoding", vary);
+			}
+			for (String accepted : new String[] { "deflate, GZIP;q=0.5", "*", "br;q=1, *;q=0.1", "x-gzip" }) {
+				get(server, "/countMountainHutsPerMunicipalityPerProvince", accepted);
+				assertEquals("Gzip accepted by " + accepted, "gzip", encoding);
+			}
+
+			assertEquals("Wrong range", r.getAltitudeRange(1200) + "\n", get(server, "/altitudeRange?altitude=1200", false));
+			assertEquals("Wrong default range", "0-INF\n", get(server, "/altitudeRange?altitude=", false));
+			get(server, "/altitudeRange?altitude=high", false);
+			assertEquals("Bad altitude", 400, status);
+
+			assertEquals("Wrong hut", "VERBANO-CUSIO-OSSOLA;FALMENTA;715;ALPE FORNA';1649;Bivacco Fisso;13\n",
+					get(server, "/hut?name=" + URLEncoder.encode("ALPE FORNA'", StandardCharsets.UTF_8), false));
+			get(server, "/hut?name=NESSUNO", false);
+			assertEquals("Unknown hut", 404, status);
+			get(server, "/unknown", false);
+			assertEquals("Unknown query", 404, status);
+		}
+	}
+
+	@Test
+	public void testChangesAndConcurrentRequests() throws Exception {
+		Region r = region();
+		try (HutQueryServer server = HutQueryServer.start(r, 0)) {
+			String before = get(server, "/totalBedsNumberPerProvince", false);
+			MountainHut hut = r.getMountainHut("IL DOSSO");
+			hut.setBedsNumber(hut.getBedsNumber() + 100);
+			String after = get(server, "/totalBedsNumberPerProvince", false);
+			assertTrue("A change must show up", !before.equals(after));
+			assertEquals("Wrong beds per province", lines(r.totalBedsNumberPerProvince()), after);
+
+			ExecutorService clients = Executors.newFixedThreadPool(16);
+			try {
+				List<Future<String>> answers = new ArrayList<>();
+				for (int i = 0; i < 200; i++) {
+					String path = server.getQueryPaths().get(i % server.getQueryPaths().size());
+					answers.add(clients.submit(() -> get(server, path, false).isEmpty() ? null : path));
+				}
+				for (int i = 0; i < answers.size(); i++) {
+					assertEquals("Wrong answer", server.getQueryPaths().get(i % server.getQueryPaths().size()),
+							answers.get(i).get());
+				}
+			} finally {
+				clients.shutdown();
+			}
+		}
+	}
+}
@@ -0,0 +1,148 @@
+package it.polito.po.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import mountainhuts.Region;
+import mountainhuts.RegionFederation;
+
+public class TestRegionFederation {
+
+	private static final String[] RANGES = { "0-1000", "1001-1500", "1501-2000", "2001-INF" };
+
+	private Path dir;
+	private String header;
+	private List<String> rows;
+
+	@Before
+	public void setUp() throws IOException {
+		dir = Files.createTempDirectory("regions");
+		dir.toFile().deleteOnExit();
+		List<String> lines = Region.readData(TestR3_ReadData.file);
+		header = lines.get(0);
+		rows = lines.subList(1, lines.size());
+	}
+
+	// the sample file split by province, one file per group of provinces
+	private List<String> write(String region, String... provinces) throws IOException {
+		List<String> lines = new ArrayList<>();
+		lines.add(header);
+		for (String row : rows) {
+			for (String province : provinces) {
+				if (row.startsWith(province + ";")) lines.add(row);
+			}
+		}
+		Path file = dir.resolve(region + ".csv");
+		Files.write(file, lines, StandardCharsets.UTF_8);
+		file.toFile().deleteOnExit();
+		return lines.subList(1, lines.size());
+	}
+
+	private static Region whole(List<String> rows) {
+		Region r = new Region("Italia");
+		r.ingest(rows.stream());
+		r.setAltitudeRanges(RANGES);
+		return r;
+	}
+
+	private static void assertSameQueries(Region expected, RegionFederation f) {
+		assertEquals("Wrong municipalities per province", expected.countMunicipalitiesPerProvince(),
+				f.countMunicipalitiesPerProvince());
+		assertEquals("Wrong huts per municipality per province", expected.countMountainHutsPerMunicipalityPerProvince(),
+				f.countMountainHutsPerMunicipalityPerProvince());
+		assertEquals("Wrong huts per altitude range", expected.countMountainHutsPerAltitudeRange(),
+				f.countMountainHutsPerAltitudeRange());
+		assertEquals("Wrong beds per province", expected.totalBedsNumberPerProvince(), f.totalBedsNumberPerProvince());
+		assertEquals("Wrong max beds per altitude range", expected.maximumBedsNumberPerAltitudeRange(),
+				f.maximumBedsNumberPerAltitudeRange());
+		assertEquals("Wrong municipality names per count", expected.municipalityNamesPerCountOfMountainHuts(),
+				f.municipalityNamesPerCountOfMountainHuts());
+	}
+
+	@Test
+	public void testMergedQueries() throws IOException {
+		List<String> all = new ArrayList<>(write("Nord", "CUNEO", "TORINO"));
+		all.addAll(write("Resto", "ALESSANDRIA", "BIELLA", "VERBANO-CUSIO-OSSOLA", "VERCELLI"));
+
+		RegionFederation f = RegionFederation.fromDirectory(dir.toString(), 2);
+		f.setAltitudeRanges(RANGES);
+		assertEquals("Wrong number of regions", 2, f.getRegions().size());
+		assertEquals("Wrong region name", "Nord", f.getRegion("Nord").getName());
+		assertSameQueries(whole(all), f);
+	}
+
+	@Test
+	public void testMunicipalityInTwoRegions() throws IOException {
+		List<String> all = new ArrayList<>(write("Nord", "CUNEO", "TORINO"));
+		all.addAll(write("Ovest", "TORINO", "BIELLA"));
+
+		RegionFederation f = RegionFederation.fromDirectory(dir.toString());
+		assertEquals("Wrong municipalities per province", whole(all).countMunicipalitiesPerProvince(),
+				f.countMunicipalitiesPerProvince());
+		f.countMountainHutsPerMunicipalityPerProvince().forEach((province, counts) ->
+				assertEquals("Queries disagree on " + province, Long.valueOf(counts.size()),
+						f.countMunicipalitiesPerProvince().get(province)));
+	}
+
+	@Test
+	public void testRefreshOneRegion() throws IOException {
+		List<String> nord = write("Nord", "CUNEO", "TORINO");
+		write("Resto", "BIELLA", "VERCELLI");
+		RegionFederation f = RegionFederation.fromDirectory(dir.toString());
+		f.setAltitudeRanges(RANGES);
+		Region nordBefore = f.getRegion("Nord");
+		Region restoBefore = f.getRegion("Resto");
+
+		List<String> resto = write("Resto", "VERBANO-CUSIO-OSSOLA");
+		Region refreshed = f.refresh("Resto");
+		assertNotSame("Region not reloaded", restoBefore, refreshed);
+		assertSame("Other regions must not be reloaded", nordBefore, f.getRegion("Nord"));
+		List<String> all = new ArrayList<>(nord);
+		all.addAll(resto);
+		assertSameQueries(whole(all), f);
+
+		List<String> sud = write("Sud", "ALESSANDRIA");
+		f.refresh("Sud");
+		all.addAll(sud);
+		assertSameQueries(whole(all), f);
+
+		Files.delete(dir.resolve("Nord.csv"));
+		assertNull("Region without file must be dropped", f.refresh("Nord"));
+		all.removeAll(nord);
+		assertSameQueries(whole(all), f);
+	}
+
+	@Test
+	public void testRefreshOutsideDirectory() throws IOException {
+		write("Nord", "CUNEO", "TORINO");
+		Path other = Files.createTempDirectory("other");
+		other.toFile().deleteOnExit();
+		Files.write(other.resolve("Fuori.csv"), List.of(header, rows.get(0)), StandardCharsets.UTF_8);
+		other.resolve("Fuori.csv").toFile().deleteOnExit();
+		RegionFederation f = RegionFederation.fromDirectory(dir.toString());
+		for (String name : new String[] { "../" + other.getFileName() + "/Fuori", other.resolve("Fuori").toString(), "a/../Nord", "" }) {
+			try {
+				f.refresh(name);
+				fail("Refresh outside the directory: " + name);
+			} catch (IllegalArgumentException e) {
+				// expected
+			}
+		}
+		assertEquals("Regions must not change", List.of("Nord"),
+				f.getRegions().stream().map(Region::getName).collect(Collectors.toList()));
+	}
+}
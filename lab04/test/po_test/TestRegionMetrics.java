@@ -0,0 +1,92 @@
+package it.polito.po.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.Test;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import mountainhuts.LatencyHistogram;
+import mountainhuts.Region;
+import mountainhuts.RegionMetrics;
+
+public class TestRegionMetrics {
+
+	private static final String CONTENT = "Province;Municipality;MunicipalityAltitude;Name;Altitude;Category;BedsNumber\n"
+			+ "CUNEO;ACCEGLIO;1200;A;1660;Rifugio;32\n"
+			+ "CUNEO;ACCEGLIO;1200;A;1700;Rifugio;10\n"
+			+ "CUNEO;ACCEGLIO;1200;B;;Bivacco;x\n"
+			+ "CUNEO;ACCEGLIO;1200\n"
+			+ "\n"
+			+ "TORINO;BUSSOLENO;440;C;2000;Rifugio;7\n";
+
+	private static void assertLoadCounters(RegionMetrics m) {
+		assertEquals("Wrong rows parsed", 3, m.getRowsParsed());
+		assertEquals("Wrong rows rejected", 2, m.getRowsRejected());
+		assertEquals("Wrong duplicate names", 1, m.getDuplicateHutNames());
+	}
+
+	@Test
+	public void testLoadCounters() throws IOException {
+		String file = TestMappedLoader.writeTemp(CONTENT);
+		Region r = Region.fromFile("Piemonte", file);
+		assertLoadCounters(r.metrics());
+		assertTrue("Missing load phases",
+				r.metrics().getLoadPhaseNanos().keySet().containsAll(List.of("read", "parse", "insert")));
+
+		assertLoadCounters(Region.fromMappedFile("Piemonte", file).metrics());
+		assertLoadCounters(Region.fromFileParallel("Piemonte", file, 2).metrics());
+
+		Region lines = new Region("Piemonte");
+		lines.ingest(CONTENT.lines());
+		assertLoadCounters(lines.metrics());
+	}
+
+	@Test
+	public void testQueryLatencies() {
+		Region r = Region.fromFile("Piemonte", TestR3_ReadData.file);
+		assertNull("No latency before the first query", r.metrics().getQueryLatency("totalBedsNumberPerProvince"));
+		for (int i = 0; i < 10; i++) {
+			r.totalBedsNumberPerProvince();
+		}
+		r.largestMountainHutsPerProvince(3);
+
+		LatencyHistogram latency = r.metrics().getQueryLatency("totalBedsNumberPerProvince");
+		assertEquals("Every invocation is timed, cached ones included", 10, latency.getCount());
+		assertTrue("Percentiles must be ordered", latency.getPercentileNanos(50) <= latency.getPercentileNanos(99));
+		assertTrue("Percentiles cannot exceed the maximum", latency.getPercentileNanos(100) <= latency.getMaxNanos());
+		assertNotNull("Top-K not timed", r.metrics().getQueryLatency("largestMountainHutsPerProvince"));
+	}
+
+	@Test
+	public void testFlightRecorderEvents() throws IOException {
+		Path dump = Files.createTempFile("mountainhuts", ".jfr");
+		dump.toFile().deleteOnExit();
+		try (Recording recording = new Recording()) {
+			recording.enable("mountainhuts.Query");
+			recording.enable("mountainhuts.LoadPhase");
+			recording.start();
+			Region r = Region.fromFile("Piemonte", TestR3_ReadData.file);
+			r.countMunicipalitiesPerProvince();
+			recording.stop();
+			recording.dump(dump);
+		}
+		List<RecordedEvent> events = RecordingFile.readAllEvents(dump);
+		List<String> queries = events.stream().filter(e -> e.getEventType().getName().equals("mountainhuts.Query"))
+				.map(e -> e.getString("query")).collect(Collectors.toList());
+		assertEquals("Wrong query events", List.of("countMunicipalitiesPerProvince"), queries);
+		long inserted = events.stream().filter(e -> e.getEventType().getName().equals("mountainhuts.LoadPhase")
+				&& e.getString("phase").equals("insert")).mapToLong(e -> e.getInt("rows")).sum();
+		assertEquals("Wrong rows in insert events", Region.fromFile("Piemonte", TestR3_ReadData.file).metrics().getRowsParsed(), inserted);
+	}
+}
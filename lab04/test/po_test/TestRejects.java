@@ -0,0 +1,184 @@
+package it.polito.po.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.Test;
+
+import mountainhuts.MountainHut;
+import mountainhuts.Municipality;
+import mountainhuts.RejectLimitExceededException;
+import mountainhuts.RejectPolicy;
+import mountainhuts.RejectReason;
+import mountainhuts.RejectReport;
+import mountainhuts.RejectedRow;
+import mountainhuts.Region;
+
+public class TestRejects {
+
+	private static final String HEADER = "Province;Municipality;MunicipalityAltitude;Name;Altitude;Category;BedsNumber\n";
+
+	private static final String CONTENT = HEADER
+			+ "CUNEO;ACCEGLIO;1200;A;1660;Rifugio;32\r\n"
+			+ "CUNEO;ACCEGLIO;1200;B;;Bivacco;x\r\n"
+			+ "\n"
+			+ "CUNEO;ACCEGLIO;1200\n"
+			+ "TORINO;BUSSOLENO;440;C;2000;Rifugio;7\n";
+
+	private static String describe(List<RejectedRow> rows) {
+		return rows.stream().map(r -> r.getLineNumber() + " " + r.getReason() + " " + r.getRow())
+				.collect(Collectors.joining("\n"));
+	}
+
+	@Test
+	public void testRowsReported() throws IOException {
+		String file = TestMappedLoader.writeTemp(CONTENT);
+		String expected = "3 BAD_NUMBER CUNEO;ACCEGLIO;1200;B;;Bivacco;x\n5 INCOMPLETE_ROW CUNEO;ACCEGLIO;1200";
+		List<RejectReport> reports = new ArrayList<>();
+		RejectPolicy policy = RejectPolicy.to(reports::add);
+
+		Region.fromFile("Piemonte", file, policy);
+		Region.fromMappedFile("Piemonte", file, policy);
+		Region.fromFileParallel("Piemonte", file, 2, policy);
+		assertEquals("One report per load", 3, reports.size());
+		for (RejectReport report : reports) {
+			assertEquals("Wrong rejected rows", expected, describe(report.getRows()));
+			assertEquals("Wrong rejected count", 2, report.getRejectedRows());
+			assertEquals("Wrong counts per reason",
+					Map.of(RejectReason.BAD_NUMBER, 1L, RejectReason.INCOMPLETE_ROW, 1L), report.getRejectedPerReason());
+		}
+		assertEquals("Wrong message", "For input string: \"x\"", reports.get(0).getRows().get(0).getMessage());
+
+		reports.clear();
+		Region r = new Region("Piemonte");
+		r.setRejectPolicy(policy);
+		r.ingest(CONTENT.lines());
+		assertEquals("Wrong rejected rows", expected, describe(reports.get(0).getRows()));
+	}
+
+	@Test
+	public void testCleanLoadNotReported() {
+		List<RejectReport> reports = new ArrayList<>();
+		Region.fromFile("Piemonte", TestR3_ReadData.file, RejectPolicy.to(reports::add));
+		assertTrue("No report without rejected rows", reports.isEmpty());
+	}
+
+	// enough bad rows for several chunks of the parallel loader
+	private static String manyBadRows(int rows) {
+		StringBuilder s = new StringBuilder(HEADER);
+		for (int i = 0; i < rows; i++) {
+			s.append("CUNEO;ACCEGLIO;1200;H").append(i).append(";1000;Rifugio;").append(i % 3 == 0 ? "x" : "4").append('\n');
+		}
+		return s.toString();
+	}
+
+	@Test
+	public void testKeepsFirstRows() throws IOException {
+		String file = TestMappedLoader.writeTemp(manyBadRows(30000));
+		List<RejectReport> reports = new ArrayList<>();
+		RejectPolicy policy = RejectPolicy.to(reports::add).keep(5);
+		Region.fromFile("Piemonte", file, policy);
+		Region.fromFileParallel("Piemonte", file, 4, policy);
+		for (RejectReport report : reports) {
+			assertEquals("Wrong rejected count", 10000, report.getRejectedRows());
+			assertEquals("Wrong kept lines", List.of(2L, 5L, 8L, 11L, 14L),
+					report.getRows().stream().map(RejectedRow::getLineNumber).collect(Collectors.toList()));
+		}
+	}
+
+	@Test
+	public void testFailFast() throws IOException {
+		String file = TestMappedLoader.writeTemp(manyBadRows(30000));
+		for (int parallelism : new int[] { 0, 4 }) {
+			List<RejectReport> reports = new ArrayList<>();
+			RejectPolicy policy = RejectPolicy.to(reports::add).failAfter(10);
+			try {
+				if (parallelism == 0) {
+					Region.fromFile("Piemonte", file, policy);
+				} else {
+					Region.fromFileParallel("Piemonte", file, parallelism, policy);
+				}
+				fail("Load must stop after 10 rejected rows");
+			} catch (RejectLimitExceededException e) {
+				assertTrue("Report must be marked aborted", e.getReport().isAborted());
+				assertEquals("Wrong rejected count", 11, e.getReport().getRejectedRows());
+				assertEquals("Sink must get the report once", 1, reports.size());
+				assertSame("Sink must get the same report", e.getReport(), reports.get(0));
+			}
+		}
+	}
+
+	@Test
+	public void testMissingValueSentinelRejected() throws IOException {
+		String content = HEADER
+				+ "CUNEO;ACCEGLIO;1200;A;-2147483648;Rifugio;32\n"
+				+ "CUNEO;ACCEGLIO;1200;B;1660;Rifugio;-2147483648\n"
+				+ "CUNEO;CHIUSA;-2147483648;C;;Bivacco;4\n"
+				+ "TORINO;BUSSOLENO;440;D;-2147483647;Rifugio;7\n";
+		String expected = "2 BAD_NUMBER CUNEO;ACCEGLIO;1200;A;-2147483648;Rifugio;32\n"
+				+ "3 BAD_NUMBER CUNEO;ACCEGLIO;1200;B;1660;Rifugio;-2147483648\n"
+				+ "4 BAD_NUMBER CUNEO;CHIUSA;-2147483648;C;;Bivacco;4";
+		String file = TestMappedLoader.writeTemp(content);
+		List<RejectReport> reports = new ArrayList<>();
+		RejectPolicy policy = RejectPolicy.to(reports::add);
+
+		List<Region> regions = new ArrayList<>();
+		regions.add(Region.fromFile("Piemonte", file, policy));
+		regions.add(Region.fromMappedFile("Piemonte", file, policy));
+		regions.add(Region.fromFileParallel("Piemonte", file, 2, policy));
+		Region ingested = new Region("Piemonte");
+		ingested.setRejectPolicy(policy);
+		ingested.ingest(content.lines());
+		regions.add(ingested);
+		assertEquals("One report per load", 4, reports.size());
+		for (RejectReport report : reports) {
+			assertEquals("Wrong rejected rows", expected, describe(report.getRows()));
+		}
+		for (Region r : regions) {
+			assertEquals("Only the valid row must be loaded", 1, r.getMountainHuts().size());
+			assertEquals("Wrong altitude next to the sentinel", Integer.valueOf(-2147483647),
+					r.getMountainHuts().iterator().next().getAltitude().orElse(null));
+		}
+
+		reports.clear();
+		ingested.applyDelta(Stream.of("TORINO;BUSSOLENO;440;D;1000;Rifugio;-2147483648"));
+		assertEquals("Wrong rejected delta row", 1, reports.get(0).getRejectedRows());
+		assertEquals("Delta row must not apply", Integer.valueOf(7),
+				ingested.getMountainHuts().iterator().next().getBedsNumber());
+	}
+
+	@Test
+	public void testMissingValueSentinelRefusedBySetters() {
+		Region r = new Region("Piemonte");
+		Municipality m = r.createOrGetMunicipality("ACCEGLIO", "CUNEO", 1200);
+		MountainHut hut = r.createOrGetMountainHut("A", 1660, "Rifugio", 32, m);
+		List<Runnable> setters = List.of(
+				() -> hut.setBedsNumber(Integer.MIN_VALUE),
+				() -> m.setAltitude(Integer.MIN_VALUE),
+				() -> r.createOrGetMountainHut("B", Integer.MIN_VALUE, "Rifugio", 4, m),
+				() -> r.createOrGetMountainHut("C", 1000, "Rifugio", Integer.MIN_VALUE, m),
+				() -> r.createOrGetMunicipality("CHIUSA", "CUNEO", Integer.MIN_VALUE),
+				() -> new MountainHut("D", Integer.MIN_VALUE, "Rifugio", 4, m));
+		for (Runnable setter : setters) {
+			try {
+				setter.run();
+				fail("Integer.MIN_VALUE must be refused");
+			} catch (IllegalArgumentException e) {
+				// expected
+			}
+		}
+		assertEquals("Wrong beds", Integer.valueOf(32), hut.getBedsNumber());
+		assertEquals("Wrong municipality altitude", Integer.valueOf(1200), m.getAltitude());
+		assertEquals("No hut must be added", 1, r.getMountainHuts().size());
+		assertEquals("No municipality must be added", 1, r.getMunicipalities().size());
+	}
+}
@@ -0,0 +1,94 @@
+package it.polito.po.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import mountainhuts.MountainHut;
+import mountainhuts.Municipality;
+import mountainhuts.Region;
+import mountainhuts.ResultCacheStats;
+
+public class TestResultCache {
+
+	@Test
+	public void testHitsAndInvalidation() {
+		Region r = Region.fromFile("Piemonte", TestR3_ReadData.file);
+		r.setResultCacheSize(64);
+		Map<String, Integer> first = r.totalBedsNumberPerProvince();
+		assertSame("Second call must hit the cache", first, r.totalBedsNumberPerProvince());
+		ResultCacheStats stats = r.getResultCacheStats();
+		assertEquals("Wrong hits", 1, stats.getHits());
+		assertEquals("Wrong misses", 1, stats.getMisses());
+
+		MountainHut h = r.getMountainHuts().iterator().next();
+		h.setBedsNumber(h.getBedsNumber() + 10);
+		Map<String, Integer> after = r.totalBedsNumberPerProvince();
+		assertNotSame("Changes must invalidate the cache", first, after);
+		String province = h.getMunicipality().getProvince();
+		assertEquals("Wrong beds after change", Integer.valueOf(first.get(province) + 10), after.get(province));
+
+		Municipality m = r.createOrGetMunicipality("NEW", "NEWPROVINCE", 100);
+		assertEquals("New municipalities must invalidate the cache", Long.valueOf(1),
+				r.countMunicipalitiesPerProvince().get("NEWPROVINCE"));
+		r.createOrGetMountainHut("NEW HUT", "Rifugio", 5, m);
+		assertEquals("New huts must invalidate the cache", Integer.valueOf(5),
+				r.totalBedsNumberPerProvince().get("NEWPROVINCE"));
+		m.setProvince("OTHER");
+		assertEquals("Municipality changes must invalidate the cache", Integer.valueOf(5),
+				r.totalBedsNumberPerProvince().get("OTHER"));
+
+		Map<String, Long> ranges = r.countMountainHutsPerAltitudeRange();
+		r.setAltitudeRanges("0-1500", "1501-INF");
+		assertNotSame("New ranges must invalidate the cache", ranges, r.countMountainHutsPerAltitudeRange());
+		TestMaterializedAggregates.assertSameAsScan(r);
+	}
+
+	@Test
+	public void testParametersAndEviction() {
+		Region r = Region.fromFile("Piemonte", TestR3_ReadData.file);
+		r.setResultCacheSize(2);
+		Map<String, List<MountainHut>> top3 = r.largestMountainHutsPerProvince(3);
+		Map<String, List<MountainHut>> top5 = r.largestMountainHutsPerProvince(5);
+		assertNotSame("Parameters are part of the key", top3, top5);
+		assertSame("Cached per parameter", top3, r.largestMountainHutsPerProvince(3));
+		r.countMunicipalitiesPerProvince(); // evicts top5, least recently used
+		assertNotSame("Evicted entry", top5, r.largestMountainHutsPerProvince(5));
+		ResultCacheStats stats = r.getResultCacheStats();
+		assertEquals("Wrong evictions", 2, stats.getEvictions());
+		assertEquals("Wrong size", 2, stats.getSize());
+
+		r.setResultCacheSize(0);
+		assertNotSame("Disabled cache", r.countMunicipalitiesPerProvince(), r.countMunicipalitiesPerProvince());
+	}
+
+	@Test
+	public void testResultsAreUnmodifiable() {
+		Region r = Region.fromFile("Piemonte", TestR3_ReadData.file);
+		r.setResultCacheSize(64);
+		Map<Long, List<String>> names = r.municipalityNamesPerCountOfMountainHuts();
+		try {
+			names.values().iterator().next().add("X");
+			fail("Shared results must not be modifiable");
+		} catch (UnsupportedOperationException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testOffByDefault() {
+		Region r = Region.fromFile("Piemonte", TestR3_ReadData.file);
+		Map<String, Integer> beds = r.totalBedsNumberPerProvince();
+		assertNotSame("No cache by default", beds, r.totalBedsNumberPerProvince());
+		assertEquals("No cache by default", 0, r.getResultCacheStats().getCapacity());
+		beds.put("NEWPROVINCE", 1);
+		r.municipalityNamesPerCountOfMountainHuts().values().iterator().next().add("X");
+		assertEquals("Results of other callers must not change", null, r.totalBedsNumberPerProvince().get("NEWPROVINCE"));
+	}
+}
@@ -0,0 +1,81 @@
+package it.polito.po.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import mountainhuts.Municipality;
+import mountainhuts.Region;
+
+public class TestRowParser {
+
+	// the line based reference: every line but the first through the String API
+	static Region reference(String content) {
+		List<String> lines = new ArrayList<>(Arrays.asList(content.split("\r\n|\r|\n")));
+		Region r = new Region("Piemonte");
+		if (!lines.isEmpty()) lines.remove(0);
+		r.ingest(lines.stream());
+		return r;
+	}
+
+	@Test
+	public void testSameAsLineParsing() throws IOException {
+		StringBuilder longName = new StringBuilder();
+		for (int i = 0; i < 70000; i++) longName.append((char) ('a' + i % 26));
+		String content = "Province;Municipality;MunicipalityAltitude;Name;Altitude;Category;BedsNumber\r\n"
+				+ " CUNEO ; ACCEGLIO ;1200; Campo Base ;1660;Rifugio;32\r\n"
+				+ "CUNEO;ACCEGLIO;999;Duplicate;;Bivacco;x\r"
+				+ "CUNEO;ACCEGLIO;;Short;;Bivacco;\n"
+				+ "CUNEO;ACCEGLIO;;Empty beds;;Bivacco;;extra\n"
+				+ "\n\r\n"
+				+ "TORINO;BUSSOLENO;;Alpe;;Bivacco;-4;extra;fields\n"
+				+ "TORINO;BUSSOLENO;440;" + longName + ";2000;Rifugio;7\n"
+				+ "TORINO;BUSSOLENO;440;Big;99999999999;Rifugio;7\n"
+				+ "TORINO;BUSSOLENO;440;Tappa;+2000;Rifugio;7";
+		String file = TestMappedLoader.writeTemp(content);
+
+		Region r = Region.fromFile("Piemonte", file);
+		assertEquals("Different huts than line parsing", TestMappedLoader.describe(reference(content)),
+				TestMappedLoader.describe(r));
+		assertEquals("Wrong number of mountain huts", 4, r.getMountainHuts().size());
+	}
+
+	@Test
+	public void testSameOnSampleFile() {
+		Region r = Region.fromFile("Piemonte", TestR3_ReadData.file);
+		Region expected = new Region("Piemonte");
+		List<String> lines = Region.readData(TestR3_ReadData.file);
+		lines.remove(0);
+		expected.ingest(lines.stream());
+		assertEquals("Different huts than line parsing", TestMappedLoader.describe(expected), TestMappedLoader.describe(r));
+	}
+
+	@Test
+	public void testIngestReaderSkipsHeaders() throws IOException {
+		Region r = new Region("Piemonte");
+		int applied = r.ingest(new StringReader(
+				"Province;Municipality;MunicipalityAltitude;Name;Altitude;Category;BedsNumber\n"
+						+ "CUNEO;ACCEGLIO;1200;A;1660;Rifugio;32\n"
+						+ "Province;Municipality;MunicipalityAltitude;Name;Altitude;Category;BedsNumber\n"
+						+ "CUNEO;ELVA;1600;B;;Rifugio;3"));
+		assertEquals("Wrong number of rows applied", 2, applied);
+	}
+
+	@Test
+	public void testRepeatedValuesShared() {
+		Region r = Region.fromFile("Piemonte", TestR3_ReadData.file);
+		Municipality first = null;
+		for (Municipality m : r.getMunicipalities()) {
+			if (!m.getProvince().equals("CUNEO")) continue;
+			if (first == null) first = m;
+			assertSame("Province values must be pooled", first.getProvince(), m.getProvince());
+		}
+	}
+}
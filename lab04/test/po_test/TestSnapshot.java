@@ -0,0 +1,88 @@
+package it.polito.po.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import org.junit.Test;
+
+import mountainhuts.MountainHut;
+import mountainhuts.Municipality;
+import mountainhuts.Region;
+
+public class TestSnapshot {
+
+	static Path tempSnapshot() throws IOException {
+		File f = File.createTempFile("mountain_huts", ".snapshot");
+		f.deleteOnExit();
+		return f.toPath();
+	}
+
+	@Test
+	public void testRoundTrip() throws IOException {
+		Region r = Region.fromFile("Piemonte", TestR3_ReadData.file);
+		r.setAltitudeRanges("0-1000", "1001-1500", "1501-2000", "2001-INF");
+		Path file = tempSnapshot();
+		r.saveSnapshot(file);
+
+		for (boolean mapped : new boolean[] { true, false }) {
+			Region loaded = Region.loadSnapshot(file, mapped);
+			assertEquals("Wrong name", "Piemonte", loaded.getName());
+			assertEquals("Wrong number of municipalities", 94, loaded.getMunicipalities().size());
+			assertEquals("Different huts after loading", TestMappedLoader.describe(r), TestMappedLoader.describe(loaded));
+			assertEquals("Wrong ranges", r.countMountainHutsPerAltitudeRange(), loaded.countMountainHutsPerAltitudeRange());
+			assertEquals("Wrong range", "1001-1500", loaded.getAltitudeRange(1200));
+			TestMaterializedAggregates.assertSameAsScan(loaded);
+		}
+	}
+
+	@Test
+	public void testLoadedRegionIsUsable() throws IOException {
+		Region r = Region.fromFile("Piemonte", TestR3_ReadData.file);
+		TestMaterializedAggregates.mutate(r, new Random(3), 200);
+		Path file = tempSnapshot();
+		r.saveSnapshot(file);
+
+		Region loaded = Region.loadSnapshot(file);
+		assertEquals("Different huts after loading", TestMappedLoader.describe(r), TestMappedLoader.describe(loaded));
+		TestMaterializedAggregates.assertSameAsScan(loaded);
+
+		Municipality m = loaded.createOrGetMunicipality("ACCEGLIO", "X", 1);
+		assertSame("Loaded municipalities must be found by name",
+				m, loaded.createOrGetMunicipality("ACCEGLIO", "Y", 2));
+		MountainHut h = loaded.createOrGetMountainHut("New hut", 2100, "Bivacco", 9, m);
+		assertSame("Loaded huts must be found by name", h, loaded.createOrGetMountainHut("New hut", "Rifugio", 1, m));
+		TestMaterializedAggregates.mutate(loaded, new Random(4), 100);
+		TestMaterializedAggregates.assertSameAsScan(loaded);
+	}
+
+	@Test
+	public void testEmptyRegion() throws IOException {
+		Path file = tempSnapshot();
+		new Region("Empty").saveSnapshot(file);
+		Region loaded = Region.loadSnapshot(file, false);
+		assertTrue("Region must be empty", loaded.getMountainHuts().isEmpty());
+		loaded.createOrGetMountainHut("Hut", "Rifugio", 3, loaded.createOrGetMunicipality("M", "P", 100));
+		assertEquals("Wrong number of mountain huts", 1, loaded.getMountainHuts().size());
+	}
+
+	@Test
+	public void testNotASnapshot() throws IOException {
+		Path file = tempSnapshot();
+		Files.write(file, "Province;Municipality\n".getBytes(StandardCharsets.UTF_8));
+		try {
+			Region.loadSnapshot(file);
+			fail("A CSV file must be rejected");
+		} catch (IOException e) {
+			// expected
+		}
+	}
+}
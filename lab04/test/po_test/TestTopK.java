@@ -0,0 +1,86 @@
+package it.polito.po.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import org.junit.Test;
+
+import mountainhuts.MountainHut;
+import mountainhuts.Municipality;
+import mountainhuts.Region;
+
+public class TestTopK {
+
+	// reference: sort every group completely, keeping the insertion order on ties
+	static Map<String, List<Integer>> expected(Region r, Function<MountainHut, String> group, int k) {
+		List<MountainHut> huts = new ArrayList<>(r.getMountainHuts());
+		return huts.stream().collect(Collectors.groupingBy(group, Collectors.collectingAndThen(Collectors.toList(),
+				l -> l.stream().sorted(Comparator.comparing(MountainHut::getBedsNumber).reversed())
+						.limit(k).map(MountainHut::getBedsNumber).collect(Collectors.toList()))));
+	}
+
+	static Map<String, List<Integer>> beds(Map<String, List<MountainHut>> top) {
+		return top.entrySet().stream().collect(Collectors.toMap(Map.Entry::getKey,
+				e -> e.getValue().stream().map(MountainHut::getBedsNumber).collect(Collectors.toList())));
+	}
+
+	@Test
+	public void testTopPerGroup() {
+		Region r = Region.fromFile("Piemonte", TestR3_ReadData.file);
+		r.setAltitudeRanges("0-1000", "1001-1500", "1501-2000", "2001-INF");
+		for (int k : new int[] { 1, 3, 10, 1000 }) {
+			assertEquals("Wrong top per province", expected(r, h -> h.getMunicipality().getProvince(), k),
+					beds(r.largestMountainHutsPerProvince(k)));
+			assertEquals("Wrong top per municipality", expected(r, h -> h.getMunicipality().getName(), k),
+					beds(r.largestMountainHutsPerMunicipality(k)));
+			assertEquals("Wrong top per range",
+					expected(r, h -> r.getAltitudeRange(TestMaterializedAggregates.effectiveAltitude(h)), k),
+					beds(r.largestMountainHutsPerAltitudeRange(k)));
+		}
+		assertTrue("k = 0 returns no group", r.largestMountainHutsPerProvince(0).isEmpty());
+	}
+
+	@Test
+	public void testTiesKeepInsertionOrder() {
+		Region r = new Region("Piemonte");
+		Municipality m = r.createOrGetMunicipality("Acceglio", "Cuneo", 1200);
+		r.createOrGetMountainHut("A", "Rifugio", 10, m);
+		r.createOrGetMountainHut("B", "Rifugio", 30, m);
+		r.createOrGetMountainHut("C", "Rifugio", 10, m);
+		r.createOrGetMountainHut("D", "Rifugio", 10, m);
+		List<String> names = r.largestMountainHutsPerProvince(3).get("Cuneo").stream()
+				.map(MountainHut::getName).collect(Collectors.toList());
+		assertEquals("Wrong top", List.of("B", "A", "C"), names);
+	}
+
+	@Test
+	public void testTiesAcrossSameNamedMunicipalities() {
+		Region other = new Region("Altra");
+		Municipality adopted = other.createOrGetMunicipality("X", "Cuneo", 1200);
+		Region r = new Region("Piemonte");
+		Municipality local = r.createOrGetMunicipality("X", "Cuneo", 1200);
+		r.createOrGetMountainHut("first", "Rifugio", 10, adopted);
+		r.createOrGetMountainHut("second", "Rifugio", 10, local);
+		List<String> names = r.largestMountainHutsPerMunicipality(1).get("X").stream()
+				.map(MountainHut::getName).collect(Collectors.toList());
+		assertEquals("The hut inserted first wins a tie", List.of("first"), names);
+		assertEquals("Wrong top", List.of("first", "second"), r.largestMountainHutsPerMunicipality(2).get("X").stream()
+				.map(MountainHut::getName).collect(Collectors.toList()));
+	}
+
+	@Test
+	public void testTopAfterMutations() {
+		Region r = Region.fromFile("Piemonte", TestR3_ReadData.file);
+		TestMaterializedAggregates.mutate(r, new Random(9), 300);
+		assertEquals("Wrong top per province", expected(r, h -> h.getMunicipality().getProvince(), 5),
+				beds(r.largestMountainHutsPerProvince(5)));
+	}
+}